@@ -0,0 +1,4 @@
+package simpledb.benchmark.jmh_generated;
+public class PageEncodeBenchmark_jmhType extends PageEncodeBenchmark_jmhType_B3 {
+}
+
@@ -1,7 +1,9 @@
 package simpledb.common;
 
+import simpledb.storage.ColumnarFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -168,7 +170,11 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the
-     * database.
+     * database. Each line describes one table as
+     * <code>name (field type [pk], ...) [format]</code>, where the optional
+     * format is <code>heap</code> (the default) for a {@link HeapFile},
+     * <code>slotted</code> for a {@link SlottedHeapFile} or
+     * <code>columnar</code> for a {@link ColumnarFile}.
      *
      * @param catalogFile
      */
@@ -211,7 +217,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                // an optional storage format may follow the field list
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf;
+                if (format.isEmpty() || format.equalsIgnoreCase("heap"))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("columnar"))
+                    tabHf = new ColumnarFile(dataFile, t);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
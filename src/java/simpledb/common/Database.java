@@ -1,11 +1,14 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
 import simpledb.storage.LogFile;
+import simpledb.transaction.LockManager;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
 
 /**
  * Database is a class that initializes several static variables used by the
@@ -62,14 +65,64 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it. Committed pages the old buffer pool had not written yet are
+     * written first.
      */
     public static BufferPool resetBufferPool(int pages) {
+        return replaceBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool that
+     * evicts pages as the specified policy chooses, and return it.
+     *
+     * @see #resetBufferPool(int)
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
+        return replaceBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool with
+     * the specified number of partitions, and return it.
+     *
+     * @see BufferPool#BufferPool(int, int, IntFunction)
+     */
+    public static BufferPool resetBufferPool(int pages, int partitions,
+            IntFunction<EvictionPolicy> policies) {
+        return replaceBufferPool(new BufferPool(pages, partitions, policies));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool that
+     * handles deadlocks as the specified policy says, and return it.
+     *
+     * @see #resetBufferPool(int)
+     */
+    public static BufferPool resetBufferPool(int pages, LockManager.DeadlockPolicy deadlocks) {
+        return replaceBufferPool(new BufferPool(pages, deadlocks));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool with
+     * the specified number of partitions and deadlock policy, and return it.
+     *
+     * @see BufferPool#BufferPool(int, int, IntFunction, LockManager.DeadlockPolicy)
+     */
+    public static BufferPool resetBufferPool(int pages, int partitions,
+            IntFunction<EvictionPolicy> policies, LockManager.DeadlockPolicy deadlocks) {
+        return replaceBufferPool(new BufferPool(pages, partitions, policies, deadlocks));
+    }
+
+    private static BufferPool replaceBufferPool(BufferPool pool) {
+        BufferPool old = _instance.get()._bufferpool;
+        old.writeCommittedPages();
+        old.close();
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -77,9 +130,10 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
-    // reset the database, used for unit tests only.
+    // reset the database, used for unit tests only. Like a crash, this loses
+    // committed pages the buffer pool had not written yet.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._bufferpool.close();
     }
 
 }
@@ -7,6 +7,7 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +31,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +58,23 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, offset);
+                }
+                byte[] bs = new byte[strLen];
+                for (int i = 0; i < strLen; ++i) {
+                    bs[i] = buf.get(offset + 4 + i);
+                }
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +93,14 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param buf    The buffer to read from; its position is left untouched
+     * @param offset The absolute index in the buffer the field starts at
+     * @return a Field object of the same type as this object that has contents
+     *         read from the specified buffer.
+     * @throws ParseException if the data in the buffer is not of the
+     *                        appropriate type.
+     */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -11,6 +11,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -20,7 +22,10 @@ import java.util.NoSuchElementException;
 public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
-    
+
+    // number of child tuples handed to the buffer pool at once
+    private static final int BATCH_SIZE = 1024;
+
     private OpIterator child;
     private final TransactionId tid;
     private Tuple res;
@@ -47,13 +52,20 @@ public class Delete extends Operator {
         // DONE: some code goes here
 child.open();
         
+        // delete in batches so that rows sharing a page are removed with a
+        // single page access
         int cnt = 0;
+        List<Tuple> batch = new ArrayList<>();
         while (child.hasNext()) {
             ++cnt;
-            try {
-                Database.getBufferPool().deleteTuple(tid, child.next());
-            } catch (NoSuchElementException | IOException e) {
-                e.printStackTrace();
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().deleteTuples(tid, batch);
+                } catch (NoSuchElementException | IOException e) {
+                    e.printStackTrace();
+                }
+                batch.clear();
             }
         }
         res = new Tuple(getTupleDesc());
@@ -80,7 +92,7 @@ child.open();
      *
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
-     * @see BufferPool#deleteTuple
+     * @see BufferPool#deleteTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // DONE: some code goes here
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
@@ -21,13 +22,15 @@ public class SeqScan implements OpIterator {
     private static final long serialVersionUID = 1L;
 
     private final TransactionId tid;
-//    private int tableid;
+    private int tableid;
     private String tableAlias;
     private TupleDesc td;// added prefix(tableAlias)
     private DbFileIterator it;
+    // fields the query reads, null for all of them
+    private int[] fields;
 
     private void init(int tableid, String tableAlias) {
-//        this.tableid = tableid;
+        this.tableid = tableid;
         this.tableAlias = tableAlias;
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
         td = Database.getCatalog().getTupleDesc(tableid);
@@ -43,7 +46,12 @@ public class SeqScan implements OpIterator {
             fields[i] = rawField;
         }
         td = new TupleDesc(types, fields);
-        it = f.iterator(tid);
+        if (this.fields != null) {
+            td = td.project(this.fields);
+            it = f.iterator(tid, this.fields);
+        } else {
+            it = f.iterator(tid);
+        }
     }
 
     /**
@@ -61,7 +69,24 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // DONE: some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only needs the specified fields of the
+     * table. The returned tuples, and its TupleDesc, have only those fields,
+     * in the order given; a file that stores its columns apart reads only
+     * their pages (see {@link DbFile#iterator(TransactionId, int[])}).
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param fields     the indexes of the fields the query references, or null
+     *                   for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
         this.tid = tid;
+        this.fields = fields;
         init(tableid, tableAlias);
     }
 
@@ -82,7 +107,8 @@ public class SeqScan implements OpIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * Reset the tableid, and tableAlias of this operator. The scan reads all
+     * the fields of the new table.
      *
      * @param tableid    the table to scan.
      * @param tableAlias the alias of this table (needed by the parser); the
@@ -94,6 +120,8 @@ public class SeqScan implements OpIterator {
      */
     public void reset(int tableid, String tableAlias) {
         // DONE: some code goes here
+        // the fields were chosen for the old table
+        fields = null;
         init(tableid, tableAlias);
     }
 
@@ -101,8 +129,13 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Locks the table for reading up front, rather than each page as it is
+     * read.
+     */
     public void open() throws DbException, TransactionAbortedException {
         // DONE: some code goes here
+        Database.getBufferPool().lockTable(tid, tableid, Permissions.READ_ONLY);
         it.open();
     }
 
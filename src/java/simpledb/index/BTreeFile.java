@@ -11,7 +11,8 @@ import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -34,6 +35,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final PageChannel io;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -48,6 +50,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.io = new PageChannel(f);
     }
 
     /**
@@ -89,35 +92,14 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
+                byte[] pageBuf = readPageBytes(0, BTreeRootPtrPage.getPageSize());
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1)
-                        * BufferPool.getPageSize()) != BTreeRootPtrPage.getPageSize()
-                                + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to read " + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
+                byte[] pageBuf = readPageBytes(getOffset(id.getPageNumber()),
+                        BufferPool.getPageSize());
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
@@ -130,8 +112,21 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    private byte[] readPageBytes(long offset, int len) throws IOException {
+        if (offset + len > io.size()) {
+            throw new IllegalArgumentException(
+                    "Unable to read " + len + " bytes from BTreeFile at offset " + offset);
+        }
+        return io.read(offset, len);
+    }
+
+    /**
+     * Returns the file offset of the specified non root pointer page
+     */
+    private long getOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -143,22 +138,17 @@ public class BTreeFile implements DbFile {
     public void writePage(Page page) throws IOException {
         BTreePageId id = (BTreePageId) page.getId();
 
-        byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            io.write(0, page);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize()
-                    + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            io.write(getOffset(page.getId().getPageNumber()), page);
         }
     }
 
     /**
      * Returns the number of pages in this BTreeFile.
      */
+    @Override
     public int numPages() {
         // we only ever write full pages
         return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
@@ -1066,12 +1056,10 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                io.write(0, emptyRootPtrData);
+                io.write(emptyRootPtrData.length, emptyLeafData);
             }
         }
 
@@ -1131,10 +1119,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                io.write(io.size(), emptyData);
                 emptyPageNo = numPages();
             }
         }
@@ -1167,11 +1153,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize()
-                + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        io.write(getOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool or in the local cache
         Database.getBufferPool().removePage(newPageId);
@@ -1314,6 +1296,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final BTreeFile f;
+    // leaves are read in right-sibling order
+    final ReadAhead readAhead = new ReadAhead(
+            page -> ((BTreeLeafPage) page).getRightSiblingId(), ReadAhead.DEFAULT_MAX_WINDOW);
 
     /**
      * Constructor for this iterator
@@ -1354,8 +1339,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
                 curp = null;
             } else {
 //                System.out.println("Next page " + nextp);
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp,
-                        Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) readAhead.getPage(tid, nextp, Permissions.READ_ONLY);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1382,6 +1366,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
         curp = null;
+        readAhead.reset();
     }
 }
 
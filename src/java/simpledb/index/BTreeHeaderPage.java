@@ -6,10 +6,12 @@ import simpledb.common.Type;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.PageChannel;
 import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -117,7 +119,7 @@ public class BTreeHeaderPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
         }
     }
 
@@ -140,41 +142,23 @@ public class BTreeHeaderPage implements Page {
      * @see #BTreeHeaderPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
+    /**
+     * Writes the bytes {@link #getPageData()} returns straight into the
+     * specified buffer.
+     */
+    @Override
+    public void writePageData(ByteBuffer buf) {
         // write out the next and prev pointers
-        try {
-            dos.writeInt(nextPage);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        try {
-            dos.writeInt(prevPage);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        buf.putInt(nextPage);
+        buf.putInt(prevPage);
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        buf.put(header);
     }
 
     /**
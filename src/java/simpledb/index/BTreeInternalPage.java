@@ -5,9 +5,11 @@ import simpledb.execution.Predicate.Op;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.PageChannel;
 import simpledb.storage.RecordId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -158,7 +160,7 @@ public class BTreeInternalPage extends BTreePage {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
         }
     }
 
@@ -233,105 +235,44 @@ public class BTreeInternalPage extends BTreePage {
      * @see #BTreeInternalPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // write out the parent pointer
-        try {
-            dos.writeInt(parent);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // write out the child page category
-        try {
-            dos.writeByte((byte) childCategory);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Writes the bytes {@link #getPageData()} returns straight into the
+     * specified buffer.
+     */
+    @Override
+    public void writePageData(ByteBuffer buf) {
+        // write out the parent pointer and the child page category
+        buf.putInt(parent);
+        buf.put((byte) childCategory);
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        buf.put(header);
 
         // create the keys
         // start from 1 because the first key slot is not used
         // since a node with m keys has m+1 pointers
+        int keyLen = td.getFieldType(keyField).getLen();
         for (int i = 1; i < keys.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getFieldType(keyField).getLen(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            try {
-                keys[i].serialize(dos);
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (isSlotUsed(i)) {
+                keys[i].serialize(buf);
+            } else {
+                PageChannel.putZeroes(buf, keyLen);
             }
-
         }
 
         // create the child pointers
         for (int i = 0; i < children.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < INDEX_SIZE; j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            try {
-                dos.writeInt(children[i]);
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            buf.putInt(isSlotUsed(i) ? children[i] : 0);
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
-                td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        PageChannel.putZeroes(buf, BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length
+                + keyLen * (keys.length - 1) + INDEX_SIZE * children.length));
     }
 
     /**
@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 import simpledb.storage.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -148,7 +149,7 @@ public class BTreeLeafPage extends BTreePage {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
         }
     }
 
@@ -198,84 +199,43 @@ public class BTreeLeafPage extends BTreePage {
      * @see #BTreeLeafPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
+    /**
+     * Writes the bytes {@link #getPageData()} returns straight into the
+     * specified buffer.
+     */
+    @Override
+    public void writePageData(ByteBuffer buf) {
         // write out the parent and sibling pointers
-        try {
-            dos.writeInt(parent);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        try {
-            dos.writeInt(leftSibling);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        try {
-            dos.writeInt(rightSibling);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        buf.putInt(parent);
+        buf.putInt(leftSibling);
+        buf.putInt(rightSibling);
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        buf.put(header);
 
         // create the tuples
         for (int i = 0; i < tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                PageChannel.putZeroes(buf, td.getSize());
                 continue;
             }
 
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                tuples[i].getField(j).serialize(buf);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        PageChannel.putZeroes(buf, BufferPool.getPageSize()
+                - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE));
     }
 
     /**
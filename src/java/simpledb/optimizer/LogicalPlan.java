@@ -297,6 +297,58 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Collect the fields of the table scanned as the specified alias that the
+     * select list, filters, joins, aggregate or ORDER BY of this plan reference,
+     * so that a scan of a columnar table can skip the other columns.
+     *
+     * @param alias the alias the table is scanned as
+     * @param td    the TupleDesc of the table, without alias prefixes
+     * @return the sorted indexes of the referenced fields, or null if the query
+     *         needs all of them (e.g. SELECT *)
+     */
+    private int[] getReferencedFields(String alias, TupleDesc td) {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+
+        Set<Integer> fields = new TreeSet<>();
+        for (String name : names) {
+            String[] parts = name == null ? new String[0] : name.split("[.]");
+            if (parts.length != 2) {
+                continue;
+            }
+            if (parts[1].equals("*")) {
+                return null;
+            }
+            if (parts[0].equals(alias)) {
+                try {
+                    fields.add(td.indexForFieldName(parts[1]));
+                } catch (NoSuchElementException e) {
+                    // let the planner report it, and read everything meanwhile
+                    return null;
+                }
+            }
+        }
+        int[] result = new int[fields.size()];
+        int i = 0;
+        for (int field : fields) {
+            result[i++] = field;
+        }
+        return result;
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -322,7 +374,8 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                        getReferencedFields(table.alias, Database.getCatalog().getTupleDesc(table.t)));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -364,7 +417,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().indexForFieldName(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are by field of the table, not of the scan
+            double sel = s.estimateSelectivity(Database.getCatalog().getTupleDesc(getTableId(lf.tableAlias))
+                    .indexForFieldName(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -133,7 +133,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // DONE: some code goes here
-        return ((HeapFile) file).numPages() * ioCostPerPage;
+        return file.numPages() * ioCostPerPage;
     }
 
     /**
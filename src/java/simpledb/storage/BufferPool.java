@@ -3,12 +3,22 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -17,7 +27,47 @@ import java.util.concurrent.atomic.AtomicLong;
  * <p>
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool checks that the transaction has the appropriate locks to
- * read/write the page.
+ * read/write the page, waiting for a {@link LockManager} to grant them. Page
+ * locks are taken under intention locks on their table; a scan of a whole
+ * table locks the table instead (see {@link #lockTable}), and a transaction
+ * that locks many pages of a table is escalated to a table lock. Heap file
+ * inserts and deletes lock rows under IX page locks instead (see
+ * {@link #getPageForRows}), so that transactions change different rows of a
+ * page at once; commit and abort then log and undo only the rows of the
+ * transaction, and a page is only written while no other running
+ * transaction holds a lock on it. Deadlocks are handled as the
+ * {@link LockManager.DeadlockPolicy} passed to the constructor says, by
+ * aborting the youngest transaction of a cycle unless another is passed.
+ * <p>
+ * A read-only transaction may instead read a snapshot of the database taken
+ * when it begins (see {@link #beginSnapshot}). It takes no locks, so it
+ * neither waits for writers nor holds them up: it reads the committed version
+ * of each page, from the before image of the cached page, or from a
+ * {@link VersionStore} that keeps the versions later commits replaced for as
+ * long as a snapshot may need them.
+ * <p>
+ * Commit does not write the pages of the transaction (NO-FORCE). It logs their
+ * after images and forces the log, so the transaction is durable, and leaves
+ * the pages in the pool as committed but unwritten. A background writer
+ * trickles them out to disk, so that pages evicted later are usually clean.
+ * If no page is clean or committed, eviction may write a page that a running
+ * transaction dirtied (STEAL), once its before image is logged, so that an
+ * abort or recovery can undo it. A page is always written after the log
+ * records of its changes are forced.
+ * <p>
+ * Which page is evicted when the pool is full is up to an
+ * {@link EvictionPolicy}, LRU unless another one is passed to the
+ * constructor. Large sequential reads bypass it by cycling through a
+ * {@link BufferRing} of their own, so that they do not push out pages other
+ * transactions keep using.
+ * <p>
+ * The pool is split into partitions by page ID hash, each with its own
+ * eviction policy under its own monitor, so that a cache hit, or a miss that
+ * can evict a clean page, only takes the monitor of its partition. The pool
+ * still holds at most numPages pages in all; a miss evicts from its own
+ * partition first and from the others if that has nothing to evict. Commit,
+ * abort and anything that writes a page take the buffer pool monitor, and
+ * then partition monitors as needed, never the other way round.
  *
  * @Threadsafe, all fields are final
  */
@@ -36,73 +86,185 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    // the default constructor gives each partition at least this many pages
+    private static final int MIN_PARTITION_PAGES = 64;
+
+    // how often the background writer looks for committed pages to write
+    private static final long WRITER_INTERVAL_MS = 10;
+
+    private static final ScheduledExecutorService writerExecutor = Executors
+            .newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "page-writer");
+                t.setDaemon(true);
+                return t;
+            });
+
     private final int numPages;
     private final ConcurrentHashMap<PageId, Page> pages;
 
-    private class LRUStrategy {
-        final AtomicLong nowcnt = new AtomicLong(0);
+    private final Partition[] partitions;
+    // pages read through a ring that nobody else has requested
+    private final ConcurrentHashMap<PageId, BufferRing> ringPages = new ConcurrentHashMap<>();
 
-        public long getNow() {
-            return nowcnt.getAndIncrement();
-        }
+    // pages being read by prefetchPage, completed once the read is installed
+    private final ConcurrentHashMap<PageId, CompletableFuture<Void>> prefetching = new ConcurrentHashMap<>();
 
-        final ConcurrentHashMap<PageId, Long> lastCnt = new ConcurrentHashMap<>();
+    // committed pages not written yet, in commit order; only changed and iterated
+    // with this held, but looked up by evictions without it
+    private final Set<PageId> unwritten = Collections.synchronizedSet(new LinkedHashSet<>());
+    // how far the log has to be on disk before each unwritten page is written
+    private final ConcurrentHashMap<PageId, Long> commitLsns = new ConcurrentHashMap<>();
+    // where the first log record of each unwritten page that is not on disk
+    // starts, taken before the record is appended; the dirty page table of
+    // a checkpoint
+    private final ConcurrentHashMap<PageId, Long> recLsns = new ConcurrentHashMap<>();
+    // running transactions that had a dirty page written by eviction
+    private final Set<TransactionId> stolen = ConcurrentHashMap.newKeySet();
+    // the commit numbers of transactions whose pages are logged, until their
+    // COMMIT records are on disk
+    private final ConcurrentHashMap<TransactionId, Long> prepared = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong foregroundWrites = new AtomicLong(0);
+    private final AtomicLong backgroundWrites = new AtomicLong(0);
+    private final AtomicLong steals = new AtomicLong(0);
+    private volatile boolean closed = false;
+    private final ScheduledFuture<?> writer;
 
-        public void visitPage(PageId pageId) {
-            lastCnt.put(pageId, getNow());
-        }
+    /**
+     * One stripe of the buffer pool. Its monitor protects its eviction policy;
+     * while holding it, a thread takes neither the buffer pool monitor nor that
+     * of another partition.
+     */
+    private static class Partition {
+        final EvictionPolicy policy;
+        // bumped whenever a page of this partition is written or removed, so that
+        // a read of the page from disk that started before does not install a
+        // stale copy
+        final AtomicLong invalidations = new AtomicLong(0);
 
-        public PageId getLruPageId() throws DbException {
-            PageId minPage = null;
-            Long minCnt = Long.MAX_VALUE;
-            for (Map.Entry<PageId, Long> pair : lastCnt.entrySet()) {
-                Page page = pages.get(pair.getKey());
-                if (null != page.isDirty()) {
-                    continue;
-                }
-                Long cnt = pair.getValue();
-                if (cnt < minCnt) {
-                    minCnt = cnt;
-                    minPage = pair.getKey();
-                }
-            }
-            if (minPage == null) {
-                throw new DbException("all dirty, no way evict");
-            }
-            return minPage;
+        Partition(EvictionPolicy policy) {
+            this.policy = policy;
         }
+    }
 
-        public PageId getAnyLruPageId() throws DbException {
-            PageId minPage = null;
-            Long minCnt = Long.MAX_VALUE;
-            for (Map.Entry<PageId, Long> pair : lastCnt.entrySet()) {
-                Long cnt = pair.getValue();
-                if (cnt < minCnt) {
-                    minCnt = cnt;
-                    minPage = pair.getKey();
-                }
-            }
-            assert minPage != null;
-            return minPage;
-        }
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with LRU eviction
+     * in up to one partition per processor.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, defaultPartitions(numPages), pages -> new LRUPolicy());
+    }
 
-        public void removePage(PageId pageId) {
-            lastCnt.remove(pageId);
-        }
+    /**
+     * Creates a BufferPool of a single partition that caches up to numPages
+     * pages and evicts the pages the specified policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the eviction policy, used by this buffer pool only
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, 1, pages -> policy);
     }
 
-    private final LRUStrategy lru;
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with LRU eviction
+     * in up to one partition per processor, and handles deadlocks as the
+     * specified policy says.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param deadlocks the deadlock policy of its lock manager
+     */
+    public BufferPool(int numPages, LockManager.DeadlockPolicy deadlocks) {
+        this(numPages, defaultPartitions(numPages), pages -> new LRUPolicy(), deadlocks);
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages in the specified
+     * number of partitions.
      *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPages   maximum number of pages in this buffer pool.
+     * @param partitions the number of partitions
+     * @param policies   creates the eviction policy of each partition, given
+     *                   its share of numPages
      */
-    public BufferPool(int numPages) {
+    public BufferPool(int numPages, int partitions, IntFunction<EvictionPolicy> policies) {
+        this(numPages, partitions, policies, LockManager.DeadlockPolicy.YOUNGEST);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the specified
+     * number of partitions, and handles deadlocks as the specified policy
+     * says.
+     *
+     * @param numPages   maximum number of pages in this buffer pool.
+     * @param partitions the number of partitions
+     * @param policies   creates the eviction policy of each partition, given
+     *                   its share of numPages
+     * @param deadlocks  the deadlock policy of its lock manager
+     */
+    public BufferPool(int numPages, int partitions, IntFunction<EvictionPolicy> policies,
+            LockManager.DeadlockPolicy deadlocks) {
         // DONE: some code goes here
+        if (partitions < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one partition");
+        }
         this.numPages = numPages;
+        lockManager = new LockManager(deadlocks);
         pages = new ConcurrentHashMap<>();
-        lru = new LRUStrategy();
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; ++i) {
+            this.partitions[i] = new Partition(policies.apply(Math.max(1, numPages / partitions)));
+        }
+        writer = writerExecutor.scheduleWithFixedDelay(new Writer(this), WRITER_INTERVAL_MS,
+                WRITER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // holds the pool weakly, so a pool nobody closes can still be collected
+    private static class Writer implements Runnable {
+        private final WeakReference<BufferPool> pool;
+
+        Writer(BufferPool pool) {
+            this.pool = new WeakReference<>(pool);
+        }
+
+        @Override
+        public void run() {
+            BufferPool bp = pool.get();
+            if (bp == null || bp.closed) {
+                // stops the periodic task
+                throw new CancellationException();
+            }
+            bp.writeBehind();
+        }
+    }
+
+    private static int defaultPartitions(int numPages) {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                numPages / MIN_PARTITION_PAGES));
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of partitions of this buffer pool
+     */
+    public int getPartitions() {
+        return partitions.length;
+    }
+
+    private int partitionIndex(PageId pid) {
+        return Math.floorMod(pid.hashCode(), partitions.length);
+    }
+
+    private Partition partition(PageId pid) {
+        return partitions[partitionIndex(pid)];
     }
 
     public static int getPageSize() {
@@ -119,12 +281,17 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
-    public synchronized void addPage(PageId pid, Page page) {
-        pages.put(pid, page);
-        lru.visitPage(pid);
+    public void addPage(PageId pid, Page page) {
+        Partition part = partition(pid);
+        synchronized (part) {
+            // a new version of a cached page is not another access to it
+            if (pages.put(pid, page) == null) {
+                part.policy.pageAdded(pid);
+            }
+        }
     }
 
-    public synchronized void addPage(Page page) {
+    public void addPage(Page page) {
         addPage(page.getId(), page);
     }
 
@@ -136,247 +303,392 @@ public class BufferPool {
         return getFile(pid.getTableId());
     }
 
-    private static class Locks {
-        // maybe concurrent hash set better
-//        public List<TransactionId> shares = Collections.synchronizedList(new ArrayList<>());
-        public Set<TransactionId> shares = ConcurrentHashMap.newKeySet();
-        public volatile TransactionId exclude = null;
+    private final LockManager lockManager;
+    private final VersionStore versions = new VersionStore();
+    // the pages each running transaction locked exclusively, which are the only
+    // ones it can have dirtied, so that completing it looks at no others
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets = new ConcurrentHashMap<>();
 
-        public synchronized boolean hasLock(TransactionId tid) {
-            return tid.equals(exclude) || shares.contains(tid);
-        }
+    private Set<PageId> writeSet(TransactionId tid) {
+        return writeSets.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet());
+    }
 
-        public synchronized void removeLock(TransactionId tid) {
-            if (tid.equals(exclude)) {
-                exclude = null;
-            }
-            if (shares.contains(tid)) {
-                shares.remove(tid);
+    // the pages of the write set of the transaction that it has dirtied
+    private List<Page> dirtiedBy(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : writeSets.getOrDefault(tid, Collections.emptySet())) {
+            Page page = pages.get(pid);
+            if (page != null && page.isDirtiedBy(tid)) {
+                dirty.add(page);
             }
         }
+        return dirty;
+    }
 
-        private synchronized boolean getNoExclude(TransactionId tid, Permissions perm) {
-            return exclude == null || exclude.equals(tid);
-        }
+    /**
+     * Retrieve the specified page with the associated permissions. Will acquire a
+     * lock and may block if that lock is held by another transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool. If it is present,
+     * it should be returned. If it is not present, it should be added to the buffer
+     * pool and returned. If there is insufficient space in the buffer pool, a page
+     * should be evicted and the new page should be added in its place.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
 
-        private synchronized boolean getNoInclude(TransactionId tid, Permissions perm) {
-            return shares.size() == 0 || (shares.size() == 1 && shares.contains(tid));
-        }
+    /**
+     * Retrieves a page as {@link #getPage(TransactionId, PageId, Permissions)}
+     * does, on behalf of a large sequential read. If the page has to be read,
+     * it joins the specified ring, and once the ring is full it takes the frame
+     * of the oldest page of the ring instead of one the eviction policy picks.
+     *
+     * @param ring the ring of the sequential read, or null to read the page
+     *             into the buffer pool like any other
+     * @see #bulkReadRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+//        perm = Permissions.READ_WRITE;
 
-        public synchronized boolean canAdd(TransactionId tid, Permissions perm) {
-            boolean noExclude = getNoExclude(tid, perm);
-            if (perm == Permissions.READ_ONLY) {
-                return noExclude;
-            }
-            boolean noShare = getNoInclude(tid, perm);
-            return noExclude && noShare;
+        // DONE: some code goes here
+        Long snapshot = versions.snapshotOf(tid);
+        if (snapshot != null) {
+            readOnly(tid, perm);
+            return snapshotPage(pid, snapshot, ring);
+        }
+        lockManager.acquire(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            writeSet(tid).add(pid);
         }
+        return fetchPage(pid, ring);
+    }
 
-        public synchronized List<TransactionId> waitAdd(TransactionId tid, Permissions perm) {
-            ArrayList<TransactionId> ans = new ArrayList<>();
-            boolean noExclude = getNoExclude(tid, perm);
-            if (!noExclude) {
-                ans.add(exclude);
-            }
-            if (perm == Permissions.READ_WRITE) {
-                for (TransactionId tid2 : shares) {
-                    if (!tid.equals(tid2) && tid2 != null) {
-                        ans.add(tid2);
-                    }
-                }
-            }
-            return ans;
+    /**
+     * Retrieves a page for reading (READ_ONLY) or changing (READ_WRITE) rows
+     * of it, under an IS or IX lock on the page rather than a page lock; the
+     * caller locks each row with {@link #lockRow} or {@link #tryLockRow}, and
+     * changes the page holding its latch.
+     */
+    public Page getPageForRows(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        Long snapshot = versions.snapshotOf(tid);
+        if (snapshot != null) {
+            readOnly(tid, perm);
+            return snapshotPage(pid, snapshot, null);
         }
+        lockManager.acquireIntention(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            writeSet(tid).add(pid);
+        }
+        return fetchPage(pid, null);
+    }
 
-        public synchronized void addLock(TransactionId tid, Permissions perm) {
-            if (perm == Permissions.READ_ONLY) {
-                if (exclude != null && exclude.equals(tid)) {
-                    exclude = null;
-                }
-                if (!shares.contains(tid)) {
-                    shares.add(tid);
-                }
-            } else {
-                if (shares.contains(tid)) {
-                    shares.remove(tid);
-                }
-                exclude = tid;
-            }
+    /**
+     * Locks a row for the transaction, under intention locks on its page and
+     * table, waiting until the lock is granted.
+     */
+    public void lockRow(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (versions.snapshotOf(tid) != null) {
+            readOnly(tid, perm);
+            return;
         }
+        lockManager.acquireRow(tid, rid, perm);
     }
 
-//    private final static long MAX_TRANSACTION_TIME = 5000;// ms
+    /**
+     * Locks a row as {@link #lockRow} does if that needs no waiting.
+     *
+     * @return false if the lock was not granted
+     */
+    public boolean tryLockRow(TransactionId tid, RecordId rid, Permissions perm) {
+        return lockManager.tryAcquireRow(tid, rid, perm);
+    }
 
-    private final ConcurrentHashMap<PageId, Locks> pageLocks = new ConcurrentHashMap<>();
+    /**
+     * Begins a snapshot for a read-only transaction: from now on it reads
+     * every page as the last commit left it, without locking, and may not
+     * change any. The snapshot ends when the transaction completes.
+     *
+     * @see simpledb.transaction.Transaction#Transaction(boolean)
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        // commits hold this, so the snapshot is not taken halfway through one
+        versions.begin(tid);
+    }
 
-    private static class WaitTransaction {
-        public final TransactionId tid;
-        public final PageId pid;
-        public final Permissions perm;
+    /**
+     * @return the number of page versions kept for running snapshots
+     */
+    public int getPageVersions() {
+        return versions.size();
+    }
 
-        public WaitTransaction(TransactionId tid, PageId pid, Permissions perm) {
-            this.tid = tid;
-            this.pid = pid;
-            this.perm = perm;
+    private static void readOnly(TransactionId tid, Permissions perm) throws DbException {
+        if (perm != Permissions.READ_ONLY) {
+            throw new DbException("transaction " + tid.getId() + " reads a snapshot and is read-only");
         }
     }
 
-    private class DeadLockChecker {
-
-        public final Set<WaitTransaction> waits = ConcurrentHashMap.newKeySet();
-
-        // if not deadlock return null, else any circled transaction
-        public synchronized TransactionId isDeadLock() {
-            // build graph
-//            int id = (int) (Math.random() * 100);
-            Map<TransactionId, ArrayList<TransactionId>> g = new HashMap<>();
-            Map<TransactionId, Integer> ru = new HashMap<>();
-            for (WaitTransaction wait : waits) {
-                g.put(wait.tid, new ArrayList<>());
-                ru.put(wait.tid, 0);
+    /**
+     * Returns the version of a page that a snapshot sees. It is looked up
+     * holding the latch of the cached page, which a commit holds while it
+     * replaces the committed version.
+     */
+    private Page snapshotPage(PageId pid, long snapshot, BufferRing ring) throws DbException {
+        Page page = fetchPage(pid, ring);
+        synchronized (page) {
+            Page version = versions.versionAt(pid, snapshot);
+            if (version == null) {
+                version = versions.heldVersion(pid);
             }
-            // build wait sources graph
-            for (WaitTransaction wait : waits) {
-                Locks locks = pageLocks.get(wait.pid);
-                if (locks == null) { // no occupy
-                    continue;
-                }
-                if (!locks.canAdd(wait.tid, wait.perm)) {
-                    for (TransactionId v : locks.waitAdd(wait.tid, wait.perm)) {
-//                        System.out.println(wait.tid.getId() + " -> " + v.getId() + " from " + id);
-                        // double check avoid concurrent problem
-                        if (g.get(wait.tid) == null) {
-                            g.put(wait.tid, new ArrayList<>());
-                            ru.put(wait.tid, 0);
-                        }
-                        g.get(wait.tid).add(v);
-                        ru.put(v, ru.getOrDefault(v, 0) + 1);
-                        if (g.get(v) == null) {
-                            g.put(v, new ArrayList<>());
-                        }
+            if (version != null) {
+                return version;
+            }
+            // the before image of a page is its last committed version
+            return page instanceof HeapPage ? ((HeapPage) page).getCommittedImage() : page.getBeforeImage();
+        }
+    }
+
+    // looks up a page that the caller has locked, reading it if needed
+    private Page fetchPage(PageId pid, BufferRing ring) throws DbException {
+        Partition part = partition(pid);
+        while (true) {
+            Page page = pages.get(pid);
+            if (page != null) {
+                synchronized (part) {
+                    if (pages.containsKey(pid)) {
+                        part.policy.pageAccessed(pid);
                     }
                 }
-            }
-//            System.out.println(" ----- ");
-            // topo sort
-            Queue<TransactionId> q = new LinkedList<>();
-            for (Map.Entry<TransactionId, Integer> pr : ru.entrySet()) {
-                if (pr.getValue().equals(0)) {
-                    q.add(pr.getKey());
+                if (ringPages.get(pid) != ring) {
+                    // used outside the ring that read it, so worth keeping
+                    ringPages.remove(pid);
                 }
+                return page;
             }
-            while (!q.isEmpty()) {
-                TransactionId u = q.poll();
-                for (TransactionId v : g.get(u)) {
-                    ru.put(v, ru.get(v) - 1);
-                    if (ru.get(v).equals(0)) {
-                        q.add(v);
-                    }
-                }
+            // claim the read, so that a read-ahead that starts now skips the page;
+            // rather than reading the page a second time, wait for a read-ahead
+            // that is already loading it
+            CompletableFuture<Void> loading = new CompletableFuture<>();
+            CompletableFuture<Void> other = prefetching.putIfAbsent(pid, loading);
+            if (other != null) {
+                other.join();
+                continue;
             }
-            TransactionId dead = null;
-            for (Map.Entry<TransactionId, Integer> pr : ru.entrySet()) {
-                if (!pr.getValue().equals(0)) {
-                    dead = pr.getKey();
-                    break;
+            try {
+                page = pages.containsKey(pid) ? null : readPage(pid, ring, true);
+                if (page != null) {
+                    return page;
                 }
+            } finally {
+                prefetching.remove(pid, loading);
+                loading.complete(null);
             }
-            return dead;
         }
     }
 
-    private final DeadLockChecker deadLockChecker = new DeadLockChecker();
-    // must long enough, or it cannot pass BTreeTest system test
-    private final static long MAX_TRANSACTION_TIME = 30000;// ms
-    private final static int WAIT_EPOCH = 100; // ms
-
     /**
-     * Retrieve the specified page with the associated permissions. Will acquire a
-     * lock and may block if that lock is held by another transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool. If it is present,
-     * it should be returned. If it is not present, it should be added to the buffer
-     * pool and returned. If there is insufficient space in the buffer pool, a page
-     * should be evicted and the new page should be added in its place.
+     * Returns a ring for a sequential read of the specified number of pages, or
+     * null if the read fits in the buffer pool, so that reading it again finds
+     * it cached. Larger reads would only cycle their own pages through the
+     * whole buffer pool; they get a ring of an eighth of it, up to
+     * {@link BufferRing#MAX_PAGES} pages.
      *
-     * @param tid  the ID of the transaction requesting the page
-     * @param pid  the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @param pages the number of pages the caller is about to read in order
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-            throws TransactionAbortedException, DbException {
-//        perm = Permissions.READ_WRITE;
+    public BufferRing bulkReadRing(int pages) {
+        if (pages <= numPages) {
+            return null;
+        }
+        return new BufferRing(Math.max(1, Math.min(BufferRing.MAX_PAGES, numPages / 8)));
+    }
 
-        // DONE: some code goes here
-        // can't sync all the steps of locks
-        Locks locks = pageLocks.get(pid);
-        if (locks == null) {
-            pageLocks.put(pid, new Locks());
-            locks = pageLocks.get(pid);
-        }
-        WaitTransaction wait = new WaitTransaction(tid, pid, perm);
-        long now = System.currentTimeMillis();
-        while (!locks.canAdd(tid, perm)) {
-            if (System.currentTimeMillis() - now > MAX_TRANSACTION_TIME) {
-                System.out.println("Transaction too long " + tid.getId() + " " + pid);
-                deadLockChecker.waits.remove(wait);
-                throw new TransactionAbortedException();
+    /**
+     * Reads a page that the caller has claimed in prefetching, makes room for
+     * it and adds it to its partition.
+     *
+     * @param mayWrite whether a committed page may be written to make room
+     * @return the page, or null if it was written or removed while it was read
+     *         and has to be read again
+     */
+    private Page readPage(PageId pid, BufferRing ring, boolean mayWrite) throws DbException {
+        int index = partitionIndex(pid);
+        Partition part = partitions[index];
+        long epoch = part.invalidations.get();
+        Page page = getFile(pid).readPage(pid);
+        if (page == null) {
+            throw new DbException("no page " + pid);
+        }
+        makeRoom(index, ring, mayWrite);
+        synchronized (part) {
+            Page cached = pages.get(pid);
+            if (cached != null) {
+                // added meanwhile, e.g. a new version of the page
+                return cached;
             }
-            synchronized (this) {
-                deadLockChecker.waits.add(wait);
-                TransactionId dead = deadLockChecker.isDeadLock();
-                if (dead != null) {
-//                    System.out.println("Dead lock found, to remove " + tid.getId());
-                    deadLockChecker.waits.remove(wait);
-                    throw new TransactionAbortedException();
-                }
-                if (locks.canAdd(tid, perm)) {
-                    break;
-                }
+            if (epoch != part.invalidations.get()) {
+                return null;
             }
+            addPage(pid, page, ring);
+            return page;
+        }
+    }
 
-            try {
-                Thread.sleep(WAIT_EPOCH);
-                
-//                TransactionId t = locks.exclude;
-//                if (t == null && locks.shares.size() > 0) {
-//                    t = locks.shares.iterator().next();
-//                }
-//                if (t != null) {
-//                    if (null == pages.get(pid)) {
-//                        System.out.println(
-//                                tid.getId() + " waits for " + t.getId() + " null page in " + perm);
-//                    } else {
-//                        System.out.println(tid.getId() + " waits for " + t.getId() + " "
-//                                + pages.get(pid).getId() + " in " + perm);
-//                    }
-//                } else {
-//                    System.out.println(tid.getId() + " waits for ghost");
-//                }
-                
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Frees a frame for a page that is about to be added to the partition of
+     * the specified index. A full ring gives up the frame of its oldest page,
+     * unless someone else has used that page or it is not clean; otherwise a
+     * clean page is evicted, from that partition if it has one. Threads that
+     * miss at the same moment may take the pool a page or two past numPages
+     * until later misses evict them.
+     *
+     * @param mayWrite whether a committed page may be written if no page is
+     *                 clean
+     */
+    private void makeRoom(int index, BufferRing ring, boolean mayWrite) throws DbException {
+        PageId oldest = ring == null ? null : ring.pollIfFull();
+        if (oldest != null) {
+            Partition part = partition(oldest);
+            synchronized (part) {
+                if (ringPages.get(oldest) == ring && isClean(oldest)) {
+                    evictions.incrementAndGet();
+                    removeFromPartition(part, oldest);
+                }
             }
         }
-        synchronized (this) {
-            deadLockChecker.waits.remove(wait);
-            locks.addLock(tid, perm);
-//        }
+        while (pages.size() >= numPages) {
+            if (!evictClean(index)) {
+                if (!mayWrite) {
+                    throw new DbException("no clean page to evict");
+                }
+                evictPage(index);
+            }
+        }
+    }
 
+    // true if the page is cached and evicting it loses nothing
+    private boolean isClean(PageId pid) {
         Page page = pages.get(pid);
-        if (page == null) {
-//            synchronized (this) {
-                DbFile file = getFile(pid);
-                page = file.readPage(pid);
-                while (pages.size() >= numPages) {
-                    evictPage();
+        return page != null && page.isDirty() == null && !unwritten.contains(pid);
+    }
+
+    /**
+     * Evicts a clean page, from the partition of the specified index if it has
+     * one, else from the next partition that does. Takes the monitor of one
+     * partition at a time.
+     *
+     * @return false if no partition has a clean page
+     */
+    private boolean evictClean(int first) {
+        for (int i = 0; i < partitions.length; ++i) {
+            Partition part = partitions[(first + i) % partitions.length];
+            synchronized (part) {
+                PageId victim = part.policy.chooseVictim(this::isClean);
+                if (victim != null) {
+                    evictions.incrementAndGet();
+                    removeFromPartition(part, victim);
+                    return true;
                 }
-                addPage(pid, page);
             }
+        }
+        return false;
+    }
+
+    private void addPage(PageId pid, Page page, BufferRing ring) {
+        addPage(pid, page);
+        if (ring != null) {
+            ring.add(pid);
+            ringPages.put(pid, ring);
+        }
+    }
+
+    /**
+     * Loads the specified page into the buffer pool without locking it, on
+     * behalf of a {@link ReadAhead}. The page is only installed if it was not
+     * written or removed meanwhile and a clean page can be evicted to make room
+     * for it.
+     *
+     * @param pid the ID of the page to load
+     * @return the page, now in the buffer pool, or null if it was not loaded
+     */
+    public Page prefetchPage(PageId pid) {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Loads a page as {@link #prefetchPage(PageId)} does, into the specified
+     * ring of a sequential read.
+     *
+     * @param ring the ring of the read, or null
+     */
+    public Page prefetchPage(PageId pid, BufferRing ring) {
+        Page page = pages.get(pid);
+        if (page != null) {
             return page;
         }
-//        System.out.println("Get page " + tid.getId() + " " + perm + " " + page.getId());
-       
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (prefetching.putIfAbsent(pid, done) != null) {
+            return null;
+        }
+        try {
+            page = pages.get(pid);
+            return page != null ? page : readPage(pid, ring, false);
+        } catch (RuntimeException | DbException e) {
+            // e.g. a table dropped from the catalog, which the scan reports, or
+            // only dirty pages left, which are not written for a guess
+            return null;
+        } finally {
+            prefetching.remove(pid, done);
+            done.complete(null);
+        }
+    }
+
+    /**
+     * @return true if the specified page is in the buffer pool or is being read
+     *         into it by a read-ahead
+     */
+    public boolean isBuffered(PageId pid) {
+        return pages.containsKey(pid) || prefetching.containsKey(pid);
+    }
+
+    /**
+     * Locks a whole table for the transaction, so that it reads (READ_ONLY) or
+     * reads and writes (READ_WRITE) its pages without locking each of them.
+     * Waits until the lock is granted.
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        if (versions.snapshotOf(tid) != null) {
+            // reads without locks; getPage refuses it any writes
+            return;
+        }
+        lockManager.acquireTable(tid, tableId, perm);
+    }
+
+    /**
+     * Sets how many pages of one table a transaction locks before it is
+     * escalated to a table lock.
+     *
+     * @see LockManager#setEscalationThreshold
+     */
+    public void setLockEscalationThreshold(int pages) {
+        lockManager.setEscalationThreshold(pages);
+    }
+
+    /**
+     * @return the number of pages and tables some transaction holds or waits
+     *         for a lock on
+     */
+    public int getLockQueueCount() {
+        return lockManager.getQueueCount();
     }
 
     /**
@@ -390,10 +702,7 @@ public class BufferPool {
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
         // DONE: some code goes here
         // not necessary for lab1|lab2
-        Locks locks = pageLocks.get(pid);
-        if (locks != null) {
-            locks.removeLock(tid);
-        }
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -413,10 +722,29 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // DONE: some code goes here
         // not necessary for lab1|lab2
-        Locks locks = pageLocks.get(p);
-        synchronized (locks) {
-            return locks != null && locks.hasLock(tid);
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * @return true if the specified transaction has a lock on the specified
+     *         row, or on its page or table
+     */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsLock(tid, rid);
+    }
+
+    // the page as a heap page the transaction changed rows of, or null
+    private static HeapPage rowsOf(Page page, TransactionId tid) {
+        if (page instanceof HeapPage && ((HeapPage) page).hasRowWrites(tid)) {
+            return (HeapPage) page;
         }
+        return null;
+    }
+
+    // true if several running transactions changed rows of the page, so that
+    // no log record holds the changes of only one of them
+    private static boolean isShared(Page page) {
+        return page instanceof HeapPage && ((HeapPage) page).getRowWriterCount() > 1;
     }
 
     /**
@@ -430,39 +758,266 @@ public class BufferPool {
         // DONE: some code goes here
         // not necessary for lab1|lab2
 
+        if (versions.end(tid)) {
+            // a snapshot has no locks or pages
+            return;
+        }
+        boolean stole = stolen.remove(tid);
         if (commit) {
-            try {
-                flushPages(tid);
-            } catch (IOException e) {
-                e.printStackTrace();
+            Long number = prepared.remove(tid);
+            if (number == null) {
+                try {
+                    number = commitPages(tid, versions.isNeeded());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    number = 0L;
+                }
+            }
+            if (number > 0) {
+                versions.published(number);
             }
         } else {
-            for (Page page : pages.values()) {
-                TransactionId dirtyTid = page.isDirty();
-                if (dirtyTid != null && dirtyTid.equals(tid)) {
-//                    System.out.println("Releaze lock of " + page.getId() + " by " + tid.getId());
+            if (stole && Database.getLogFile().isActive(tid)) {
+                // pages it dirtied are on disk and were not rolled back yet
+                try {
+                    Database.getLogFile().logAbort(tid);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (Page page : dirtiedBy(tid)) {
+                HeapPage rows = rowsOf(page, tid);
+                if (rows != null) {
+                    // other transactions may be changing other rows of it
+                    rows.rollbackRows(tid);
+                } else if (unwritten.contains(page.getId())) {
+                    // the disk copy is older than the committed changes the
+                    // before image holds, so keep that instead
+                    pages.put(page.getId(), page.getBeforeImage());
+                } else {
                     deletePage(page.getId());
-                    pageLocks.get(page.getId()).removeLock(dirtyTid);
                 }
+                getFile(page.getId()).pageRolledBack(page.getId());
+            }
+            // the pages it wrote are rolled back on disk now
+            versions.release(tid);
+        }
+        writeSets.remove(tid);
+        lockManager.releaseAll(tid);
+    }
+
+    /**
+     * Logs the after images of the pages the transaction dirtied, the first
+     * half of a commit, and keeps its locks. The COMMIT record is appended and
+     * forced next, and only then does
+     * {@link #transactionComplete(TransactionId, boolean)} release the locks,
+     * so that no other transaction sees changes that are not durable.
+     * Snapshots do not see the changes either until then.
+     *
+     * @param tid the ID of the committing transaction
+     * @see simpledb.transaction.Transaction#commit
+     */
+    public synchronized void prepareCommit(TransactionId tid) throws IOException {
+        // a snapshot begun before it is published may need what it replaces
+        long commit = commitPages(tid, true);
+        if (commit > 0) {
+            prepared.put(tid, commit);
+        }
+    }
+
+    /**
+     * Logs the after images of the pages the transaction dirtied and leaves the
+     * pages to the background writer. The log is not forced here; the COMMIT
+     * record is forced with those of other transactions, and a page is only
+     * written once the log is on disk up to its record.
+     * <p>
+     * The committed version each page had is kept, if specified, before the
+     * page changes.
+     *
+     * @return the number of the commit, to be published, or 0 if the
+     *         transaction changed nothing
+     */
+    private synchronized long commitPages(TransactionId tid, boolean keep) throws IOException {
+        List<Page> dirty = dirtiedBy(tid);
+        // the committed versions of the pages it wrote with its changes
+        Map<PageId, Page> held = versions.heldBy(tid);
+        if (dirty.isEmpty() && held.isEmpty()) {
+            return 0;
+        }
+        long commit = versions.nextCommit();
+        long recLsn = Database.getLogFile().getEnd();
+        // pages whose rows are committed one transaction at a time
+        Set<Page> byRows = new HashSet<>();
+        for (Page page : dirty) {
+            recLsns.putIfAbsent(page.getId(), recLsn);
+            HeapPage rows = rowsOf(page, tid);
+            if (rows != null) {
+                byRows.add(rows);
+                synchronized (rows) {
+                    HeapPage before = rows.getBeforeImage();
+                    if (keep) {
+                        versions.retire(rows.getId(), held.getOrDefault(rows.getId(), before), commit);
+                    }
+                    Database.getLogFile().logWrite(tid, before, rows.commitRows(tid));
+                }
+            } else {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+            }
+        }
+        long lsn = Database.getLogFile().getEnd();
+        for (Page page : dirty) {
+            commitLsns.put(page.getId(), lsn);
+            // move it to the end of the commit order, before it turns clean so
+            // that no partition evicts it unwritten
+            unwritten.remove(page.getId());
+            unwritten.add(page.getId());
+            if (!byRows.contains(page)) {
+                synchronized (page) {
+                    if (keep) {
+                        versions.retire(page.getId(),
+                                held.getOrDefault(page.getId(), page.getBeforeImage()), commit);
+                    }
+                    page.markDirty(false, null);
+                    page.setBeforeImage();
+                }
+            }
+        }
+        Set<PageId> inPool = new HashSet<>();
+        for (Page page : dirty) {
+            inPool.add(page.getId());
+        }
+        for (Map.Entry<PageId, Page> pr : held.entrySet()) {
+            if (keep && !inPool.contains(pr.getKey())) {
+                // its changes are on disk, and committed from now on
+                versions.retire(pr.getKey(), pr.getValue(), commit);
+            }
+        }
+        versions.release(tid);
+        return commit;
+    }
+
+    // true if no transaction may be changing the page, so writing it cannot
+    // put uncommitted data on disk
+    private boolean isWritable(PageId pid) {
+        Page page = pages.get(pid);
+        if (page == null || page.isDirty() != null) {
+            return false;
+        }
+        return !lockManager.isLockedExclusive(pid);
+    }
+
+    private void write(Page page) {
+        try {
+            Long lsn = commitLsns.remove(page.getId());
+            if (lsn != null && !Database.getLogFile().isForced(lsn)) {
+                // write-ahead: the log record of the page goes to disk first
+                Database.getLogFile().force();
             }
+            getFile(page.getId()).writePage(page);
+            recLsns.remove(page.getId());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        for (Map.Entry<PageId, Locks> pr : pageLocks.entrySet()) {
-            Locks locks = pr.getValue();
-            if (locks != null && locks.hasLock(tid)) {
-//                System.out.println("Remove lock of " + pr.getKey() + " by " + tid.getId());
-                locks.removeLock(tid);
+        partition(page.getId()).invalidations.incrementAndGet();
+    }
+
+    /**
+     * @return for each committed page not written yet, the position in the log
+     *         (see {@link LogFile#getEnd}) from which recovery has to redo it;
+     *         a page written meanwhile may be left in
+     */
+    Map<PageId, Long> dirtyPageTable() {
+        return new HashMap<>(recLsns);
+    }
+
+    /**
+     * Writes committed pages that no transaction is changing, oldest commit
+     * first. Run periodically by the background writer; takes the buffer pool
+     * monitor for one page at a time so foreground threads are not held up.
+     */
+    void writeBehind() {
+        List<PageId> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<>(unwritten);
+        }
+        for (PageId pid : candidates) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (unwritten.contains(pid) && isWritable(pid)) {
+                    Page page = pages.get(pid);
+                    // a transaction may start changing rows of it under an IX
+                    // lock, and does so holding the latch
+                    synchronized (page) {
+                        if (page.isDirty() != null) {
+                            continue;
+                        }
+                        write(page);
+                    }
+                    unwritten.remove(pid);
+                    backgroundWrites.incrementAndGet();
+                }
             }
         }
-//        for (Locks locks : pageLocks.values()) {
-//            if (locks != null && locks.hasLock(tid)) {
-//                locks.removeLock(tid);
-//            }
-//        }
+    }
+
+    /**
+     * Writes every committed page that was not written yet. A page that another
+     * transaction has dirtied since is written as of its last commit.
+     */
+    public synchronized void writeCommittedPages() {
+        for (PageId pid : unwritten) {
+            Page page = pages.get(pid);
+            write(page.isDirty() != null ? page.getBeforeImage() : page);
+        }
+        unwritten.clear();
+    }
+
+    /**
+     * Stops the background writer. Pages that were committed but not written
+     * stay unwritten, as after a crash; call {@link #writeCommittedPages} first
+     * to keep them.
+     */
+    public synchronized void close() {
+        closed = true;
+        writer.cancel(false);
+    }
+
+    /**
+     * @return the number of pages evicted from this buffer pool
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of evictions that had to write a committed page first,
+     *         because there was no clean page to evict
+     */
+    public long getForegroundWrites() {
+        return foregroundWrites.get();
+    }
+
+    /**
+     * @return the number of committed pages written by the background writer
+     */
+    public long getBackgroundWrites() {
+        return backgroundWrites.get();
+    }
+
+    /**
+     * @return the number of evictions that wrote a page a running transaction
+     *         had dirtied
+     */
+    public long getSteals() {
+        return steals.get();
     }
 
     private synchronized void coverAll(TransactionId tid, List<Page> pages) {
         for (Page page : pages) {
             page.markDirty(true, tid);
+            writeSet(tid).add(page.getId());
             addPage(page);
         }
     }
@@ -510,6 +1065,29 @@ public class BufferPool {
         coverAll(tid, getFile(tableId).deleteTuple(tid, t));
     }
 
+    /**
+     * Remove the specified tuples from the buffer pool. The tuples are grouped
+     * by table and handed to {@link DbFile#deleteTuples}, which fetches and
+     * locks each affected page once, so deleting many rows costs one page
+     * access per page rather than per row.
+     * <p>
+     * Dirtied pages are marked and cached as in {@link #deleteTuple}.
+     *
+     * @param tid    the transaction deleting the tuples.
+     * @param tuples the tuples to delete
+     */
+    public void deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<Integer, List<Tuple>> byTable = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            int tableId = t.getRecordId().getPageId().getTableId();
+            byTable.computeIfAbsent(tableId, k -> new ArrayList<>()).add(t);
+        }
+        for (Map.Entry<Integer, List<Tuple>> pr : byTable.entrySet()) {
+            coverAll(tid, getFile(pr.getKey()).deleteTuples(tid, pr.getValue()));
+        }
+    }
+
     /**
      * Flush all dirty pages to disk. NB: Be careful using this routine -- it writes
      * dirty data to disk so will break simpledb if running in NO STEAL mode.
@@ -521,7 +1099,8 @@ public class BufferPool {
             try {
                 evictPageEvenDirty();
             } catch (DbException e) {
-                e.printStackTrace();
+                // the pages left are changed by several running transactions
+                break;
             }
         }
     }
@@ -533,10 +1112,17 @@ public class BufferPool {
      * <p>
      * Also used by B+ tree files to ensure that deleted pages are removed from the
      * cache so they can be reused safely
+     * <p>
+     * Both callers overwrite the page on disk next, so a committed change that
+     * was not written yet is dropped rather than written.
      */
     public synchronized void removePage(PageId pid) {
         // DONE: some code goes here
         // not necessary for lab1
+        partition(pid).invalidations.incrementAndGet();
+        unwritten.remove(pid);
+        commitLsns.remove(pid);
+        recLsns.remove(pid);
         try {
             flushPage(pid);
         } catch (IOException e) {
@@ -544,9 +1130,32 @@ public class BufferPool {
         }
     }
 
-    private synchronized void deletePage(PageId pid) {
-        lru.removePage(pid);
-        pages.remove(pid);
+    /**
+     * Drops the specified page from the buffer pool without writing it. Used by
+     * the recovery manager, which reads the page from disk next to redo or undo
+     * a logged change to it.
+     */
+    synchronized void discardPage(PageId pid) {
+        partition(pid).invalidations.incrementAndGet();
+        unwritten.remove(pid);
+        commitLsns.remove(pid);
+        recLsns.remove(pid);
+        deletePage(pid);
+    }
+
+    private void deletePage(PageId pid) {
+        Partition part = partition(pid);
+        synchronized (part) {
+            removeFromPartition(part, pid);
+        }
+    }
+
+    // the caller holds the monitor of the partition
+    private void removeFromPartition(Partition part, PageId pid) {
+        if (pages.remove(pid) != null) {
+            part.policy.pageRemoved(pid);
+        }
+        ringPages.remove(pid);
     }
 
     /**
@@ -562,21 +1171,27 @@ public class BufferPool {
         if (page == null) {// origin not in, nothing to flush
             return;
         }
-        TransactionId tid = page.isDirty();
-        if (tid != null) {
-            Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
-            Database.getLogFile().force();
-            
-            DbFile file = getFile(pid);
-            try {
-                file.writePage(page);
-            } catch (IOException e) {
-                e.printStackTrace();
+        synchronized (page) {
+            if (isShared(page)) {
+                // stays cached until its transactions complete
+                return;
+            }
+            TransactionId tid = page.isDirty();
+            if (tid != null) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                Database.getLogFile().force();
+                versions.hold(tid, pid, page.getBeforeImage());
+
+                write(page);
+//                System.out.println("Release lock of " + pid + " by " + tid.getId());
+                lockManager.release(tid, pid);
+            } else if (unwritten.contains(pid)) {
+                // committed, so its log records are forced already
+                write(page);
             }
-//            System.out.println("Release lock of " + pid + " by " + tid.getId());
-            pageLocks.get(pid).removeLock(tid);
+            unwritten.remove(pid);
+            page.markDirty(false, tid);
         }
-        page.markDirty(false, tid);
         deletePage(pid);
     }
 
@@ -586,32 +1201,122 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // DONE: some code goes here
         // not necessary for lab1|lab2
-        for (Page page : pages.values()) {
-            TransactionId dirtyTid = page.isDirty();
-            if (dirtyTid != null && dirtyTid.equals(tid)) {
-                try {
-                    flushPage(page.getId());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                page.setBeforeImage();
+        for (Page page : dirtiedBy(tid)) {
+            if (isShared(page)) {
+                continue;
             }
+            try {
+                flushPage(page.getId());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            page.setBeforeImage();
         }
     }
 
     /**
-     * Discards a page from the buffer pool. Flushes the page to disk to ensure
-     * dirty pages are updated on disk.
+     * Discards a page from the buffer pool, starting with the partition of the
+     * specified index. Writes a committed page first if no page is clean, or
+     * else a page a running transaction dirtied.
      */
-    private synchronized void evictPage() throws DbException {
+    private synchronized void evictPage(int first) throws DbException {
         // DONE: some code goes here
         // not necessary for lab1
-        PageId deletedPageId = lru.getLruPageId();
-        removePage(deletedPageId);
+        if (evictClean(first)) {
+            return;
+        }
+        // the background writer has not caught up, write one here
+        PageId deletedPageId = chooseVictim(pid -> unwritten.contains(pid) && isWritable(pid));
+        if (deletedPageId == null) {
+            PageId stolenPageId = chooseVictim(this::isStealable);
+            if (stolenPageId == null) {
+                throw new DbException("all dirty, no way evict");
+            }
+            try {
+                steal(stolenPageId);
+            } catch (IOException e) {
+                throw new DbException("could not write " + stolenPageId + ": " + e);
+            }
+            return;
+        }
+        foregroundWrites.incrementAndGet();
+        evictions.incrementAndGet();
+        // flushPage writes it if needed; unlike removePage this keeps prefetches
+        // of other pages valid
+        try {
+            flushPage(deletedPageId);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // true if the page is dirty, its transaction has begun in the log, so
+    // that its changes can be undone once written, and no other transaction
+    // holds a lock on it, so that they are the only changes to it
+    private boolean isStealable(PageId pid) {
+        Page page = pages.get(pid);
+        if (page == null || isShared(page)) {
+            return false;
+        }
+        TransactionId tid = page.isDirty();
+        return tid != null && Database.getLogFile().isActive(tid)
+                && !lockManager.isLockedByOthers(tid, pid);
+    }
+
+    /**
+     * Writes and evicts a page that a running transaction dirtied, after
+     * logging its before image. The transaction keeps its lock on the page,
+     * made exclusive so that nobody changes the page until the transaction
+     * completes and the log record of its changes can be undone as it is, and
+     * reads the page back from disk if it needs it again.
+     */
+    private synchronized void steal(PageId pid) throws IOException {
+        Page page = pages.get(pid);
+        TransactionId tid = page.isDirty();
+        if (!lockManager.tryAcquire(tid, pid, Permissions.READ_WRITE)) {
+            // another transaction locked it meanwhile; evict something else
+            return;
+        }
+        synchronized (page) {
+            if (!tid.equals(page.isDirty()) || isShared(page)) {
+                return;
+            }
+            Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+            Database.getLogFile().force();
+            versions.hold(tid, pid, page.getBeforeImage());
+            stolen.add(tid);
+            write(page);
+            unwritten.remove(pid);
+            page.markDirty(false, null);
+        }
+        steals.incrementAndGet();
+        evictions.incrementAndGet();
+        deletePage(pid);
     }
 
     private synchronized void evictPageEvenDirty() throws DbException {
-        PageId deletedPageId = lru.getAnyLruPageId();
-        removePage(deletedPageId);
+        PageId deletedPageId = chooseVictim(pid -> !isShared(pages.get(pid)));
+        if (deletedPageId == null) {
+            throw new DbException("every page left is changed by several transactions");
+        }
+        try {
+            flushPage(deletedPageId);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // asks each partition in turn; the caller holds this, so the victim stays
+    // cached if it is dirty or unwritten
+    private PageId chooseVictim(Predicate<PageId> evictable) {
+        for (Partition part : partitions) {
+            synchronized (part) {
+                PageId victim = part.policy.chooseVictim(evictable);
+                if (victim != null) {
+                    return victim;
+                }
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * A BufferRing is a small private set of buffer pool frames that one large
+ * sequential read cycles through, like the bulk-read buffer rings of
+ * PostgreSQL. Pages the read brings into the buffer pool join its ring; once
+ * the ring is full, the next page replaces the oldest page of the ring rather
+ * than a page the eviction policy picks, so a scan of a table much larger than
+ * the buffer pool displaces at most a ring's worth of other pages.
+ * <p>
+ * A page leaves the ring, and is left to the eviction policy, as soon as
+ * anyone but the owner of the ring requests it, or if it is dirty or not
+ * written yet when its frame would be reused.
+ * <p>
+ * Rings are created by {@link BufferPool#bulkReadRing} and passed to
+ * {@link BufferPool#getPage(simpledb.transaction.TransactionId, PageId,
+ * simpledb.common.Permissions, BufferRing)}. A scan and its read-ahead may
+ * add pages to the ring at once, so its methods are synchronized.
+ */
+public class BufferRing {
+    /**
+     * The most pages a ring holds.
+     */
+    public static final int MAX_PAGES = 32;
+
+    private final int capacity;
+    // the pages read through this ring, oldest first
+    private final ArrayDeque<PageId> frames = new ArrayDeque<>();
+
+    /**
+     * @param capacity the number of frames of the ring
+     */
+    public BufferRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of frames of the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the oldest page of the ring, now removed from it, if the ring is
+     *         full; otherwise null
+     */
+    synchronized PageId pollIfFull() {
+        return frames.size() >= capacity ? frames.poll() : null;
+    }
+
+    synchronized void add(PageId pid) {
+        frames.add(pid);
+    }
+}
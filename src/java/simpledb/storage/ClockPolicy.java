@@ -0,0 +1,51 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy approximates LRU with one reference bit per page. The pages form
+ * a ring that a clock hand sweeps: a page whose bit is set gets a second
+ * chance, i.e. its bit is cleared and the hand moves on; the first evictable
+ * page with a clear bit is the victim. A hit only sets the bit, so it costs no
+ * reordering at all.
+ * <p>
+ * The ring is a map in insertion order whose head is the page under the hand;
+ * advancing the hand moves the head to the tail. A search gives up after two
+ * turns of the ring, by which time every bit has been cleared.
+ */
+public class ClockPolicy implements EvictionPolicy {
+    // page -> reference bit, the page under the hand first
+    private final LinkedHashMap<PageId, Boolean> ring = new LinkedHashMap<>();
+
+    public void pageAdded(PageId pid) {
+        ring.put(pid, Boolean.FALSE);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // keeps the position in the ring
+        ring.replace(pid, Boolean.TRUE);
+    }
+
+    public void pageRemoved(PageId pid) {
+        ring.remove(pid);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (int n = 2 * ring.size(); n > 0; --n) {
+            Iterator<Map.Entry<PageId, Boolean>> hand = ring.entrySet().iterator();
+            Map.Entry<PageId, Boolean> e = hand.next();
+            PageId pid = e.getKey();
+            boolean referenced = e.getValue();
+            if (!referenced && evictable.test(pid)) {
+                return pid;
+            }
+            // advance the hand past this page
+            hand.remove();
+            ring.put(pid, Boolean.FALSE);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * ColumnPage stores the values of one column of a ColumnarFile for a run of
+ * consecutive rows. Like a HeapPage it starts with a bitmap of used slots,
+ * followed by one fixed-width value per slot; slot i of page p holds the value
+ * of row <code>p * getNumSlots() + i</code>. Every column keeps its own copy of
+ * the bitmap, so a scan can tell deleted rows apart from whichever columns it
+ * reads.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    final int numSlots;
+    private final int headerSize;
+    // the page image; inserts and deletes update it in place
+    private final byte[] data;
+    private final ByteBuffer buf;
+
+    // null while data is unchanged since the before image was taken
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile TransactionId dirtyTid;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The page
+     * keeps the array and modifies it in place.
+     *
+     * @param id   the id of this page
+     * @param data the raw data of this page, of length
+     *             {@link BufferPool#getPageSize()}
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        if (data.length != BufferPool.getPageSize()) {
+            throw new IOException("bad column page size " + data.length);
+        }
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.numSlots = getNumSlots(type);
+        this.headerSize = (numSlots + 7) / 8;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * @return the number of values of the specified type a page holds
+     */
+    public static int getNumSlots(Type type) {
+        return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of slots on this page
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            data[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    private int getValueOffset(int slot) {
+        return headerSize + slot * type.getLen();
+    }
+
+    /**
+     * @return the value stored in the specified used slot
+     */
+    public Field getField(int slot) {
+        try {
+            return type.parse(buf, getValueOffset(slot));
+        } catch (ParseException e) {
+            throw new IllegalStateException("corrupt value in slot " + slot + " of " + pid, e);
+        }
+    }
+
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
+        }
+    }
+
+    /**
+     * Stores the value of a new row in the specified slot.
+     *
+     * @throws DbException if the slot is already used or the value has the
+     *                     wrong type
+     */
+    public void setField(int slot, Field f) throws DbException {
+        if (isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " already used");
+        }
+        if (f.getType() != type) {
+            throw new DbException("type mismatch, in setField");
+        }
+        beforeWrite();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new DbException("couldn't serialize " + f);
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, getValueOffset(slot), type.getLen());
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Clears the specified slot when its row is deleted.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public void clearSlot(int slot) throws DbException {
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " already empty");
+        }
+        beforeWrite();
+        markSlotUsed(slot, false);
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void writePageData(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            beforeWrite();
+            dirtyTid = tid;
+        } else {
+            dirtyTid = null;
+        }
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        byte[] before;
+        synchronized (oldDataLock) {
+            before = oldData != null ? oldData.clone() : data.clone();
+        }
+        try {
+            return new ColumnPage(pid, before);
+        } catch (IOException e) {
+            // we parsed this image before
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb.storage;
+
+/**
+ * Unique identifier for ColumnPage objects: a page of one column of a
+ * ColumnarFile.
+ */
+public class ColumnPageId implements PageId {
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a specific
+     * column of a table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column  The index of the column in the table's TupleDesc
+     * @param pgNo    The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the column of the table this page stores
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column associated with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (tableId * 100007 + column) * 31 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ColumnPageId other = (ColumnPageId) o;
+        return tableId == other.tableId && column == other.column && pgNo == other.pgNo;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for writing
+     * to disk. Size of returned array must contain number of integers that
+     * corresponds to number of args to one of the constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+}
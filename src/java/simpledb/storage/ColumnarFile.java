@@ -0,0 +1,286 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ColumnarFile is a DbFile that stores each column of a table in its own chain
+ * of {@link ColumnPage}s, kept in a separate file next to the table file:
+ * column i of table <code>t.dat</code> lives in <code>t.dat.i</code>. Row r is
+ * stored in slot <code>r % n</code> of page <code>r / n</code> of every column,
+ * where n is the number of values of that column's type a page holds.
+ * <p>
+ * A scan that only needs some of the columns ({@link #iterator(TransactionId,
+ * int[])}) reads only their pages, which makes queries touching a few columns
+ * of a wide table read a fraction of the bytes a HeapFile scan reads. New rows
+ * are appended after the last row; the slots of deleted rows are not reused.
+ * <p>
+ * The RecordId of a row points to its slot in column 0.
+ *
+ * @see ColumnPage
+ */
+public class ColumnarFile implements DbFile {
+    private final File f;
+    private final TupleDesc td;
+    private final PageChannel[] io;
+    private final File[] columnFiles;
+    private final int[] slotsPerPage;
+    // the row the next insert goes to, -1 until first needed; protected by this
+    private int nextRow = -1;
+
+    /**
+     * Constructs a columnar file for the table stored under the specified file
+     * name.
+     *
+     * @param f  the table file; the columns are stored in files named after it
+     * @param td the schema of the table
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        int n = td.numFields();
+        io = new PageChannel[n];
+        columnFiles = new File[n];
+        slotsPerPage = new int[n];
+        for (int i = 0; i < n; ++i) {
+            columnFiles[i] = new File(f.getPath() + "." + i);
+            io[i] = new PageChannel(columnFiles[i]);
+            slotsPerPage[i] = ColumnPage.getNumSlots(td.getFieldType(i));
+        }
+    }
+
+    /**
+     * Returns the table file this ColumnarFile is named after.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return the file that stores the specified column
+     */
+    public File getColumnFile(int column) {
+        return columnFiles[column];
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        try {
+            byte[] data = io[cpid.getColumn()].read(
+                    (long) cpid.getPageNumber() * BufferPool.getPageSize(), BufferPool.getPageSize());
+            return new ColumnPage(cpid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        io[cpid.getColumn()].write((long) cpid.getPageNumber() * BufferPool.getPageSize(), page);
+    }
+
+    /**
+     * @return the number of pages of the specified column
+     */
+    public int numPages(int column) {
+        return (int) ((columnFiles[column].length() + BufferPool.getPageSize() - 1)
+                / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages of all columns together.
+     */
+    @Override
+    public int numPages() {
+        int n = 0;
+        for (int i = 0; i < td.numFields(); ++i) {
+            n += numPages(i);
+        }
+        return n;
+    }
+
+    /**
+     * Picks the row for a new tuple and makes sure every column has a page for
+     * it.
+     */
+    private synchronized int allocateRow() throws IOException {
+        if (nextRow < 0) {
+            // the first row after the last used slot of column 0 on disk
+            int pages = numPages(0);
+            nextRow = 0;
+            if (pages > 0) {
+                ColumnPage last = (ColumnPage) readPage(new ColumnPageId(getId(), 0, pages - 1));
+                int slot = last.getNumSlots();
+                while (slot > 0 && !last.isSlotUsed(slot - 1)) {
+                    --slot;
+                }
+                nextRow = (pages - 1) * slotsPerPage[0] + slot;
+            }
+        }
+        int row = nextRow++;
+        for (int i = 0; i < td.numFields(); ++i) {
+            int pageNo = row / slotsPerPage[i];
+            for (int n = numPages(i); n <= pageNo; ++n) {
+                io[i].write((long) n * BufferPool.getPageSize(), ColumnPage.createEmptyPageData());
+            }
+        }
+        return row;
+    }
+
+    private ColumnPage getPageFromBuffer(TransactionId tid, int column, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(getId(), column, pageNo), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        // before any column is written, so that no half-written row is left
+        if (t.getTupleDesc().numFields() != td.numFields()) {
+            throw new DbException("type mismatch, in insertTuple");
+        }
+        for (int i = 0; i < td.numFields(); ++i) {
+            Field f = t.getField(i);
+            if (t.getTupleDesc().getFieldType(i) != td.getFieldType(i)
+                    || f == null || f.getType() != td.getFieldType(i)) {
+                throw new DbException("type mismatch in field " + i + ", in insertTuple");
+            }
+        }
+        int row = allocateRow();
+        List<Page> dirtypages = new ArrayList<>(td.numFields());
+        for (int i = 0; i < td.numFields(); ++i) {
+            ColumnPage page = getPageFromBuffer(tid, i, row / slotsPerPage[i], Permissions.READ_WRITE);
+            page.setField(row % slotsPerPage[i], t.getField(i));
+            dirtypages.add(page);
+        }
+        t.setRecordId(getRecordId(row));
+        return dirtypages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId()
+                || ((ColumnPageId) rid.getPageId()).getColumn() != 0
+                || rid.getPageId().getPageNumber() >= numPages(0)) {
+            throw new DbException("file " + getId() + " not exist tuple " + t);
+        }
+        int row = rid.getPageId().getPageNumber() * slotsPerPage[0] + rid.getTupleNumber();
+        List<Page> dirtypages = new ArrayList<>(td.numFields());
+        for (int i = 0; i < td.numFields(); ++i) {
+            ColumnPage page = getPageFromBuffer(tid, i, row / slotsPerPage[i], Permissions.READ_WRITE);
+            page.clearSlot(row % slotsPerPage[i]);
+            dirtypages.add(page);
+        }
+        return dirtypages;
+    }
+
+    private RecordId getRecordId(int row) {
+        return new RecordId(new ColumnPageId(getId(), 0, row / slotsPerPage[0]),
+                row % slotsPerPage[0]);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; ++i) {
+            all[i] = i;
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator that reads only the pages of the specified columns.
+     *
+     * @see DbFile#iterator(TransactionId, int[])
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        final TupleDesc projected = td.project(columns);
+        // the first column read also tells which rows exist
+        final int[] read = columns.length > 0 ? columns.clone() : new int[] { 0 };
+        final boolean setFields = columns.length > 0;
+        return new AbstractDbFileIterator() {
+            private int row = -1;
+            private int knownPages = 0;
+            private final ColumnPage[] pages = new ColumnPage[read.length];
+
+            @Override
+            public void open() {
+                row = 0;
+            }
+
+            @Override
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                row = -1;
+                Arrays.fill(pages, null);
+            }
+
+            private ColumnPage page(int k, int pageNo)
+                    throws TransactionAbortedException, DbException {
+                if (pages[k] == null || pages[k].getId().getPageNumber() != pageNo) {
+                    pages[k] = getPageFromBuffer(tid, read[k], pageNo, Permissions.READ_ONLY);
+                }
+                return pages[k];
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (row < 0) {
+                    return null;
+                }
+                int first = read[0];
+                int n = slotsPerPage[first];
+                // the file size is only looked up again once the scan gets there
+                while (row / n < knownPages || row / n < (knownPages = numPages(first))) {
+                    int r = row++;
+                    if (!page(0, r / n).isSlotUsed(r % n)) {
+                        continue;
+                    }
+                    Tuple t = new Tuple(projected, null, r);
+                    if (setFields) {
+                        for (int k = 0; k < read.length; ++k) {
+                            int m = slotsPerPage[read[k]];
+                            t.setField(k, page(k, r / m).getField(r % m));
+                        }
+                    }
+                    t.setRecordId(getRecordId(r));
+                    return t;
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -6,7 +6,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -62,6 +65,41 @@ public interface DbFile {
     List<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Removes the specified tuples from the file on behalf of the specified
+     * transaction. Implementations should group the tuples by the page their
+     * RecordId points to, so that each affected page is fetched and locked
+     * only once; the default implementation deletes them one at a time.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to delete, all stored in this file
+     * @return A list of the distinct pages that were modified
+     * @throws DbException if a tuple cannot be deleted or is not a member
+     *                     of the file
+     * @see #deleteTuple
+     */
+    default List<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            for (Page p : deleteTuple(tid, t)) {
+                dirtypages.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Called by the buffer pool when a transaction that changed the specified
+     * page aborts, after the page is rolled back or dropped from the pool, so
+     * that the file can forget what it learned from the changes. Does nothing
+     * by default.
+     *
+     * @param pid the page the aborted transaction changed
+     */
+    default void pageRolledBack(PageId pid) {
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -71,6 +109,67 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the specified fields of the tuples stored in
+     * this DbFile, for a scan that needs no others. The tuples it returns have
+     * only those fields, in the order given, under
+     * {@code getTupleDesc().project(columns)}, and the RecordIds of the
+     * stored tuples. A file that stores its columns apart reads only those;
+     * by default the tuples of {@link #iterator(TransactionId)} are projected.
+     *
+     * @param tid     the transaction reading the file
+     * @param columns the indexes of the fields to read; if empty, only the
+     *                RecordIds of the tuples are returned
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        DbFileIterator it = iterator(tid);
+        int n = getTupleDesc().numFields();
+        boolean all = columns.length == n;
+        for (int i = 0; all && i < n; ++i) {
+            all = columns[i] == i;
+        }
+        if (all) {
+            return it;
+        }
+        TupleDesc td = getTupleDesc().project(columns);
+        return new DbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return it.hasNext();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException {
+                Tuple t = it.next();
+                // fields are only read from the stored tuple when asked for
+                Tuple projected = new Tuple(td, (slot, i) -> t.getField(columns[i]), 0);
+                projected.setRecordId(t.getRecordId());
+                return projected;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                it.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of pages in this DbFile, which a scan of the whole
+     * file reads.
+     */
+    int numPages();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * An EvictionPolicy decides which page the {@link BufferPool} evicts when it
+ * is full. The buffer pool tells the policy about every page that enters the
+ * pool, is requested again while cached, or leaves it, and asks it for a victim
+ * among the pages it may evict at that moment (e.g. only clean pages).
+ * <p>
+ * Each partition of the buffer pool has a policy of its own, which it calls
+ * with the partition monitor held, so policies need not be thread-safe. They
+ * should answer in constant or logarithmic time, since the partition is locked
+ * meanwhile.
+ *
+ * @see LRUPolicy
+ * @see ClockPolicy
+ * @see LRUKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a page that was not cached is added to the buffer pool.
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is cached is requested again.
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, whether it was evicted or
+     * discarded.
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict. The page stays known to the policy until
+     * {@link #pageRemoved} is called for it.
+     *
+     * @param evictable tells whether the buffer pool may evict a cached page now
+     * @return the page to evict, or null if no cached page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -6,6 +6,7 @@ import simpledb.execution.Predicate;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -20,6 +21,14 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the same bytes as {@link #serialize(DataOutputStream)} at the
+     * current position of the specified buffer, advancing it.
+     *
+     * @param buf The buffer to write to.
+     */
+    void serialize(ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
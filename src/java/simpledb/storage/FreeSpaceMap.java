@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a file may still have a free slot, so
+ * that inserts can go straight to a page with room instead of probing every
+ * page of the file.
+ * <p>
+ * The map lives in memory only and is rebuilt lazily: a page is assumed to have
+ * room until an insert finds it full, and becomes a candidate again when a
+ * tuple is deleted from it. It is a hint, so callers must still check the page
+ * itself under its lock; a stale entry only costs one extra probe.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final BitSet full = new BitSet();
+    // no page below this one may have room
+    private int firstFree = 0;
+
+    /**
+     * @param from the first page number to consider
+     * @return the first page at or after from that may have a free slot; may be
+     *         past the end of the file
+     */
+    public synchronized int nextCandidate(int from) {
+        return full.nextClearBit(Math.max(from, firstFree));
+    }
+
+    /**
+     * Records that the specified page has no free slot left.
+     */
+    public synchronized void markFull(int pageNo) {
+        full.set(pageNo);
+        if (pageNo == firstFree) {
+            firstFree = full.nextClearBit(pageNo);
+        }
+    }
+
+    /**
+     * Records that the specified page has at least one free slot.
+     */
+    public synchronized void markFree(int pageNo) {
+        full.clear(pageNo);
+        firstFree = Math.min(firstFree, pageNo);
+    }
+
+    /**
+     * Records the free space of a page that was just read or written.
+     */
+    public void update(HeapPage page) {
+        if (page.getNumUnusedSlots() > 0) {
+            markFree(page.getId().getPageNumber());
+        } else {
+            markFull(page.getId().getPageNumber());
+        }
+    }
+}
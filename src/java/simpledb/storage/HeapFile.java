@@ -8,11 +8,14 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-//import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -20,6 +23,10 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Inserts and deletes lock the rows they change rather than their pages: the
+ * page is locked IX and changed under its latch, so transactions that insert
+ * or delete different rows of a page do not wait for each other.
  *
  * @author Sam Madden
  * @see HeapPage#HeapPage
@@ -27,6 +34,9 @@ import java.util.NoSuchElementException;
 public class HeapFile implements DbFile {
     private final File f;
     private final TupleDesc td;
+    private final PageChannel io;
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    private volatile boolean memoryMapped = false;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -37,6 +47,7 @@ public class HeapFile implements DbFile {
         // DONE: some code goes here
         this.f = f;
         this.td = td;
+        this.io = new PageChannel(f);
     }
 
     /**
@@ -75,22 +86,41 @@ public class HeapFile implements DbFile {
 //        throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Switches the read path of this file between positional reads and a
+     * read-only memory map of the whole file. In mmap mode readPage decodes
+     * HeapPages straight from the mapped region, without a read syscall or an
+     * intermediate copy; this suits read-mostly tables that fit in RAM. Writes
+     * always go through the file channel and are visible in the mapping.
+     *
+     * @param memoryMapped true to serve page reads from a memory map
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return true if page reads are served from a memory map of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     private long getOffset(PageId pid) {
-        return pid.getPageNumber() * BufferPool.getPageSize();
+        return (long) pid.getPageNumber() * BufferPool.getPageSize();
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // DONE: some code goes here
-        long offset = getOffset(pid);
-        byte[] data = new byte[BufferPool.getPageSize()];
         try {
-            RandomAccessFile file = new RandomAccessFile(f, "r");
-            file.seek(offset);
-            for (int i = 0, n = BufferPool.getPageSize(); i < n; ++i) {
-                data[i] = file.readByte();
+            if (memoryMapped) {
+                ByteBuffer view = io.slice(getOffset(pid), BufferPool.getPageSize());
+                if (view != null) {
+                    return new HeapPage((HeapPageId) pid, view);
+                }
             }
-            file.close();
+            byte[] data = io.read(getOffset(pid), BufferPool.getPageSize());
             return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             e.printStackTrace();
@@ -106,23 +136,40 @@ public class HeapFile implements DbFile {
         long offset = getOffset(pid);
 //        Database.getBufferPool().removePage(page.getId());
         Database.getBufferPool().addPage(pid, page);
-        try {
-            RandomAccessFile file = new RandomAccessFile(f, "rw");
-            file.seek(offset);
-            file.write(page.getPageData());
-            file.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        io.write(offset, page);
+        freeSpace.update((HeapPage) page);
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
+    @Override
     public int numPages() {
         // DONE: some code goes here
         // ceil(filesize/pagesize)
-        return ((int) f.length() - 1) / BufferPool.getPageSize() + 1;
+        return (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Appends an empty page to the file, unless another insert already did so
+     * since the caller looked at the file size.
+     *
+     * @param pageNo the page number the caller found to be past the end
+     * @return the number of a page that now exists, at least pageNo if the
+     *         file grew meanwhile
+     */
+    private synchronized int appendEmptyPage(int pageNo) throws IOException {
+        int n = numPages();
+        if (pageNo < n) {
+            return pageNo;
+        }
+        io.write((long) n * BufferPool.getPageSize(), HeapPage.createEmptyPageData());
+        if (memoryMapped) {
+            // map the new page now rather than on the first read of it
+            io.remap();
+        }
+        freeSpace.markFree(n);
+        return n;
     }
 
     private HeapPage getPageFromBuffer(TransactionId tid, int id, Permissions perm)
@@ -140,20 +187,46 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // DONE: some code goes here
         // not necessary for lab1
-        for (int i = 0; i < numPages(); ++i) {
-            HeapPage page = getPageFromBuffer(tid, i, Permissions.READ_WRITE);
-            if (page.getNumUnusedSlots() <= 0) {
-                continue;
+        // only pages the free space map says may have room are locked; a page
+        // that turns out to have no slot for tid is unlocked again unless tid
+        // already held it
+        BufferPool pool = Database.getBufferPool();
+        int pageNo = freeSpace.nextCandidate(0);
+        while (true) {
+            if (pageNo >= numPages()) {
+                pageNo = appendEmptyPage(pageNo);
+            }
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPageForRows(tid, pid, Permissions.READ_WRITE);
+            synchronized (page) {
+                for (int slot = page.nextUnusedSlot(0); slot >= 0;
+                        slot = page.nextUnusedSlot(slot + 1)) {
+                    // a slot that a running transaction emptied stays its own
+                    // until it completes, in case it rolls back
+                    if (pool.tryLockRow(tid, new RecordId(pid, slot), Permissions.READ_WRITE)) {
+                        page.insertTuple(t, slot);
+                        page.markRowDirty(tid, slot);
+                        freeSpace.update(page);
+                        return Arrays.asList(new Page[] { page });
+                    }
+                }
+                if (page.getNumUnusedSlots() == 0) {
+                    freeSpace.markFull(pageNo);
+                }
+            }
+            if (!held) {
+                pool.unsafeReleasePage(tid, pid);
             }
-            page.insertTuple(t);
-//            page.markDirty(true, tid);
-            return Arrays.asList(new Page[] { page });
+            pageNo = freeSpace.nextCandidate(pageNo + 1);
         }
-        HeapPageId newpid = new HeapPageId(getId(), numPages());
-        HeapPage newpage = new HeapPage(newpid, HeapPage.createEmptyPageData());
-        newpage.insertTuple(t);
-        writePage(newpage);
-        return Arrays.asList(new Page[] { newpage });
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void pageRolledBack(PageId pid) {
+        // the page may have room again if an insert filled it
+        freeSpace.markFree(pid.getPageNumber());
     }
 
     // see DbFile.java for javadocs
@@ -161,17 +234,68 @@ public class HeapFile implements DbFile {
             throws DbException, TransactionAbortedException {
         // DONE: some code goes here
         // not necessary for lab1
-        for (int i = 0; i < numPages(); ++i) {
-            HeapPage page = getPageFromBuffer(tid, i, Permissions.READ_WRITE);
-            try {
-                page.deleteTuple(t);
-//                page.markDirty(true, tid);
-                return Arrays.asList(new Page[] { page });
-            } catch (DbException e) {
-                continue;
+        HeapPage page = lockRows(tid, getPageNumber(t), Arrays.asList(t));
+        synchronized (page) {
+            deleteTuple(tid, page, t);
+        }
+        freeSpace.markFree(page.getId().getPageNumber());
+//        page.markDirty(true, tid);
+        return Arrays.asList(new Page[] { page });
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        // group by page so that each page is fetched and locked once
+        Map<Integer, List<Tuple>> byPage = new TreeMap<>();
+        for (Tuple t : tuples) {
+            byPage.computeIfAbsent(getPageNumber(t), k -> new ArrayList<>()).add(t);
+        }
+        List<Page> dirtypages = new ArrayList<>(byPage.size());
+        for (Map.Entry<Integer, List<Tuple>> pr : byPage.entrySet()) {
+            HeapPage page = lockRows(tid, pr.getKey(), pr.getValue());
+            synchronized (page) {
+                for (Tuple t : pr.getValue()) {
+                    deleteTuple(tid, page, t);
+                }
             }
+            freeSpace.markFree(pr.getKey());
+            dirtypages.add(page);
+        }
+        return dirtypages;
+    }
+
+    /**
+     * Locks the rows of the specified tuples exclusively, and then retrieves
+     * their page, which is locked IX.
+     */
+    private HeapPage lockRows(TransactionId tid, int pageNo, List<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        for (Tuple t : tuples) {
+            pool.lockRow(tid, t.getRecordId(), Permissions.READ_WRITE);
+        }
+        return (HeapPage) pool.getPageForRows(tid, new HeapPageId(getId(), pageNo),
+                Permissions.READ_WRITE);
+    }
+
+    // the caller holds the latch of the page
+    private void deleteTuple(TransactionId tid, HeapPage page, Tuple t) throws DbException {
+        page.deleteTuple(t);
+        page.markRowDirty(tid, t.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * @return the number of the page of this file the tuple is stored on
+     * @throws DbException if the tuple is not stored in this file
+     */
+    private int getPageNumber(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().getPageNumber() >= numPages()) {
+            throw new DbException("file " + getId() + " not exist tuple " + t);
         }
-        throw new DbException("file " + getId() + " not exist tuple " + t);
+        return rid.getPageId().getPageNumber();
     }
 
     // see DbFile.java for javadocs
@@ -182,6 +306,10 @@ public class HeapFile implements DbFile {
             private int nowPageNo;// first unread page
             private boolean opened = false;
             private Iterator<Tuple> it;
+            private final ReadAhead readAhead = new ReadAhead(page -> {
+                int next = page.getId().getPageNumber() + 1;
+                return next < numPages() ? new HeapPageId(getId(), next) : null;
+            }, ReadAhead.DEFAULT_MAX_WINDOW);
 
             private void readPage() throws TransactionAbortedException, DbException {
                 if (nowPageNo >= numPages()) {
@@ -191,7 +319,8 @@ public class HeapFile implements DbFile {
 //                Page page = readPage() : no, it will skip buffer
 //                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tId,
 //                        new HeapPageId(getId(), nowPageNo), Permissions.READ_ONLY);
-                HeapPage page = getPageFromBuffer(tId, nowPageNo);
+                HeapPage page = (HeapPage) readAhead.getPage(tId,
+                        new HeapPageId(getId(), nowPageNo), Permissions.READ_ONLY);
                 nowPageNo += 1;
                 it = page.iterator();
                 if (it != null && !it.hasNext()) {
@@ -204,11 +333,14 @@ public class HeapFile implements DbFile {
                 // if not open throw?
                 nowPageNo = 0;
                 it = null;
+                readAhead.reset();
             }
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 opened = true;
+                // a scan of a large table cycles through a few frames of its own
+                readAhead.setRing(Database.getBufferPool().bulkReadRing(numPages()));
                 rewind();
             }
 
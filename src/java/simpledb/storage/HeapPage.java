@@ -6,14 +6,24 @@ import simpledb.common.DbException;
 //import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 //import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Several transactions may change different slots of a page at once under
+ * row locks (see {@link HeapFile#insertTuple}). They change it holding its
+ * monitor, the page latch, and the page keeps the slots each of them changed,
+ * so that one of them is committed or rolled back without the changes of the
+ * others.
  *
  * @see HeapFile
  * @see BufferPool
@@ -23,11 +33,23 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // tuples handed out or inserted so far; a used slot whose entry is still
+    // null has not been decoded from data yet
     final Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    // the bytes this page was created from. They are never written to, so the
+    // slots nobody touched can be decoded from, or copied out of, them later.
+    private ByteBuffer data;
+    private final int[] fieldOffsets;
+    private final Tuple.FieldSource decoder = this::decodeField;
+
+    // the before image; copied from the source bytes under oldDataLock if the
+    // page was created from a buffer, and replaced when changes are committed
+    volatile byte[] oldData;
+    private final Object oldDataLock = new Object();
+    // the before image as a page that readers share, while it is current
+    private volatile HeapPage committedImage;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk. The format of a
@@ -49,27 +71,44 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+        // the page never writes to its bytes, so they double as the before image
+        oldData = this.data.array();
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page bytes, e.g. a
+     * view of a memory-mapped HeapFile. Only the header is read up front; the
+     * tuples are decoded from the buffer when they are first accessed, and each
+     * field only when it is read (see {@link #iterator()}). Until the page is
+     * first marked dirty the buffer also serves as the before image, so it must
+     * not change while the page is clean.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.remaining() < BufferPool.getPageSize()) {
+            // a truncated page reads as if padded with zeros
+            byte[] padded = new byte[BufferPool.getPageSize()];
+            data.duplicate().get(padded, 0, data.remaining());
+            data = ByteBuffer.wrap(padded);
+        }
+        this.data = data;
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+            header[i] = data.get(data.position() + i);
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
     }
 
     /**
@@ -101,11 +140,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid, oldDataRef);
+            return new HeapPage(pid, oldData());
         } catch (IOException e) {
             e.printStackTrace();
             // should never happen -- we parsed it OK before!
@@ -114,12 +149,49 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Returns the before image as a page that is built again only once the
+     * before image changes, for snapshot reads. Unlike the one
+     * {@link #getBeforeImage} returns, it is shared, and must not be changed.
+     */
+    HeapPage getCommittedImage() {
+        byte[] old = oldData();
+        HeapPage image = committedImage;
+        if (image == null || image.oldData != old) {
+            image = getBeforeImage();
+            committedImage = image;
+        }
+        return image;
+    }
+
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
         }
     }
 
+    // the before image, copied from the source bytes the first time
+    private byte[] oldData() {
+        byte[] old = oldData;
+        if (old == null) {
+            synchronized (oldDataLock) {
+                if (oldData == null) {
+                    oldData = copySource();
+                }
+                old = oldData;
+            }
+        }
+        return old;
+    }
+
+    // copy a buffer that may change under us (a memory map) into the heap
+    private byte[] copySource() {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(copy);
+        data = ByteBuffer.wrap(copy);
+        return copy;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -129,37 +201,52 @@ public class HeapPage implements Page {
 //        throw new UnsupportedOperationException("implement this");
     }
 
+    private int getSlotOffset(int slot) {
+        return data.position() + header.length + slot * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Decode field i of the tuple in the specified slot from the page bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Field decodeField(int slot, int i) throws NoSuchElementException {
+        return parseField(data, getSlotOffset(slot), i);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    private Field parseField(ByteBuffer buf, int slotOffset, int i) throws NoSuchElementException {
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            return td.getFieldType(i).parse(buf, slotOffset + fieldOffsets[i]);
+        } catch (ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
+    /**
+     * @return a source of the fields of the tuple in the specified slot that
+     *         decodes them from a copy of the slot bytes, for a page backed by a
+     *         memory map, whose bytes change once the file is written
+     */
+    private Tuple.FieldSource copyOfSlot(int slot) {
+        byte[] copy = new byte[td.getSize()];
+        ByteBuffer source = data.duplicate();
+        source.position(getSlotOffset(slot));
+        source.get(copy);
+        ByteBuffer buf = ByteBuffer.wrap(copy);
+        return (s, i) -> parseField(buf, 0, i);
+    }
+
+    /**
+     * @return the tuple in the specified used slot, creating a lazily decoded
+     *         one on first access. A tuple of a page read through a memory map
+     *         takes a copy of its slot, so that it never sees later writes.
+     */
+    private Tuple getTuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new Tuple(td, data.hasArray() ? decoder : copyOfSlot(slot), slot);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
         return t;
     }
 
@@ -175,67 +262,54 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Writes the bytes {@link #getPageData()} returns straight into the
+     * specified buffer: the header, then each slot, copied from the bytes the
+     * page was read from while its tuple is unchanged, then the padding.
+     */
+    @Override
+    public void writePageData(ByteBuffer buf) {
+        buf.put(header);
 
-        // create the tuples
+        ByteBuffer source = null;
+        int size = td.getSize();
         for (int i = 0; i < tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                PageChannel.putZeroes(buf, size);
+                continue;
+            }
 
+            // non-empty slot that is still encoded in data
+            Tuple t = tuples[i];
+            if (t == null || t.isEncodedIn(decoder)) {
+                int off = getSlotOffset(i);
+                if (data.hasArray()) {
+                    buf.put(data.array(), data.arrayOffset() + off, size);
+                } else {
+                    if (source == null) {
+                        source = data.duplicate();
+                    }
+                    source.limit(off + size).position(off);
+                    buf.put(source);
                 }
                 continue;
             }
 
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                t.getField(j).serialize(buf);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); // -
-                                                                                                 // numSlots
-                                                                                                 // *
-                                                                                                 // td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        PageChannel.putZeroes(buf, BufferPool.getPageSize() - (header.length + size * tuples.length));
     }
 
     /**
@@ -253,7 +327,8 @@ public class HeapPage implements Page {
 
     /**
      * Delete the specified tuple from the page; the corresponding header bit should
-     * be updated to reflect that it is no longer stored on any page.
+     * be updated to reflect that it is no longer stored on any page. The tuple is
+     * located by its RecordId.
      *
      * @param t The tuple to delete
      * @throws DbException if this tuple is not on this page, or tuple slot is
@@ -262,15 +337,17 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // DONE: some code goes here
         // not necessary for lab1
-        for (int i = 0; i < numSlots; ++i) {
-            if (tuples[i] != null && tuples[i].equals(t)) {
-                tuples[i] = null;
-                markSlotUsed(i, false);
-                return;
-            }
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException(
+                    "page " + pid.toString() + " not exist tuple " + t.toString() + " to delete");
         }
-        throw new DbException(
-                "page " + pid.toString() + " not exist tuple " + t.toString() + " to delete");
+        int i = rid.getTupleNumber();
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            throw new DbException("slot " + i + " of page " + pid.toString() + " already empty");
+        }
+        tuples[i] = null;
+        markSlotUsed(i, false);
     }
 
     /**
@@ -288,17 +365,40 @@ public class HeapPage implements Page {
             throw new DbException(
                     "page " + pid.toString() + " full when insert tuple " + t.toString());
         }
-        for (int i = 0; i < numSlots; ++i) {
+        insertTuple(t, nextUnusedSlot(0));
+    }
+
+    /**
+     * Adds the specified tuple to the page in the specified slot.
+     *
+     * @throws DbException if the slot is used
+     */
+    public void insertTuple(Tuple t, int slot) throws DbException {
+        if (slot < 0 || slot >= numSlots || isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is not free");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * @return the first unused slot at or after the specified one, or -1 if
+     *         there is none
+     */
+    public int nextUnusedSlot(int from) {
+        for (int i = from; i < numSlots; ++i) {
             if (!isSlotUsed(i)) {
-                t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
-                markSlotUsed(i, true);
-                break;
+                return i;
             }
         }
+        return -1;
     }
 
-    TransactionId dirtyTid = null;
+    volatile TransactionId dirtyTid = null;
+    // the slots each running transaction changed under row locks; guarded by
+    // the latch
+    private final Map<TransactionId, BitSet> rowWrites = new HashMap<>();
 
     /**
      * Marks this page as dirty/not dirty and record that transaction that did the
@@ -308,10 +408,99 @@ public class HeapPage implements Page {
         // DONE: some code goes here
         // not necessary for lab1
         if (dirty) {
+            oldData();
             dirtyTid = tid;
         } else {
             dirtyTid = null;
+            synchronized (this) {
+                rowWrites.clear();
+            }
+        }
+    }
+
+    /**
+     * Marks the page dirty by a transaction that changed the specified slot
+     * under a row lock. The caller holds the latch.
+     */
+    synchronized void markRowDirty(TransactionId tid, int slot) {
+        markDirty(true, tid);
+        rowWrites.computeIfAbsent(tid, t -> new BitSet()).set(slot);
+    }
+
+    @Override
+    public synchronized boolean isDirtiedBy(TransactionId tid) {
+        return tid.equals(dirtyTid) || rowWrites.containsKey(tid);
+    }
+
+    /**
+     * @return true if the transaction changed rows of this page that are not
+     *         committed or rolled back yet
+     */
+    synchronized boolean hasRowWrites(TransactionId tid) {
+        return rowWrites.containsKey(tid);
+    }
+
+    /**
+     * @return how many running transactions changed rows of this page
+     */
+    synchronized int getRowWriterCount() {
+        return rowWrites.size();
+    }
+
+    // the slots a transaction changed: all of them if nobody else changed rows
+    // of the page, as it may have changed the page under a page lock as well
+    private BitSet slotsOf(TransactionId tid) {
+        BitSet slots = rowWrites.remove(tid);
+        if (rowWrites.isEmpty()) {
+            slots = new BitSet();
+            slots.set(0, numSlots);
+        }
+        return slots;
+    }
+
+    // the page stays dirty by the transactions still changing rows of it
+    private void updateDirty() {
+        dirtyTid = rowWrites.isEmpty() ? null : rowWrites.keySet().iterator().next();
+    }
+
+    /**
+     * Commits the rows a transaction changed: makes the before image that of
+     * the page with the slots it changed as they are now, and those of the
+     * other transactions changing the page as they were.
+     *
+     * @return the new before image, the after image of the change to log
+     */
+    synchronized HeapPage commitRows(TransactionId tid) {
+        BitSet slots = slotsOf(tid);
+        byte[] after = getBeforeImage().getPageData();
+        byte[] now = getPageData();
+        int size = td.getSize();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            int bit = 1 << (i % 8);
+            after[i / 8] = (byte) ((after[i / 8] & ~bit) | (now[i / 8] & bit));
+            int off = header.length + i * size;
+            System.arraycopy(now, off, after, off, size);
         }
+        // the latch keeps other row commits out, so oldDataLock is not needed
+        oldData = after;
+        updateDirty();
+        return getBeforeImage();
+    }
+
+    /**
+     * Rolls back the rows a transaction changed: puts the slots it changed
+     * back as they are in the before image, leaving those of the other
+     * transactions changing the page.
+     */
+    synchronized void rollbackRows(TransactionId tid) {
+        BitSet slots = slotsOf(tid);
+        HeapPage before = getBeforeImage();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            boolean used = before.isSlotUsed(i);
+            markSlotUsed(i, used);
+            tuples[i] = used ? before.getTuple(i) : null;
+        }
+        updateDirty();
     }
 
     /**
@@ -329,11 +518,12 @@ public class HeapPage implements Page {
      */
     public int getNumUnusedSlots() {
         // DONE: some code goes here
-        int cnt = 0;
+        int used = 0;
         for (byte b : header) {
-            cnt += 8 - Integer.bitCount(b & 0xff);
+            used += Integer.bitCount(b & 0xff);
         }
-        return cnt;
+        // the padding bits at the end of the header are not slots
+        return numSlots - used;
     }
 
     /**
@@ -362,14 +552,43 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // DONE: some code goes here
-//        return Arrays.asList(tuples).iterator();
-        ArrayList<Tuple> nonempty = new ArrayList<>();
-        for (Tuple tuple : tuples) {
-            if (tuple != null) {
-                nonempty.add(tuple);
+        // walks the slots used when the iterator was created; tuples are only
+        // decoded as they are returned, and fields only as they are read
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && (((used[i / 8] >> (i % 8)) & 1) == 0 || !isSlotUsed(i))) {
+                    ++i;
+                }
+                return i;
             }
-        }
-        return nonempty.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= numSlots || !isSlotUsed(next)) {
+                    // the slot may have been emptied since hasNext()
+                    next = advance(next);
+                    if (next >= numSlots) {
+                        throw new NoSuchElementException();
+                    }
+                }
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
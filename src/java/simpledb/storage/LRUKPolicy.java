@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRUKPolicy evicts the page whose K-th most recent access is the oldest
+ * (O'Neil et al., "The LRU-K Page Replacement Algorithm"). Pages accessed
+ * fewer than K times have no K-th access and go first, least recently used
+ * first, so a page read once by a scan is evicted before a page that is looked
+ * up repeatedly, however recent the scan.
+ * <p>
+ * The access history of an evicted page is retained for a while, so a page
+ * that is requested again soon after it was evicted has its earlier accesses
+ * counted, as the paper prescribes. The histories of as many evicted pages as
+ * the buffer pool holds are kept, the most recently evicted ones.
+ * <p>
+ * Access times are a logical clock. Pages are kept ordered by their K-th most
+ * recent access, so a hit and the search for a victim take logarithmic time.
+ */
+public class LRUKPolicy implements EvictionPolicy {
+    /**
+     * The K of {@link #LRUKPolicy(int)}; LRU-2 already tells pages that are
+     * used repeatedly from pages that are used once.
+     */
+    public static final int DEFAULT_K = 2;
+
+    private static class History implements Comparable<History> {
+        final PageId pid;
+        // the last K access times, most recent at (next - 1) % K
+        final long[] times;
+        int next;
+        int count;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void access(long now) {
+            times[next] = now;
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+        }
+
+        // the K-th most recent access, or -1 if there were fewer than K
+        long kth() {
+            return count < times.length ? -1 : times[next];
+        }
+
+        long last() {
+            return times[(next + times.length - 1) % times.length];
+        }
+
+        @Override
+        public int compareTo(History o) {
+            int c = Long.compare(kth(), o.kth());
+            // access times are unique, so this orders every pair of pages
+            return c != 0 ? c : Long.compare(last(), o.last());
+        }
+    }
+
+    private final int k;
+    private long clock = 0;
+    private final Map<PageId, History> histories = new HashMap<>();
+    // histories of evicted pages, least recently evicted first
+    private final LinkedHashMap<PageId, History> retained = new LinkedHashMap<>();
+    private final int maxRetained;
+    // oldest K-th access first
+    private final TreeSet<History> order = new TreeSet<>();
+
+    /**
+     * Creates an LRU-2 policy that retains the histories of as many evicted
+     * pages as the buffer pool holds.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public LRUKPolicy(int capacity) {
+        this(DEFAULT_K, capacity);
+    }
+
+    /**
+     * @param k           the number of recent accesses remembered per page
+     * @param maxRetained the number of evicted pages whose history is kept
+     */
+    public LRUKPolicy(int k, int maxRetained) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1, was " + k);
+        }
+        this.k = k;
+        this.maxRetained = maxRetained;
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = retained.remove(pid);
+        if (h == null) {
+            h = new History(pid, k);
+        }
+        h.access(clock++);
+        histories.put(pid, h);
+        order.add(h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h != null) {
+            order.remove(h);
+            h.access(clock++);
+            order.add(h);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null) {
+            order.remove(h);
+            retained.put(pid, h);
+            if (retained.size() > maxRetained) {
+                Iterator<History> oldest = retained.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (History h : order) {
+            if (evictable.test(h.pid)) {
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
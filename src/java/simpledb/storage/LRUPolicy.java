@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * LRUPolicy evicts the least recently used page that is evictable. Pages are
+ * kept in access order, so a hit moves its page to the end in constant time
+ * and the victim is found from the front, skipping pages that may not be
+ * evicted.
+ * <p>
+ * A scan of a table larger than the buffer pool evicts every page that is
+ * not part of the scan; see {@link TwoQueuePolicy} and {@link LRUKPolicy} for
+ * policies that resist that.
+ */
+public class LRUPolicy implements EvictionPolicy {
+    // least recently used first
+    private final LinkedHashMap<PageId, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    public void pageAdded(PageId pid) {
+        order.put(pid, Boolean.TRUE);
+    }
+
+    public void pageAccessed(PageId pid) {
+        order.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        order.remove(pid);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (PageId pid : order.keySet()) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer holds the records appended to a {@link LogFile} until they are
+ * written to the file together, in one write. An appender reserves room for
+ * its record by advancing the end of the buffer atomically and then copies the
+ * record in, so appenders do not wait for each other. Positions are those of
+ * the log, see {@link LogFile#getEnd}.
+ * <p>
+ * The caller keeps reservations and copies from overlapping {@link #drainTo}
+ * and {@link #restart}, see LogFile.
+ */
+class LogBuffer {
+    private final byte[] area;
+    // the position of area[0]
+    private volatile long start;
+    // the position just past the last reservation
+    private final AtomicLong end;
+
+    /**
+     * @param capacity the most bytes held before they have to be written
+     * @param position the position of the first record to append
+     */
+    LogBuffer(int capacity, long position) {
+        area = new byte[capacity];
+        start = position;
+        end = new AtomicLong(position);
+    }
+
+    int getCapacity() {
+        return area.length;
+    }
+
+    /**
+     * @return the position of the first byte not written to the file yet
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the position just past the last record appended
+     */
+    long getEnd() {
+        return end.get();
+    }
+
+    /**
+     * Reserves room for a record at the end of the buffer.
+     *
+     * @return the position of the record, or -1 if the buffer has no room
+     */
+    long reserve(int length) {
+        while (true) {
+            long e = end.get();
+            if (e + length - start > area.length) {
+                return -1;
+            }
+            if (end.compareAndSet(e, e + length)) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Copies a record into the room reserved for it.
+     */
+    void put(long position, byte[] record, int length) {
+        System.arraycopy(record, 0, area, (int) (position - start), length);
+    }
+
+    /**
+     * Writes the records appended since the last call to the log's segments
+     * and empties the buffer. No reservation may be in progress.
+     */
+    void drainTo(LogSegments segments) throws IOException {
+        long e = end.get();
+        if (e > start) {
+            segments.write(start, area, 0, (int) (e - start));
+        }
+        start = e;
+    }
+
+    /**
+     * Empties the buffer and continues the log at the specified position. No
+     * reservation may be in progress.
+     */
+    void restart(long position) {
+        start = position;
+        end.set(position);
+    }
+}
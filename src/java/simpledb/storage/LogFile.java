@@ -3,13 +3,25 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -46,11 +58,13 @@ must not be declared synchronized and must begin with a block like:
  *
  * <ul>
  *
- * <li>The first long integer of the file represents the offset of the last
- * written checkpoint, or -1 if there are no checkpoints
+ * <li>The long integer in the file represents the offset of the last written
+ * checkpoint, or -1 if there are no checkpoints
  *
- * <li>All additional data in the log consists of log records. Log records are
- * variable length.
+ * <li>The log records are held in segment files beside it, see
+ * {@link LogSegments}. Log records are variable length, and an offset is the
+ * position of a record in the log, which does not change when the segments
+ * before it are deleted.
  *
  * <li>Each log record begins with an integer type and a long integer
  * transaction id.
@@ -62,24 +76,67 @@ must not be declared synchronized and must begin with a block like:
  *
  * <li>ABORT, COMMIT, and BEGIN records contain no additional data
  *
- * <li>UPDATE RECORDS consist of two entries, a before image and an after image.
- * These images are serialized Page objects, and can be accessed with the
- * LogFile.readPageData() and LogFile.writePageData() methods. See
- * LogFile.print() for an example.
+ * <li>UPDATE RECORDS consist of the offset of the previous UPDATE record of the
+ * same transaction, or -1 if there is none, and the change to a page between
+ * its before image and its after image: the byte ranges that differ, with
+ * their bytes in both images, and the page they belong to, named by a compact
+ * type code. See {@link PageDelta} for the format, and LogFile.print() for an
+ * example. Rollback and recovery follow the chain of previous offsets back
+ * from the last UPDATE record of a transaction.
  *
  * <li>CHECKPOINT records consist of active transactions at the time the
- * checkpoint was taken and their first log record on disk. The format of the
- * record is an integer count of the number of transactions, as well as a long
- * integer transaction id and a long integer first record offset for each active
- * transaction.
+ * checkpoint was taken and their first log record on disk, followed by the
+ * pages that were committed but not written yet. The format of the record is
+ * an integer count of the number of transactions, as well as a long integer
+ * transaction id, a long integer first record offset and a long integer last
+ * UPDATE record offset (or -1) for each active transaction; then the long integer offset recovery redoes from, and an
+ * integer count of the pages, as well as a serialized page id (an integer
+ * count and that many integers) and a long integer offset of the first record
+ * not on disk for each page.
  *
  * </ul>
+ *
+ * <p>
+ * Commits are forced in groups. A committing transaction appends its COMMIT
+ * record and then waits, without holding the log, until the log is on disk up
+ * to that record. The first waiter to find no force running forces the log
+ * for everyone who appended before it, after waiting up to the configured
+ * delay for more committers to join (see {@link #setGroupCommit}); the others
+ * wait for it. So a force covers the commits of every client that arrived
+ * during the previous one.
+ *
+ * <p>
+ * BEGIN, UPDATE and COMMIT records are serialized by the appending thread
+ * without holding the log, and appended to a {@link LogBuffer}: the appender
+ * reserves room for the record by advancing the end of the buffer atomically
+ * and copies it in, holding only the read side of a read-write lock. The
+ * buffer reaches the file in one write when it fills up or the log is forced.
+ * Everything that reads the segments holds this and the write side, which
+ * waits for the appends in progress and writes the buffer out first; so the
+ * records recover and rollback read are all in the segments.
+ *
+ * <p>
+ * Checkpoints are fuzzy: they write no pages and hold the log only while they
+ * note the active transactions, ask the buffer pool which committed pages it
+ * has not written, and append the CHECKPOINT record. Recovery redoes from the
+ * oldest record of such a page, which may come before the checkpoint.
+ *
+ * <p>
+ * Truncation after a checkpoint deletes the segments that end before the
+ * oldest record recovery or rollback may still read: the first record of the
+ * oldest running transaction, the oldest record to redo and the checkpoint
+ * itself. No record is copied, so appends wait only while the files are
+ * deleted.
  */
 public class LogFile {
 
     final File logFile;
+    // holds the offset of the last checkpoint
     private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private final LogSegments segments;
+    // reads the segments, holding the log
+    private final LogReader in;
+    volatile Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
@@ -91,11 +148,65 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;// protected by this
     // int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(0); // for PatchTest
 
-    final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
+    final Map<Long, Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+    // the offset of the last UPDATE record of each active transaction that has one
+    final Map<Long, Long> tidToLastUpdate = new ConcurrentHashMap<>();
+
+    /**
+     * The size of the log buffer, in bytes.
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The size of the segment files the log is held in by default, in bytes.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+    private final LogBuffer buffer = new LogBuffer(BUFFER_SIZE, 0);
+    // appenders hold the read side while they reserve room in the buffer and
+    // copy their record in; the write side is held, after this, to use the file
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+
+    /**
+     * A record being serialized by an appending thread, reused for the next.
+     */
+    private static class RecordBuilder extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private static final ThreadLocal<RecordBuilder> records =
+            ThreadLocal.withInitial(RecordBuilder::new);
+
+    /**
+     * How long the committer that forces the log waits for others to join it
+     * by default, in microseconds.
+     */
+    public static final long DEFAULT_GROUP_DELAY_MICROS = 0;
+
+    /**
+     * How many committers a force waits for at most by default.
+     */
+    public static final int DEFAULT_GROUP_SIZE = 32;
+
+    // protects the fields below; taken after this, never before
+    private final Object flushLock = new Object();
+    // the log is on disk up to here
+    private long durable = 0;
+    private boolean flushing = false;
+    private int waiting = 0;
+    private long groupDelayNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_GROUP_DELAY_MICROS);
+    private int groupSize = DEFAULT_GROUP_SIZE;
+    private final AtomicLong forces = new AtomicLong(0);
+
+    // how many threads recover redoes pages with
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      * Constructor. Initialize and back the log file with the specified file. We're
@@ -110,6 +221,8 @@ public class LogFile {
     public LogFile(File f) throws IOException {
         this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, DEFAULT_SEGMENT_SIZE);
+        in = new LogReader(segments);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,19 +240,114 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if (recoveryUndecided) {
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                lockAppends();
+                try {
+                    if (recoveryUndecided) {
+                        recoveryUndecided = false;
+                        raf.seek(0);
+                        raf.setLength(0);
+                        raf.writeLong(NO_CHECKPOINT_ID);
+                        segments.reset(0);
+                        buffer.restart(0);
+                    }
+                } finally {
+                    unlockAppends();
+                }
+            }
+        }
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /**
+     * Takes the log for reading or writing the file directly: waits for the
+     * appends in progress and writes out the buffer. The caller holds this,
+     * and calls {@link #unlockAppends} when done.
+     */
+    private void lockAppends() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            buffer.drainTo(segments);
+        } catch (IOException e) {
+            appendLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    private void unlockAppends() {
+        appendLock.writeLock().unlock();
+    }
+
+    // starts a record in the calling thread's builder
+    private static DataOutputStream startRecord(int type, long tid) throws IOException {
+        RecordBuilder b = records.get();
+        b.reset();
+        b.out.writeInt(type);
+        b.out.writeLong(tid);
+        return b.out;
+    }
+
+    // fills in the start offset at the end of a record
+    private static void setStart(byte[] record, int length, long start) {
+        for (int i = 0; i < LONG_SIZE; ++i) {
+            record[length - 1 - i] = (byte) (start >>> (8 * i));
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /**
+     * Appends the record built by the calling thread, ending it with its start
+     * offset as every record does.
+     *
+     * @param appended given the start offset of the record once it is in the
+     *                 log, before a checkpoint or truncation can see the log;
+     *                 or null
+     * @return the offset of the record
+     */
+    private long appendRecord(LongConsumer appended) throws IOException {
+        RecordBuilder b = records.get();
+        b.out.writeLong(0); // start offset, filled in once known
+        byte[] record = b.array();
+        int length = b.size();
+        while (true) {
+            appendLock.readLock().lock();
+            try {
+                long position = length <= buffer.getCapacity() ? buffer.reserve(length) : -1;
+                if (position >= 0) {
+                    setStart(record, length, position);
+                    buffer.put(position, record, length);
+                    if (appended != null) {
+                        appended.accept(position);
+                    }
+                    return position;
+                }
+            } finally {
+                appendLock.readLock().unlock();
+            }
+            synchronized (this) {
+                lockAppends();
+                try {
+                    if (length > buffer.getCapacity()) {
+                        // too large to buffer, write it past the others
+                        long position = buffer.getEnd();
+                        setStart(record, length, position);
+                        segments.write(position, record, 0, length);
+                        buffer.restart(position + length);
+                        if (appended != null) {
+                            appended.accept(position);
+                        }
+                        return position;
+                    }
+                    // the buffer was full, and is empty now
+                } finally {
+                    unlockAppends();
+                }
+            }
+        }
     }
 
     /**
@@ -163,12 +371,11 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                startRecord(ABORT_RECORD, tid.getId());
+                appendRecord(null);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastUpdate.remove(tid.getId());
             }
         }
     }
@@ -179,119 +386,46 @@ public class LogFile {
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         // should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+        startRecord(COMMIT_RECORD, tid.getId());
+        long end = appendRecord(start -> {
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastUpdate.remove(tid.getId());
+        }) + records.get().size();
+        force(end);
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page (with provided
-     * before and after images.)
+     * before and after images.) Only the bytes that differ between the images
+     * are logged. The UPDATE records of a transaction are logged one at a
+     * time, as the buffer pool does under its monitor, so that each points to
+     * the one before it.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before, Page after)
+    public void logWrite(TransactionId tid, Page before, Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
         /*
          * update record conists of
          * 
-         * record type transaction id before page data (see writePageData) after page
-         * data start offset
+         * record type transaction id previous update offset page delta (see
+         * PageDelta) start offset
          */
-//        System.out.println("write " + tid.getId() + " " + raf.getFilePointer());
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
-    }
-
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
-        // page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        // Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +
-        // pid.getTableId() + ", page = " + pid.pageno());
-    }
-
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); // read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
-
-            // Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " +
-            // newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
-                | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+        DataOutputStream out = startRecord(UPDATE_RECORD, tid.getId());
+        out.writeLong(tidToLastUpdate.getOrDefault(tid.getId(), -1L));
+        PageDelta.write(out, before, after);
+        long position = appendRecord(start -> tidToLastUpdate.put(tid.getId(), start));
 
+        Debug.log("WRITE OFFSET = " + (position + records.get().size()));
     }
 
     /**
@@ -299,7 +433,7 @@ public class LogFile {
      *
      * @param tid The transaction that is beginning
      */
-    public synchronized void logXactionBegin(TransactionId tid) throws IOException {
+    public void logXactionBegin(TransactionId tid) throws IOException {
 //        System.out.println("add map " + tid.getId());
         Debug.log("BEGIN");
         if (tidToFirstLogRecord.get(tid.getId()) != null) {
@@ -307,156 +441,155 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        startRecord(BEGIN_RECORD, tid.getId());
+        long position = appendRecord(start -> tidToFirstLogRecord.put(tid.getId(), start));
+
+        Debug.log("BEGIN OFFSET = " + (position + records.get().size()));
+    }
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+    /**
+     * @return true if the transaction has begun in the log and has not
+     *         committed or aborted yet, so that its updates can be undone
+     */
+    public boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record. Writes no pages, and
+     * transactions only wait while the record is appended.
      */
     public void logCheckpoint() throws IOException {
-        // make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                // Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); // no tid , but leave space for convenience
+        synchronized (this) {
+            // Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            // no transaction begins, commits or logs a page meanwhile
+            lockAppends();
+            try {
+                long startCpOffset;
+                long cpStart = buffer.getEnd();
+                Map<Long, Long> firstRecords = new HashMap<>(tidToFirstLogRecord);
+                Map<Long, Long> lastUpdates = new HashMap<>(tidToLastUpdate);
+                // positions, taken before the pages were logged
+                Map<PageId, Long> dirtyPages = Database.getBufferPool().dirtyPageTable();
+                long redoOffset = cpStart;
+                for (long recLsn : dirtyPages.values()) {
+                    redoOffset = Math.min(redoOffset, recLsn);
+                }
+                // no tid , but leave space for convenience
+                DataOutputStream out = startRecord(CHECKPOINT_RECORD, -1);
 
                 // write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                out.writeInt(firstRecords.size());
+                for (Map.Entry<Long, Long> first : firstRecords.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + first.getKey());
+                    out.writeLong(first.getKey());
                     // Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " +
                     // tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    out.writeLong(first.getValue());
+                    out.writeLong(lastUpdates.getOrDefault(first.getKey(), -1L));
+                }
+                // and the pages recovery may have to redo
+                out.writeLong(redoOffset);
+                out.writeInt(dirtyPages.size());
+                for (Map.Entry<PageId, Long> page : dirtyPages.entrySet()) {
+                    int[] pageInfo = page.getKey().serialize();
+                    out.writeInt(pageInfo.length);
+                    for (int j : pageInfo) {
+                        out.writeInt(j);
+                    }
+                    out.writeLong(page.getValue());
                 }
+                startCpOffset = appendRecord(null);
 
-                // once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                // once the CP is on disk, make sure the CP location in the log
+                // file is updated
+                buffer.drainTo(segments);
+                segments.force(segments.toForce());
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                // Debug.log("CP OFFSET = " + currentOffset);
+                raf.getChannel().force(true);
+            } finally {
+                unlockAppends();
             }
         }
 
         logTruncate();
     }
 
+    // skips the body of a CHECKPOINT record, up to its start offset
+    private static void skipCheckpoint(LogReader in) throws IOException {
+        int numXactions = in.readInt();
+        in.seek(in.getFilePointer() + (long) numXactions * 3 * LONG_SIZE);
+        in.readLong(); // redo offset
+        for (int i = 0, n = in.readInt(); i < n; ++i) {
+            int numInts = in.readInt();
+            in.seek(in.getFilePointer() + (long) numInts * INT_SIZE + LONG_SIZE);
+        }
+    }
+
+    // the offset of the last checkpoint, or -1
+    private long checkpointOffset() throws IOException {
+        if (raf.length() < LONG_SIZE) {
+            return NO_CHECKPOINT_ID;
+        }
+        raf.seek(0);
+        return raf.readLong();
+    }
+
     /**
      * Truncate any unneeded portion of the log to reduce its space consumption
      */
     public synchronized void logTruncate() throws IOException {
+        lockAppends();
+        try {
+            truncate();
+        } finally {
+            unlockAppends();
+        }
+    }
+
+    private void truncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = checkpointOffset();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException(
-                        "Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        in.seek(cpLoc);
+        int cpType = in.readInt();
+        in.readLong(); // no tid
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        // have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid, newStart);
-                    break;
-                }
-
-                // all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        int numOutstanding = in.readInt();
+        in.seek(in.getFilePointer() + (long) numOutstanding * 3 * LONG_SIZE);
+        // the committed pages that are not on disk yet are redone from here
+        minLogRecord = Math.min(minLogRecord, in.readLong());
+        // and running transactions are rolled back to their first record
+        for (long firstLogRecord : tidToFirstLogRecord.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord
-                + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        // we can drop everything before minLogRecord
+        long dropped = segments.dropBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG; DROPPED " + dropped + " BYTES; NEW START: "
+                + segments.getStart() + " KEEPING FROM: " + minLogRecord);
+    }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    /**
+     * Sets the size of the segment files the log starts from now on.
+     */
+    public synchronized void setSegmentSize(long bytes) {
+        segments.setSegmentSize(bytes);
+    }
 
-        currentOffset = raf.getFilePointer();
-        // print();
+    /**
+     * @return the segment files that hold the log, oldest first
+     */
+    public synchronized List<File> getSegmentFiles() {
+        return segments.getFiles();
     }
 
     /**
@@ -470,40 +603,34 @@ public class LogFile {
     public void rollback(TransactionId tid) throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                preAppend();
-                // DONE: some code goes here
-                long pos = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(pos);
-                ArrayList<Page> pages = new ArrayList<>();
-                for (;;) {
-                    try {
-                        int type = raf.readInt();
-                        long nowTid = raf.readLong();
-
-                        if (type == UPDATE_RECORD) {
-                            Page page = readPageData(raf); // before image
-                            readPageData(raf); // after image
-                            if (tid.getId() == nowTid) {
-                                pages.add(page);
-                            }
-                        } else if (type == CHECKPOINT_RECORD) {
-                            for (int i = 0, n = raf.readInt(); i < n; ++i) {
-                                raf.readLong();// transaction id
-                                raf.readLong();// seek position
-                            }
-                        }
-                        raf.readLong(); // position
-                    } catch (IOException e) {
-                        break;
+                lockAppends();
+                try {
+                    preAppend();
+                    // DONE: some code goes here
+                    if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                        throw new NoSuchElementException("transaction " + tid.getId()
+                                + " is not running");
                     }
-                }
-                for (int i = pages.size() - 1; i >= 0; --i) {
-                    writeToDisk(pages.get(i));
+                    undo(tidToLastUpdate.getOrDefault(tid.getId(), -1L));
+                } finally {
+                    unlockAppends();
                 }
             }
         }
     }
 
+    // undoes the UPDATE record at the specified offset and every earlier one
+    // of its transaction, latest first, following their back-chain
+    private void undo(long offset) throws IOException {
+        while (offset >= 0) {
+            in.seek(offset);
+            in.readInt(); // type
+            in.readLong(); // transaction id
+            offset = in.readLong();
+            writeToDisk(PageDelta.read(in), false);
+        }
+    }
+
     /**
      * Shutdown the logging system, writing out whatever state is necessary so that
      * start up can happen quickly (without extensive recovery.)
@@ -511,6 +638,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint(); // simple way to shutdown is to write a checkpoint record
+            segments.close();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -518,223 +646,289 @@ public class LogFile {
         }
     }
 
-    private void writeToDisk(Page page) throws IOException {
-        PageId pid = page.getId();
-        Database.getBufferPool().removePage(pid);
+    // redoes or undoes a change to the page on disk; the copy in the buffer
+    // pool, if any, is the same or has the changes being undone, so it is
+    // dropped rather than written
+    private void writeToDisk(PageDelta change, boolean redo) throws IOException {
+        PageId pid = change.getPageId();
+        Database.getBufferPool().discardPage(pid);
         DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(page);
+        file.writePage(change.apply(file.readPage(pid), redo));
     }
 
     /**
      * Recover the database system by ensuring that the updates of committed
      * transactions are installed and that the updates of uncommitted transactions
      * are not installed.
+     * <p>
+     * Commit only forces the log, so the pages of committed transactions may not
+     * be on disk, and eviction may write pages that running transactions
+     * dirtied. Recovery first redoes, in log order, the updates of committed
+     * transactions from the oldest record of a page that was not written when
+     * the last checkpoint was taken, or from the start of the log if there is
+     * none, and then undoes the updates of the transactions that neither
+     * committed nor aborted.
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // DONE: some code goes here
-
-                raf.seek(0);
-                long checkPoint = raf.readLong();
-                HashMap<Long, Long> transacionID = new HashMap<>();
-                long earliest = checkPoint;
-                long checkPointOffset = raf.getFilePointer();
-                if (checkPoint != -1) {
-                    raf.seek(checkPoint);
-                    raf.readInt();
-                    raf.readLong();
-                    int cnt = raf.readInt();
-                    while (cnt > 0) {
-                        cnt--;
-                        long tids = raf.readLong();
-                        long offset = raf.readLong();
-                        transacionID.put(tids, offset);
-                        if (offset >= 0) {
-                            earliest = Math.min(earliest, offset);
+                lockAppends();
+                try {
+                    recoveryUndecided = false;
+                    // DONE: some code goes here
+
+                    long checkPoint = checkpointOffset();
+                    // first record of each transaction that may need undo
+                    HashMap<Long, Long> transacionID = new HashMap<>();
+                    // and its last UPDATE record
+                    HashMap<Long, Long> lastUpdates = new HashMap<>();
+                    // where the records that may not be on disk start
+                    long redoOffset = segments.getStart();
+                    if (checkPoint != -1) {
+                        in.seek(checkPoint);
+                        in.readInt();
+                        in.readLong();
+                        int cnt = in.readInt();
+                        while (cnt > 0) {
+                            cnt--;
+                            long tids = in.readLong();
+                            long offset = in.readLong();
+                            transacionID.put(tids, offset);
+                            lastUpdates.put(tids, in.readLong());
                         }
+                        redoOffset = in.readLong();
                     }
-                    raf.readLong();
-                    checkPointOffset = raf.getFilePointer();
-                } else {
+
+                    // analysis: the outcome of each transaction, and the changes
+                    // to redo, with their transactions, in log order
+                    HashSet<Long> commitSet = new HashSet<>();
+                    HashSet<Long> abortSet = new HashSet<>();
+                    List<Long> changeTids = new ArrayList<>();
+                    List<PageDelta> changes = new ArrayList<>();
+                    in.seek(redoOffset);
                     while (true) {
                         try {
-                            int type = raf.readInt();
-                            long tid = raf.readLong();
+                            long offset = in.getFilePointer();
+                            int type = in.readInt();
+                            long tid = in.readLong();
                             if (type == UPDATE_RECORD) {
-                                readPageData(raf);
-                                readPageData(raf);
+                                in.readLong(); // previous update
+                                changes.add(PageDelta.read(in));
+                                changeTids.add(tid);
+                                lastUpdates.put(tid, offset);
+                            } else if (type == CHECKPOINT_RECORD) {
+                                skipCheckpoint(in);
                             }
-                            raf.readLong();
                             if (type == BEGIN_RECORD) {
-                                transacionID.put(tid, raf.getFilePointer());
+                                transacionID.put(tid, offset);
                             }
                             if (type == COMMIT_RECORD) {
-                                transacionID.remove(tid);
+                                commitSet.add(tid);
                             }
                             if (type == ABORT_RECORD) {
-                                transacionID.remove(tid);
+                                abortSet.add(tid);
                             }
+                            in.readLong();
                         } catch (IOException e) {
                             break;
                         }
-                        checkPoint = Long.MAX_VALUE;
-                        checkPointOffset = raf.getFilePointer();
-                    }
-                }
-                
-                HashSet<Long> commitSet = new HashSet<>();
-                while (true) {
-                    try {
-                        int type = raf.readInt();
-                        long tid = raf.readLong();
-                        if (type == UPDATE_RECORD) {
-                            readPageData(raf);
-                            readPageData(raf);
-                        }
-                        if (type == COMMIT_RECORD) {
-                            commitSet.add(tid);
-                        }
-                        raf.readLong();
-                    } catch (IOException e) {
-                        break;
                     }
-                }
 
-                Iterator<Long> iter = transacionID.keySet().iterator();
-                while (iter.hasNext()) {
-                    long tid = iter.next();
-                    if (commitSet.contains(tid)) { // commit
-                        continue;
+                    // redo, page by page
+                    Map<PageId, List<PageDelta>> redoPages = new LinkedHashMap<>();
+                    for (int i = 0; i < changes.size(); ++i) {
+                        if (commitSet.contains(changeTids.get(i))) {
+                            PageDelta change = changes.get(i);
+                            redoPages.computeIfAbsent(change.getPageId(), pid -> new ArrayList<>())
+                                    .add(change);
+                        }
                     }
+                    redo(redoPages);
 
-                    long off = transacionID.get(tid);
-                    raf.seek(off);
-                    ArrayList<Page> pages = new ArrayList<>();
-                    while (raf.getFilePointer() < checkPoint) {
-                        try {
-                            int type = raf.readInt();
-                            long tid2 = raf.readLong();
-                            if (type == UPDATE_RECORD) {
-                                Page old = readPageData(raf);
-                                readPageData(raf);
-                                if (tid2 == tid) {
-                                    pages.add(old);
-                                }
-                            }
-                            raf.readLong();
-                        } catch (IOException e) {
-                            break;
+                    // undo; aborted transactions were rolled back when they aborted
+                    for (Map.Entry<Long, Long> pr : transacionID.entrySet()) {
+                        long tid = pr.getKey();
+                        if (commitSet.contains(tid) || abortSet.contains(tid) || pr.getValue() < 0) {
+                            continue;
                         }
+                        undo(lastUpdates.getOrDefault(tid, -1L));
                     }
-                    for (int i = pages.size() - 1; i >= 0; --i) {
-                        writeToDisk(pages.get(i));
-                    }
+                    // append after the records recovered from
+                    buffer.restart(segments.getEnd());
+                } finally {
+                    unlockAppends();
                 }
-                
-                raf.seek(checkPointOffset);
-                while (true) {
-                    try {
-                        int type = raf.readInt();
-                        long tid = raf.readLong();
-                        if (type == UPDATE_RECORD) {
-                            Page old = readPageData(raf);
-                            Page newPage = readPageData(raf);
-                            if (commitSet.contains(tid)) {
-                                writeToDisk(newPage);
-                            } else {
-                                writeToDisk(old);
-                            }
-                        }
-                        raf.readLong();
-                    } catch (IOException e) {
-                        break;
+            }
+        }
+    }
+
+    /**
+     * Redoes the changes to each page, in order, reading and writing the page
+     * once. The pages are split into as many partitions as there are recovery
+     * threads (see {@link #setRecoveryThreads}), by page ID, and the partitions
+     * are redone in parallel.
+     *
+     * @param changes the changes to redo for each page
+     */
+    private void redo(Map<PageId, List<PageDelta>> changes) throws IOException {
+        // the buffer pool holds no copy that is newer than the disk
+        for (PageId pid : changes.keySet()) {
+            Database.getBufferPool().discardPage(pid);
+        }
+        int threads = Math.min(recoveryThreads, changes.size());
+        if (threads <= 1) {
+            for (Map.Entry<PageId, List<PageDelta>> page : changes.entrySet()) {
+                redoPage(page.getKey(), page.getValue());
+            }
+            return;
+        }
+        List<List<Map.Entry<PageId, List<PageDelta>>>> partitions = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Map.Entry<PageId, List<PageDelta>> page : changes.entrySet()) {
+            partitions.get(Math.floorMod(page.getKey().hashCode(), threads)).add(page);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (List<Map.Entry<PageId, List<PageDelta>>> partition : partitions) {
+                done.add(workers.submit(() -> {
+                    for (Map.Entry<PageId, List<PageDelta>> page : partition) {
+                        redoPage(page.getKey(), page.getValue());
                     }
-                }
+                    return null;
+                }));
             }
+            for (Future<Void> partition : done) {
+                partition.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted during recovery", e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static void redoPage(PageId pid, List<PageDelta> changes) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        byte[] data = file.readPage(pid).getPageData();
+        for (PageDelta change : changes) {
+            change.applyTo(data, true);
         }
+        file.writePage(changes.get(changes.size() - 1).toPage(data));
+    }
+
+    /**
+     * Sets how many threads {@link #recover} redoes pages with.
+     */
+    public void setRecoveryThreads(int threads) {
+        recoveryThreads = Math.max(1, threads);
     }
 
     /**
      * Print out a human readable represenation of the log
      */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    public synchronized void print() throws IOException {
+        lockAppends();
+        try {
+            printRecords();
+        } finally {
+            unlockAppends();
+        }
+    }
 
-        raf.seek(0);
+    private void printRecords() throws IOException {
+        long curOffset = in.getFilePointer();
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + checkpointOffset());
+        in.seek(segments.getStart());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE))
+                System.out.println((in.getFilePointer() - (INT_SIZE + LONG_SIZE))
                         + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((in.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
                     System.out.println(
-                            raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                            in.getFilePointer() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
                     System.out.println(
-                            raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                            in.getFilePointer() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
                     System.out.println(
-                            raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                            in.getFilePointer() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE)
+                    int numTransactions = in.readInt();
+                    System.out.println((in.getFilePointer() - INT_SIZE)
                             + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println(
-                                (raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE)
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        long lastUpdate = in.readLong();
+                        System.out.println((in.getFilePointer() - 3 * LONG_SIZE) + ": TID: " + tid);
+                        System.out.println((in.getFilePointer() - 2 * LONG_SIZE)
                                 + ": FIRST LOG RECORD: " + firstRecord);
+                        System.out.println((in.getFilePointer() - LONG_SIZE)
+                                + ": LAST UPDATE RECORD: " + lastUpdate);
+                    }
+                    System.out.println(
+                            in.getFilePointer() + ": REDO OFFSET: " + in.readLong());
+                    int numPages = in.readInt();
+                    System.out.println((in.getFilePointer() - INT_SIZE)
+                            + ": NUMBER OF UNWRITTEN PAGES: " + numPages);
+                    while (numPages-- > 0) {
+                        long pageStart = in.getFilePointer();
+                        int[] pageInfo = new int[in.readInt()];
+                        for (int i = 0; i < pageInfo.length; ++i) {
+                            pageInfo[i] = in.readInt();
+                        }
+                        System.out.println(pageStart + ": PAGE: " + Arrays.toString(pageInfo));
+                        System.out.println(
+                                in.getFilePointer() + ": FIRST LOG RECORD: " + in.readLong());
                     }
                     System.out.println(
-                            raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                            in.getFilePointer() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
-
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
-
-                    System.out.println(
-                            start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number "
-                            + before.getId().getPageNumber());
                     System.out.println(
-                            (start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                            in.getFilePointer() + ": PREVIOUS UPDATE: " + in.readLong());
+                    long start = in.getFilePointer();
+                    PageDelta change = PageDelta.read(in);
 
                     System.out.println(
-                            middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number "
-                            + after.getId().getPageNumber());
-                    System.out.println(
-                            (middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                            start + ": table id " + change.getPageId().getTableId());
+                    System.out.println(start + ": page number "
+                            + change.getPageId().getPageNumber());
+                    System.out.println(start + " TO " + in.getFilePointer() + ": "
+                            + change.getRanges() + " ranges, " + change.size()
+                            + " bytes changed");
 
                     System.out.println(
-                            raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                            in.getFilePointer() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -746,11 +940,145 @@ public class LogFile {
         }
 
         // Return the file pointer to its original position
-        raf.seek(curOffset);
+        in.seek(curOffset);
     }
 
+    /**
+     * Forces everything appended so far to disk.
+     */
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        long end;
+        List<FileChannel> channels;
+        lockAppends();
+        try {
+            end = buffer.getEnd();
+            channels = segments.toForce();
+        } finally {
+            unlockAppends();
+        }
+        segments.force(channels);
+        forces.incrementAndGet();
+        forced(end);
+    }
+
+    /**
+     * Waits until the log is on disk up to the specified position, forcing it
+     * for every record appended so far unless another thread already is. Must
+     * not be called holding this, or other committers could not append while
+     * the log is forced.
+     *
+     * @param end a position returned by {@link #getEnd}
+     */
+    public void force(long end) throws IOException {
+        synchronized (flushLock) {
+            ++waiting;
+            flushLock.notifyAll();
+        }
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    while (flushing && durable < end) {
+                        flushLock.wait();
+                    }
+                    if (durable >= end) {
+                        return;
+                    }
+                    flushing = true;
+                    // let more committers append their records first
+                    long deadline = System.nanoTime() + groupDelayNanos;
+                    long left;
+                    while (waiting < groupSize && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(flushLock, left);
+                    }
+                }
+                long flushed = -1;
+                try {
+                    flushed = sync();
+                } finally {
+                    synchronized (flushLock) {
+                        flushing = false;
+                        if (flushed > durable) {
+                            durable = flushed;
+                        }
+                        flushLock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for the log", e);
+        } finally {
+            synchronized (flushLock) {
+                --waiting;
+            }
+        }
+    }
+
+    // writes out the log buffer and forces the log without holding this, and
+    // returns how far it is on disk
+    private long sync() throws IOException {
+        List<FileChannel> channels;
+        long end;
+        synchronized (this) {
+            lockAppends();
+            try {
+                channels = segments.toForce();
+                end = buffer.getEnd();
+            } finally {
+                unlockAppends();
+            }
+        }
+        segments.force(channels);
+        forces.incrementAndGet();
+        return end;
+    }
+
+    private void forced(long end) {
+        synchronized (flushLock) {
+            if (end > durable) {
+                durable = end;
+            }
+            flushLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the position just past the last record appended, for
+     *         {@link #force(long)}; it keeps growing when the log is truncated
+     */
+    public long getEnd() {
+        return buffer.getEnd();
+    }
+
+    /**
+     * @return true if the log is on disk up to the specified position
+     */
+    public boolean isForced(long end) {
+        synchronized (flushLock) {
+            return durable >= end;
+        }
+    }
+
+    /**
+     * Sets how commits are grouped into forces of the log.
+     *
+     * @param maxDelayMicros how long the committer that forces the log waits
+     *                       for others to append their COMMIT records first
+     * @param maxSize        the number of waiting committers after which it
+     *                       stops waiting
+     */
+    public void setGroupCommit(long maxDelayMicros, int maxSize) {
+        synchronized (flushLock) {
+            groupDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+            groupSize = maxSize;
+        }
+    }
+
+    /**
+     * @return the number of times the log was forced to disk
+     */
+    public long getForces() {
+        return forces.get();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * LogReader reads the records of a {@link LogFile} from any position of its
+ * {@link LogSegments}, through their cache of blocks. It reads past the end of
+ * the log with an {@link java.io.EOFException}, as a RandomAccessFile would.
+ */
+class LogReader extends DataInputStream {
+
+    private static class Cursor extends InputStream {
+        final LogSegments segments;
+        final byte[] one = new byte[1];
+        long position;
+
+        Cursor(LogSegments segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = segments.read(position, b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, segments.getEnd() - position));
+            position += n;
+            return n;
+        }
+    }
+
+    private final Cursor cursor;
+
+    LogReader(LogSegments segments) {
+        this(new Cursor(segments));
+    }
+
+    private LogReader(Cursor cursor) {
+        super(cursor);
+        this.cursor = cursor;
+    }
+
+    void seek(long position) {
+        cursor.position = position;
+    }
+
+    long getFilePointer() {
+        return cursor.position;
+    }
+}
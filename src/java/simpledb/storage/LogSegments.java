@@ -0,0 +1,281 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LogSegments holds the records of a {@link LogFile} in a sequence of segment
+ * files of a fixed size, so that the log is read and written at positions
+ * that never change, and dropping its front deletes the segments that end
+ * before the oldest record still needed, without copying the others.
+ * <p>
+ * A segment is named after the log file, with the position of its first byte
+ * in hexadecimal appended, e.g. {@code log.0000000000400000}. A new segment
+ * starts when a write reaches the end of the last one.
+ * <p>
+ * Reads go through a small cache of blocks of the log, as rollback and
+ * recovery read records one field at a time, walking backward through a
+ * transaction's records as well as forward.
+ * <p>
+ * Not thread-safe: LogFile calls it holding the log, except to force the
+ * channels returned by {@link #toForce}.
+ */
+class LogSegments {
+    // bytes read from a segment at once, and how many such blocks are kept
+    private static final int BLOCK_SIZE = 1 << 15;
+    private static final int CACHED_BLOCKS = 16;
+
+    private final File logFile;
+    private long segmentSize;
+    // the open segments, by the position of their first byte
+    private final TreeMap<Long, RandomAccessFile> segments = new TreeMap<>();
+    // the position just past the last byte written
+    private long end;
+    // segments that filled up and may not be on disk; the last segment is
+    // forced every time, as it is the one being written
+    private final Set<FileChannel> unforced = ConcurrentHashMap.newKeySet();
+
+    // the most recently read blocks, by position, least recently used first;
+    // a block at the end of the log may be short
+    private final Map<Long, byte[]> blocks =
+            new LinkedHashMap<Long, byte[]>(CACHED_BLOCKS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > CACHED_BLOCKS;
+                }
+            };
+
+    /**
+     * Opens the segments of the specified log file that exist.
+     *
+     * @param segmentSize the size of the segments to create
+     */
+    LogSegments(File logFile, long segmentSize) throws IOException {
+        this.logFile = logFile;
+        this.segmentSize = segmentSize;
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        String prefix = logFile.getName() + ".";
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.startsWith(prefix) && name.length() == prefix.length() + 16) {
+                    try {
+                        long base = Long.parseUnsignedLong(name.substring(prefix.length()), 16);
+                        segments.put(base, new RandomAccessFile(f, "rw"));
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            end = segments.lastKey() + segments.lastEntry().getValue().length();
+        }
+    }
+
+    private File file(long base) {
+        return new File(logFile.getPath() + String.format(".%016x", base));
+    }
+
+    void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the position of the first byte kept
+     */
+    long getStart() {
+        return segments.isEmpty() ? end : segments.firstKey();
+    }
+
+    /**
+     * @return the position just past the last byte written
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the files of the segments, oldest first
+     */
+    List<File> getFiles() {
+        List<File> files = new ArrayList<>();
+        for (long base : segments.keySet()) {
+            files.add(file(base));
+        }
+        return files;
+    }
+
+    /**
+     * Writes bytes at the end of the log, starting segments as they fill up.
+     *
+     * @param position the end of the log
+     */
+    void write(long position, byte[] b, int off, int len) throws IOException {
+        if (position != end) {
+            throw new IOException("log written at " + position + ", not at its end " + end);
+        }
+        while (len > 0) {
+            Map.Entry<Long, RandomAccessFile> last = segments.lastEntry();
+            if (last == null || position >= last.getKey() + segmentSize) {
+                if (last != null) {
+                    unforced.add(last.getValue().getChannel());
+                }
+                long base = position;
+                RandomAccessFile raf = new RandomAccessFile(file(base), "rw");
+                raf.setLength(0);
+                segments.put(base, raf);
+                last = segments.lastEntry();
+            }
+            RandomAccessFile raf = last.getValue();
+            int n = (int) Math.min(len, last.getKey() + segmentSize - position);
+            raf.seek(position - last.getKey());
+            raf.write(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+        end = position;
+        // a cached block at the old end is short
+        blocks.values().removeIf(block -> block.length < BLOCK_SIZE);
+    }
+
+    private static long blockOf(long position) {
+        return position - Math.floorMod(position, (long) BLOCK_SIZE);
+    }
+
+    /**
+     * Reads bytes of the log.
+     *
+     * @return the number of bytes read, at most len, or -1 at the end of the log
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        if (position < getStart()) {
+            throw new IOException("log position " + position + " was truncated");
+        }
+        long base = blockOf(position);
+        byte[] block = blocks.get(base);
+        if (block == null) {
+            block = readBlock(base);
+            blocks.put(base, block);
+        }
+        int n = Math.min(len, block.length - (int) (position - base));
+        if (n <= 0) {
+            return -1;
+        }
+        System.arraycopy(block, (int) (position - base), b, off, n);
+        return n;
+    }
+
+    // reads the block of the log at the specified position, across segments
+    private byte[] readBlock(long base) throws IOException {
+        long from = Math.max(base, getStart());
+        byte[] block = new byte[(int) (Math.min(base + BLOCK_SIZE, end) - base)];
+        while (from < base + block.length) {
+            Map.Entry<Long, RandomAccessFile> segment = segments.floorEntry(from);
+            RandomAccessFile raf = segment.getValue();
+            long inSegment = from - segment.getKey();
+            int n = (int) Math.min(base + block.length - from, raf.length() - inSegment);
+            if (n <= 0) {
+                throw new IOException("log segment at " + segment.getKey() + " ends early");
+            }
+            raf.seek(inSegment);
+            raf.readFully(block, (int) (from - base), n);
+            from += n;
+        }
+        return block;
+    }
+
+    /**
+     * @return the channels of the segments that may not be on disk, to be
+     *         passed to {@link #force}
+     */
+    List<FileChannel> toForce() {
+        List<FileChannel> channels = new ArrayList<>(unforced);
+        if (!segments.isEmpty()) {
+            channels.add(segments.lastEntry().getValue().getChannel());
+        }
+        return channels;
+    }
+
+    /**
+     * Forces the specified segments to disk. Does not need the log held; a
+     * segment dropped meanwhile is skipped.
+     */
+    void force(List<FileChannel> channels) throws IOException {
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(true);
+            } catch (ClosedChannelException e) {
+                if (channel.isOpen()) {
+                    throw e;
+                }
+                // dropped, or the log was closed
+            }
+        }
+        // filled segments are not written again
+        unforced.removeAll(channels);
+    }
+
+    /**
+     * Deletes the segments that end at or before the specified position. The
+     * last segment is kept.
+     *
+     * @return the number of bytes dropped
+     */
+    long dropBefore(long position) throws IOException {
+        long dropped = 0;
+        while (segments.size() > 1) {
+            Map.Entry<Long, RandomAccessFile> first = segments.firstEntry();
+            long next = segments.higherKey(first.getKey());
+            if (next > position) {
+                break;
+            }
+            remove(first.getKey());
+            dropped += next - first.getKey();
+        }
+        blocks.keySet().removeIf(b -> b + BLOCK_SIZE <= getStart());
+        return dropped;
+    }
+
+    private void remove(long base) throws IOException {
+        RandomAccessFile raf = segments.remove(base);
+        unforced.remove(raf.getChannel());
+        raf.close();
+        file(base).delete();
+    }
+
+    /**
+     * Deletes every segment, and continues the log at the specified position.
+     */
+    void reset(long position) throws IOException {
+        while (!segments.isEmpty()) {
+            remove(segments.firstKey());
+        }
+        blocks.clear();
+        end = position;
+    }
+
+    void close() throws IOException {
+        for (RandomAccessFile raf : segments.values()) {
+            raf.close();
+        }
+        segments.clear();
+        unforced.clear();
+        blocks.clear();
+    }
+}
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -9,7 +11,7 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  * <p>
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  * Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -35,6 +37,15 @@ public interface Page {
      */
     void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * @return true if the specified transaction has changes to this page that
+     *         it has not committed or rolled back; a page that transactions
+     *         change row by row may have several
+     */
+    default boolean isDirtiedBy(TransactionId tid) {
+        return tid.equals(isDirty());
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -48,6 +59,17 @@ public interface Page {
 
     byte[] getPageData();
 
+    /**
+     * Writes the same bytes as {@link #getPageData()} at the current position
+     * of the specified buffer, advancing it by the page size. Lets callers
+     * serialize pages into a buffer they reuse instead of a fresh array.
+     *
+     * @param buf the buffer to write to, with at least a page of room left
+     */
+    default void writePageData(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
@@ -0,0 +1,252 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PageChannel is the page I/O layer shared by the DbFile implementations. It
+ * keeps one long-lived {@link FileChannel} per backing file and moves whole
+ * pages with positional reads and writes, so a buffer pool miss costs a single
+ * pread instead of opening the file and reading it byte by byte.
+ * <p>
+ * Positional I/O does not touch the channel position, so concurrent readers and
+ * writers of different pages do not need to coordinate. Each thread stages its
+ * transfers through its own reusable direct buffer.
+ * <p>
+ * Files that fit in a single mapping can also be read through a read-only
+ * memory map of the whole file (see {@link #slice}), which serves page reads
+ * straight from the OS page cache without a read syscall.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    private final File f;
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer mapping;
+    // set once the file is too large to be mapped in one piece, so that reads
+    // stop trying until the channel is closed
+    private volatile boolean unmappable;
+
+    private static final ThreadLocal<ByteBuffer> stage = new ThreadLocal<>();
+
+    /**
+     * Creates a page channel over the specified file. The file is opened lazily
+     * on the first read or write, and created if it does not exist yet.
+     *
+     * @param f the file to read and write pages of
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * @return the file this channel reads and writes
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return the open channel of the backing file
+     */
+    public FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    private static ByteBuffer stage(int len) {
+        ByteBuffer buf = stage.get();
+        if (buf == null || buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(Math.max(len, BufferPool.getPageSize()));
+            stage.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    /**
+     * Reads len bytes starting at the specified offset of the file. A page
+     * that the file ends within, e.g. one cut short by a crash, reads as if
+     * padded with zeros.
+     *
+     * @param offset the file offset the page starts at
+     * @param len    the size of the page
+     * @return a fresh array holding the page bytes
+     * @throws EOFException if the file ends at or before offset
+     */
+    public byte[] read(long offset, int len) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = stage(len);
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                if (pos == offset) {
+                    throw new EOFException("read past end of " + f + " at offset " + pos);
+                }
+                break;
+            }
+            pos += n;
+        }
+        buf.flip();
+        byte[] data = new byte[len];
+        buf.get(data, 0, buf.remaining());
+        return data;
+    }
+
+    /**
+     * Writes the whole array at the specified offset of the file, extending
+     * the file if needed.
+     *
+     * @param offset the file offset the page starts at
+     * @param data   the page bytes
+     */
+    public void write(long offset, byte[] data) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = stage(data.length);
+        buf.put(data);
+        buf.flip();
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    /**
+     * Serializes a page straight into this thread's staging buffer (see
+     * {@link Page#writePageData}) and writes it at the specified offset of the
+     * file, without building an intermediate array.
+     *
+     * @param offset the file offset the page starts at
+     * @param page   the page to write
+     */
+    public void write(long offset, Page page) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = stage(BufferPool.getPageSize());
+        page.writePageData(buf);
+        buf.flip();
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    /**
+     * Writes len zero bytes at the current position of the specified buffer,
+     * advancing it. Used by pages to fill empty slots and padding when they
+     * serialize themselves into a buffer that may hold older contents.
+     */
+    public static void putZeroes(ByteBuffer buf, int len) {
+        for (; len >= 8; len -= 8) {
+            buf.putLong(0L);
+        }
+        for (; len > 0; --len) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /**
+     * Returns a read-only view of len bytes starting at the specified offset of
+     * the memory-mapped file. The file is mapped on first use and remapped when
+     * the requested range lies past the end of the current mapping, i.e. after
+     * the file grew. Writes through {@link #write} are visible in the mapping.
+     *
+     * @param offset the file offset the page starts at
+     * @param len    the size of the page
+     * @return a view of the mapped page, or null if the file is too large to be
+     *         mapped in one piece or ends within the page; {@link #read}
+     *         serves those reads instead
+     * @throws EOFException if the file ends at or before offset
+     */
+    public ByteBuffer slice(long offset, int len) throws IOException {
+        if (unmappable) {
+            return null;
+        }
+        MappedByteBuffer m = mapping;
+        if (m == null || offset + len > m.capacity()) {
+            m = remap();
+            if (m == null) {
+                return null;
+            }
+            if (offset >= m.capacity()) {
+                throw new EOFException("read past end of " + f + " at offset " + offset);
+            }
+            if (offset + len > m.capacity()) {
+                return null;
+            }
+        }
+        ByteBuffer view = m.duplicate();
+        view.position((int) offset);
+        view.limit((int) offset + len);
+        return view.slice();
+    }
+
+    /**
+     * Maps the whole file as it is now, replacing the previous mapping. Views
+     * handed out from the previous mapping stay valid.
+     *
+     * @return the new mapping, or null if the file is too large to be mapped in
+     *         one piece
+     */
+    public synchronized MappedByteBuffer remap() throws IOException {
+        if (unmappable) {
+            return null;
+        }
+        long size = size();
+        if (size > Integer.MAX_VALUE) {
+            // files do not shrink, so it stays too large
+            mapping = null;
+            unmappable = true;
+            return null;
+        }
+        MappedByteBuffer m = mapping;
+        if (m == null || m.capacity() != size) {
+            m = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapping = m;
+        }
+        return m;
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /**
+     * Forces all written pages to the storage device.
+     */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Closes the underlying channel. A later read or write reopens it.
+     */
+    public synchronized void close() throws IOException {
+        mapping = null;
+        unmappable = false;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
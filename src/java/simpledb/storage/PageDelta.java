@@ -0,0 +1,246 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageDelta is the change to one page that an UPDATE record of a
+ * {@link LogFile} holds: the byte ranges where the after image of the page
+ * differs from its before image, with the bytes of both. So inserting or
+ * deleting a tuple logs the bytes of its slot and the header byte that marks
+ * the slot used, and a B+ tree split or merge the entries it moved, rather
+ * than two whole pages. Changes a few bytes apart are logged as one range,
+ * which is shorter than two.
+ * <p>
+ * The bytes of a range are those of the page, not a difference, so redoing
+ * or undoing a delta more than once leaves the page as doing it once.
+ * <p>
+ * A record names its page by a {@link PageTypes} code and the serialized page
+ * ID, and the format is:
+ * <ul>
+ * <li>a short page type code; for {@link PageTypes#UNKNOWN}, the names of the
+ * page and page ID classes follow
+ * <li>a byte count of the integers of the page ID, and the integers
+ * <li>an integer count of the ranges, and for each range its integer offset
+ * and integer length, its bytes in the before image and its bytes in the
+ * after image
+ * </ul>
+ */
+class PageDelta {
+    // changes at most this many bytes apart share a range: the bytes between
+    // them, logged twice, cost no more than the offset and length of a range
+    private static final int MERGE_GAP = 4;
+
+    // the images of a page being logged, reused for the next
+    private static final ThreadLocal<ByteBuffer[]> images =
+            ThreadLocal.withInitial(() -> new ByteBuffer[] { ByteBuffer.allocate(0),
+                    ByteBuffer.allocate(0) });
+
+    private final PageTypes.Type type;
+    // the class names of a page of an unknown type, logged again on truncation
+    private final String pageClassName;
+    private final String idClassName;
+    private final PageId pid;
+    // range i starts at offsets[i] of the page; its bytes follow those of the
+    // ranges before it in before and after
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] before;
+    private final byte[] after;
+
+    private PageDelta(PageTypes.Type type, String pageClassName, String idClassName,
+            PageId pid, int[] offsets, int[] lengths, byte[] before, byte[] after) {
+        this.type = type;
+        this.pageClassName = pageClassName;
+        this.idClassName = idClassName;
+        this.pid = pid;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.before = before;
+        this.after = after;
+    }
+
+    PageId getPageId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of bytes of the page the delta changes
+     */
+    int size() {
+        return before.length;
+    }
+
+    int getRanges() {
+        return offsets.length;
+    }
+
+    // serializes the page into the calling thread's buffer of the specified index
+    private static ByteBuffer image(Page p, int index) {
+        ByteBuffer[] buffers = images.get();
+        if (buffers[index].capacity() < BufferPool.getPageSize()) {
+            buffers[index] = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+        ByteBuffer buffer = buffers[index];
+        buffer.clear();
+        p.writePageData(buffer);
+        return buffer;
+    }
+
+    private static void writeHeader(DataOutput out, int code, String pageClassName,
+            String idClassName, PageId pid) throws IOException {
+        out.writeShort(code);
+        if (code == PageTypes.UNKNOWN) {
+            out.writeUTF(pageClassName);
+            out.writeUTF(idClassName);
+        }
+        int[] pageInfo = pid.serialize();
+        out.writeByte(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+    }
+
+    /**
+     * Writes the delta between two images of a page.
+     */
+    static void write(DataOutput out, Page beforeImage, Page afterImage) throws IOException {
+        ByteBuffer b = image(beforeImage, 0);
+        ByteBuffer a = image(afterImage, 1);
+        if (b.position() != a.position()) {
+            throw new IllegalArgumentException("images of " + afterImage.getId()
+                    + " differ in size");
+        }
+        byte[] old = b.array();
+        byte[] now = a.array();
+        int n = a.position();
+
+        // ranges as offset, length pairs
+        int[] ranges = new int[16];
+        int count = 0;
+        int i = 0;
+        while (i < n) {
+            if (old[i] == now[i]) {
+                ++i;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (i = end; i < n && i - end < MERGE_GAP; ++i) {
+                if (old[i] != now[i]) {
+                    end = i + 1;
+                }
+            }
+            if (2 * count + 2 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+            }
+            ranges[2 * count] = start;
+            ranges[2 * count + 1] = end - start;
+            ++count;
+            i = end;
+        }
+
+        writeHeader(out, PageTypes.codeOf(afterImage), afterImage.getClass().getName(),
+                afterImage.getId().getClass().getName(), afterImage.getId());
+        out.writeInt(count);
+        for (int r = 0; r < count; ++r) {
+            int offset = ranges[2 * r];
+            int length = ranges[2 * r + 1];
+            out.writeInt(offset);
+            out.writeInt(length);
+            out.write(old, offset, length);
+            out.write(now, offset, length);
+        }
+    }
+
+    /**
+     * Writes this delta again, as it was read.
+     */
+    void write(DataOutput out) throws IOException {
+        writeHeader(out, type.code, pageClassName, idClassName, pid);
+        out.writeInt(offsets.length);
+        for (int r = 0, position = 0; r < offsets.length; position += lengths[r++]) {
+            out.writeInt(offsets[r]);
+            out.writeInt(lengths[r]);
+            out.write(before, position, lengths[r]);
+            out.write(after, position, lengths[r]);
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        int code = in.readShort();
+        String pageClassName = null;
+        String idClassName = null;
+        PageTypes.Type type;
+        if (code == PageTypes.UNKNOWN) {
+            pageClassName = in.readUTF();
+            idClassName = in.readUTF();
+            type = PageTypes.forNames(pageClassName, idClassName);
+        } else {
+            type = PageTypes.forCode(code);
+        }
+        int[] pageInfo = new int[in.readByte()];
+        for (int i = 0; i < pageInfo.length; ++i) {
+            pageInfo[i] = in.readInt();
+        }
+        PageId pid = type.ids.create(pageInfo);
+
+        int count = in.readInt();
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        byte[][] olds = new byte[count][];
+        byte[][] news = new byte[count][];
+        int total = 0;
+        for (int r = 0; r < count; ++r) {
+            offsets[r] = in.readInt();
+            lengths[r] = in.readInt();
+            olds[r] = new byte[lengths[r]];
+            in.readFully(olds[r]);
+            news[r] = new byte[lengths[r]];
+            in.readFully(news[r]);
+            total += lengths[r];
+        }
+        byte[] before = new byte[total];
+        byte[] after = new byte[total];
+        for (int r = 0, position = 0; r < count; position += lengths[r++]) {
+            System.arraycopy(olds[r], 0, before, position, lengths[r]);
+            System.arraycopy(news[r], 0, after, position, lengths[r]);
+        }
+        return new PageDelta(type, pageClassName, idClassName, pid, offsets, lengths, before,
+                after);
+    }
+
+    /**
+     * Redoes or undoes the delta on a copy of the page.
+     *
+     * @param page the page as it is now
+     * @param redo true to put in the bytes of the after image, false for those
+     *             of the before image
+     * @return the changed page
+     */
+    Page apply(Page page, boolean redo) throws IOException {
+        byte[] data = page.getPageData();
+        applyTo(data, redo);
+        return toPage(data);
+    }
+
+    /**
+     * Redoes or undoes the delta on the bytes of the page.
+     */
+    void applyTo(byte[] data, boolean redo) {
+        byte[] bytes = redo ? after : before;
+        for (int r = 0, position = 0; r < offsets.length; position += lengths[r++]) {
+            System.arraycopy(bytes, position, data, offsets[r], lengths[r]);
+        }
+    }
+
+    /**
+     * @return the page of the delta with the specified bytes
+     */
+    Page toPage(byte[] data) throws IOException {
+        return type.pages.create(pid, data);
+    }
+}
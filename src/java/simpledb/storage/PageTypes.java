@@ -0,0 +1,153 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageTypes numbers the kinds of pages that log records refer to, so that a
+ * record names the class of its page in two bytes rather than by the names of
+ * the page and page ID classes, and pages and IDs are built back from a record
+ * without reflection. A page class that is not numbered here is logged with
+ * the {@link #UNKNOWN} code followed by both class names, and built through
+ * the constructors {@link Page} asks for.
+ */
+class PageTypes {
+
+    /**
+     * The code of a page class that is not numbered here.
+     */
+    static final int UNKNOWN = 0;
+
+    interface IdFactory {
+        PageId create(int[] data) throws IOException;
+    }
+
+    interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    /**
+     * A kind of page: how to build its IDs and its pages.
+     */
+    static class Type {
+        final int code;
+        final IdFactory ids;
+        final PageFactory pages;
+
+        Type(int code, IdFactory ids, PageFactory pages) {
+            this.code = code;
+            this.ids = ids;
+            this.pages = pages;
+        }
+    }
+
+    private static final Map<Class<?>, Type> byClass = new HashMap<>();
+    private static final Map<Integer, Type> byCode = new HashMap<>();
+    // the unknown types read so far, by class names
+    private static final Map<String, Type> byNames = new ConcurrentHashMap<>();
+
+    private static void add(int code, Class<? extends Page> pageClass, IdFactory ids,
+            PageFactory pages) {
+        Type type = new Type(code, ids, pages);
+        byClass.put(pageClass, type);
+        byCode.put(code, type);
+    }
+
+    // the key field of the B+ tree the page belongs to
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    static {
+        IdFactory heapIds = d -> new HeapPageId(d[0], d[1]);
+        IdFactory btreeIds = d -> new BTreePageId(d[0], d[1], d[2]);
+        add(1, HeapPage.class, heapIds, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        add(2, SlottedPage.class, heapIds, (pid, data) -> new SlottedPage((HeapPageId) pid, data));
+        add(3, ColumnPage.class, d -> new ColumnPageId(d[0], d[1], d[2]),
+                (pid, data) -> new ColumnPage((ColumnPageId) pid, data));
+        add(4, BTreeRootPtrPage.class, btreeIds,
+                (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+        add(5, BTreeInternalPage.class, btreeIds,
+                (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+        add(6, BTreeLeafPage.class, btreeIds,
+                (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+        add(7, BTreeHeaderPage.class, btreeIds,
+                (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+    }
+
+    /**
+     * @return the code of the class of the page, or {@link #UNKNOWN}
+     */
+    static int codeOf(Page page) {
+        Type type = byClass.get(page.getClass());
+        return type == null ? UNKNOWN : type.code;
+    }
+
+    /**
+     * @return the kind of page with the specified code, which is not
+     *         {@link #UNKNOWN}
+     */
+    static Type forCode(int code) throws IOException {
+        Type type = byCode.get(code);
+        if (type == null) {
+            throw new IOException("unknown page type " + code + " in log");
+        }
+        return type;
+    }
+
+    /**
+     * @return the kind of page an {@link #UNKNOWN} code stands for, from the
+     *         names of its classes; its constructors are looked up once
+     */
+    static Type forNames(String pageClassName, String idClassName) throws IOException {
+        String names = pageClassName + " " + idClassName;
+        Type type = byNames.get(names);
+        if (type == null) {
+            type = lookUp(pageClassName, idClassName);
+            byNames.put(names, type);
+        }
+        return type;
+    }
+
+    private static Type lookUp(String pageClassName, String idClassName) throws IOException {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Class<?> pageClass = Class.forName(pageClassName);
+            Constructor<?> idConst = idClass.getDeclaredConstructors()[0];
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
+            return new Type(UNKNOWN, d -> {
+                Object[] idArgs = new Object[d.length];
+                for (int i = 0; i < d.length; i++) {
+                    idArgs[i] = d[i];
+                }
+                try {
+                    return (PageId) idConst.newInstance(idArgs);
+                } catch (InvocationTargetException | IllegalAccessException
+                        | InstantiationException e) {
+                    throw new IOException(e);
+                }
+            }, (pid, data) -> {
+                try {
+                    return (Page) pageConst.newInstance(pid, data);
+                } catch (InvocationTargetException | IllegalAccessException
+                        | InstantiationException e) {
+                    throw new IOException(e);
+                }
+            });
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * ReadAhead is used by file iterators to fetch their pages. Once it sees the
+ * iterator read pages in order, i.e. each page is the successor of the one
+ * before, it loads the next pages into the buffer pool on a background thread
+ * (see {@link BufferPool#prefetchPage}), so a scan of a table that is not
+ * cached processes one page while the following ones are read.
+ * <p>
+ * The number of pages read ahead adapts to how useful they turn out to be. A
+ * prefetched page that is still in the buffer pool when the iterator gets to it
+ * doubles the window; one that was evicted before it was used halves it. The
+ * window is never larger than a quarter of the buffer pool.
+ * <p>
+ * Reading ahead only pays off when reading a page takes long enough to be worth
+ * hiding. Pages that come from the OS page cache in a few microseconds cost
+ * less to read in the foreground than to hand to another thread, so ReadAhead
+ * keeps a running average of how long page reads take, sampled from the
+ * iterator's misses and from its own reads, and stays idle while it is below
+ * {@link #MIN_STALL_NANOS}.
+ * <p>
+ * Pages are still fetched with {@link BufferPool#getPage}, so the iterator
+ * locks each page it reads as before; prefetched pages are not locked. An
+ * iterator that reads a large file can pass a {@link BufferRing}, which both
+ * its own reads and the pages read ahead go through; the window then stays
+ * within half of the ring, so pages read ahead are not recycled before use.
+ * <p>
+ * A ReadAhead serves one iterator and is not thread-safe.
+ */
+public class ReadAhead {
+    /**
+     * The read-ahead window file iterators use by default, in pages.
+     */
+    public static final int DEFAULT_MAX_WINDOW = 64;
+
+    /**
+     * Reads faster than this on average are not read ahead, in nanoseconds.
+     */
+    public static final long MIN_STALL_NANOS = 50_000;
+
+    private static final int MIN_WINDOW = 2;
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Function<Page, PageId> successor;
+    private final int maxWindow;
+    private int window = MIN_WINDOW;
+    private volatile BufferRing ring;
+
+    // the page that continues the current sequential run, and its length
+    private PageId expected;
+    private int run;
+
+    // pages read ahead that the iterator has not got to yet
+    private final Set<PageId> requested = ConcurrentHashMap.newKeySet();
+    // the last page read ahead, where the next batch continues
+    private volatile Page tail;
+    // the last batch started or queued
+    private CompletableFuture<Void> task;
+    // set while a batch waits for the running one to finish
+    private volatile boolean queued;
+    // running average of page read times, -1 until the first read
+    private volatile long readNanos = -1;
+    // bumped by reset, so a batch started before stops early
+    private volatile int generation;
+
+    /**
+     * @param successor returns the id of the page an in-order scan reads after
+     *                  the specified page, or null after the last page
+     * @param maxWindow the most pages to read ahead of the iterator
+     */
+    public ReadAhead(Function<Page, PageId> successor, int maxWindow) {
+        this.successor = successor;
+        this.maxWindow = maxWindow;
+    }
+
+    /**
+     * Makes the pages fetched from now on go through the specified ring.
+     *
+     * @param ring the ring of the scan, or null to use the buffer pool as usual
+     * @see BufferPool#bulkReadRing
+     */
+    public void setRing(BufferRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * @return the number of pages currently read ahead of a sequential scan
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Fetches a page through the buffer pool, as
+     * {@link BufferPool#getPage(TransactionId, PageId, Permissions)} does, and
+     * starts reading the following pages if the scan is sequential.
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        BufferPool pool = Database.getBufferPool();
+        BufferRing ring = this.ring;
+        int limit = Math.min(maxWindow, pool.getNumPages() / 4);
+        if (ring != null) {
+            limit = Math.min(limit, ring.getCapacity() / 2);
+        }
+        if (pid.equals(expected)) {
+            ++run;
+        } else {
+            reset();
+            run = 1;
+        }
+        boolean wanted = requested.remove(pid);
+        boolean buffered = pool.isBuffered(pid);
+        long start = System.nanoTime();
+        Page page = pool.getPage(tid, pid, perm, ring);
+        if (!buffered) {
+            sample(System.nanoTime() - start);
+        }
+        if (wanted) {
+            window = buffered ? Math.min(window * 2, limit) : Math.max(window / 2, MIN_WINDOW);
+        } else {
+            // the scan overtook the read-ahead, what it requested is behind
+            requested.clear();
+        }
+        expected = successor.apply(page);
+        if (run >= 2 && expected != null && limit >= MIN_WINDOW && readNanos >= MIN_STALL_NANOS
+                && requested.size() <= window / 2 && !queued) {
+            int want = Math.min(window, limit);
+            int gen = generation;
+            Page current = page;
+            Runnable batch = () -> {
+                queued = false;
+                // continue after the pages already read ahead, unless the scan
+                // has caught up with them
+                Page from = requested.isEmpty() || tail == null ? current : tail;
+                prefetch(pool, ring, from, want - requested.size(), gen);
+            };
+            if (task == null || task.isDone()) {
+                task = CompletableFuture.runAsync(batch, executor);
+            } else {
+                // after the running batch, which may stop short of what is
+                // wanted now; the scan may not fetch again until it has
+                queued = true;
+                task = task.exceptionally(e -> null).thenRunAsync(batch, executor);
+            }
+        }
+        return page;
+    }
+
+    private void prefetch(BufferPool pool, BufferRing ring, Page from, int count, int gen) {
+        Page p = from;
+        for (int i = 0; i < count && gen == generation; ++i) {
+            PageId next = successor.apply(p);
+            if (next == null) {
+                return;
+            }
+            requested.add(next);
+            long start = System.nanoTime();
+            p = pool.prefetchPage(next, ring);
+            sample(System.nanoTime() - start);
+            if (p == null) {
+                requested.remove(next);
+                return;
+            }
+            tail = p;
+        }
+    }
+
+    private void sample(long nanos) {
+        long avg = readNanos;
+        readNanos = avg < 0 ? nanos : (3 * avg + nanos) / 4;
+    }
+
+    /**
+     * Forgets the current sequential run, e.g. when the iterator is rewound.
+     * Pages already read ahead stay in the buffer pool.
+     */
+    public void reset() {
+        ++generation;
+        expected = null;
+        run = 0;
+        requested.clear();
+        tail = null;
+    }
+}
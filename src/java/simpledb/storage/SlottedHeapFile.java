@@ -0,0 +1,220 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SlottedHeapFile is a DbFile that, like HeapFile, stores an unordered
+ * collection of tuples, but on {@link SlottedPage}s, which store strings at
+ * their actual length. Tables with mostly short strings need several times
+ * fewer pages than in a HeapFile. A table is stored this way when its line in
+ * the catalog file ends with <code>slotted</code> (see
+ * {@link simpledb.common.Catalog#loadSchema}).
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile implements DbFile {
+    private final File f;
+    private final TupleDesc td;
+    private final PageChannel io;
+    // a page is marked full once it could not take a tuple, see insertTuple
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.io = new PageChannel(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private long getOffset(PageId pid) {
+        return (long) pid.getPageNumber() * BufferPool.getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return new SlottedPage((HeapPageId) pid, io.read(getOffset(pid), BufferPool.getPageSize()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write(getOffset(page.getId()), page);
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    @Override
+    public int numPages() {
+        return (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    private synchronized int appendEmptyPage(int pageNo) throws IOException {
+        int n = numPages();
+        if (pageNo < n) {
+            return pageNo;
+        }
+        io.write((long) n * BufferPool.getPageSize(), SlottedPage.createEmptyPageData());
+        freeSpace.markFree(n);
+        return n;
+    }
+
+    private SlottedPage getPageFromBuffer(TransactionId tid, int id, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (SlottedPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), id), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!SlottedPage.fitsEmptyPage(SlottedPage.getRecordSize(t))) {
+            throw new DbException("tuple " + t + " does not fit on a page");
+        }
+        // as in HeapFile, a candidate page that has no room for t is unlocked
+        // again unless tid already held it. Since records vary in size it is
+        // marked full even if shorter tuples would still fit; a delete from it
+        // makes it a candidate again.
+        BufferPool pool = Database.getBufferPool();
+        int pageNo = freeSpace.nextCandidate(0);
+        while (true) {
+            if (pageNo >= numPages()) {
+                pageNo = appendEmptyPage(pageNo);
+            }
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            boolean held = pool.holdsLock(tid, pid);
+            SlottedPage page = getPageFromBuffer(tid, pageNo, Permissions.READ_WRITE);
+            if (page.canInsert(t)) {
+                page.insertTuple(t);
+                return Arrays.asList(new Page[] { page });
+            }
+            freeSpace.markFull(pageNo);
+            if (!held) {
+                pool.unsafeReleasePage(tid, pid);
+            }
+            pageNo = freeSpace.nextCandidate(pageNo + 1);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void pageRolledBack(PageId pid) {
+        // the page may have room again if an insert filled it
+        freeSpace.markFree(pid.getPageNumber());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        SlottedPage page = getPageFromBuffer(tid, getPageNumber(t), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        freeSpace.markFree(page.getId().getPageNumber());
+        return Arrays.asList(new Page[] { page });
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        Map<Integer, List<Tuple>> byPage = new TreeMap<>();
+        for (Tuple t : tuples) {
+            byPage.computeIfAbsent(getPageNumber(t), k -> new ArrayList<>()).add(t);
+        }
+        List<Page> dirtypages = new ArrayList<>(byPage.size());
+        for (Map.Entry<Integer, List<Tuple>> pr : byPage.entrySet()) {
+            SlottedPage page = getPageFromBuffer(tid, pr.getKey(), Permissions.READ_WRITE);
+            for (Tuple t : pr.getValue()) {
+                page.deleteTuple(t);
+            }
+            freeSpace.markFree(pr.getKey());
+            dirtypages.add(page);
+        }
+        return dirtypages;
+    }
+
+    private int getPageNumber(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().getPageNumber() >= numPages()) {
+            throw new DbException("file " + getId() + " not exist tuple " + t);
+        }
+        return rid.getPageId().getPageNumber();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            private int nextPageNo = -1;
+            private Iterator<Tuple> it;
+
+            @Override
+            public void open() {
+                nextPageNo = 0;
+                it = null;
+            }
+
+            @Override
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                nextPageNo = -1;
+                it = null;
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (nextPageNo < 0) {
+                    return null;
+                }
+                while (it == null || !it.hasNext()) {
+                    if (nextPageNo >= numPages()) {
+                        return null;
+                    }
+                    it = getPageFromBuffer(tid, nextPageNo++, Permissions.READ_ONLY).iterator();
+                }
+                return it.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,384 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage is a page of a SlottedHeapFile. Unlike HeapPage, whose slots are
+ * all {@link TupleDesc#getSize()} bytes wide, it stores each tuple at its actual
+ * length: a string field takes a two byte length and its characters instead of
+ * {@link Type#STRING_LEN} + 4 bytes, so tables with short strings fit many more
+ * tuples per page.
+ * <p>
+ * The page starts with a header of two unsigned shorts, the number of slots and
+ * the offset where the record area begins, followed by the slot directory. Each
+ * slot is an unsigned short offset and length of its record; an offset of 0
+ * marks an empty slot. The directory grows from the front of the page and the
+ * records are packed against its end, so the free space is the gap between
+ * them. An all-zero page is an empty page.
+ * <p>
+ * Slot numbers never change while a tuple is stored, so RecordIds stay valid.
+ * Deleting a record moves the records in front of it up to close the gap,
+ * keeping the free space contiguous. Pages must be smaller than 64KB.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page image; inserts and deletes update it in place
+    private final byte[] data;
+    private int numSlots;
+    private int recordStart;
+
+    // null while data is unchanged since the before image was taken
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile TransactionId dirtyTid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The page
+     * keeps the array and modifies it in place.
+     *
+     * @param id   the id of this page
+     * @param data the raw data of this page, of length
+     *             {@link BufferPool#getPageSize()}
+     * @throws IOException if the page header is corrupt
+     * @see Catalog#getTupleDesc
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length != BufferPool.getPageSize() || data.length > 0xffff) {
+            throw new IOException("bad slotted page size " + data.length);
+        }
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        this.numSlots = getShort(0);
+        this.recordStart = getShort(2);
+        if (recordStart == 0) {
+            recordStart = data.length;
+        }
+        if (recordStart < getDirectoryEnd() || recordStart > data.length) {
+            throw new IOException("corrupt slotted page " + id.getPageNumber());
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes the specified tuple takes on a page, not
+     *         counting its slot
+     */
+    public static int getRecordSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); ++i) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(),
+                        Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return true if a record of the specified size fits on an empty page
+     */
+    public static boolean fitsEmptyPage(int recordSize) {
+        return HEADER_SIZE + SLOT_SIZE + recordSize <= BufferPool.getPageSize();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int getShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int v) {
+        data[off] = (byte) (v >>> 8);
+        data[off + 1] = (byte) v;
+    }
+
+    private int getDirectoryEnd() {
+        return HEADER_SIZE + numSlots * SLOT_SIZE;
+    }
+
+    private int getSlotOffset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int getSlotLength(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    private void writeHeader() {
+        putShort(0, numSlots);
+        putShort(2, recordStart == data.length ? 0 : recordStart);
+    }
+
+    /**
+     * @return the number of slots in the directory, used or not
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && getSlotOffset(i) != 0;
+    }
+
+    /**
+     * @return the number of contiguous free bytes between the slot directory and
+     *         the records
+     */
+    public int getFreeSpace() {
+        return recordStart - getDirectoryEnd();
+    }
+
+    private int findFreeSlot() {
+        for (int i = 0; i < numSlots; ++i) {
+            if (getSlotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    /**
+     * @return true if the specified tuple can be inserted into this page
+     */
+    public boolean canInsert(Tuple t) {
+        int need = getRecordSize(t) + (findFreeSlot() == numSlots ? SLOT_SIZE : 0);
+        return need <= getFreeSpace();
+    }
+
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to reflect
+     * that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the page does not have room for the tuple or
+     *                     tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (t.getTupleDesc().numFields() != td.numFields()) {
+            throw new DbException("type mismatch, in insertTuple");
+        }
+        for (int i = 0; i < td.numFields(); ++i) {
+            if (t.getField(i).getType() != td.getFieldType(i)) {
+                throw new DbException("type mismatch, in insertTuple");
+            }
+        }
+        if (!canInsert(t)) {
+            throw new DbException("page " + pid.getPageNumber() + " has no room for " + t);
+        }
+        beforeWrite();
+        int slot = findFreeSlot();
+        if (slot == numSlots) {
+            ++numSlots;
+        }
+        int len = getRecordSize(t);
+        recordStart -= len;
+        int off = recordStart;
+        for (int i = 0; i < td.numFields(); ++i) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int n = Math.min(s.length(), Type.STRING_LEN);
+                putShort(off, n);
+                off += 2;
+                // one byte per character, as StringField.serialize writes them
+                for (int j = 0; j < n; ++j) {
+                    data[off++] = (byte) s.charAt(j);
+                }
+            } else {
+                int v = ((IntField) f).getValue();
+                data[off++] = (byte) (v >>> 24);
+                data[off++] = (byte) (v >>> 16);
+                data[off++] = (byte) (v >>> 8);
+                data[off++] = (byte) v;
+            }
+        }
+        setSlot(slot, recordStart, len);
+        writeHeader();
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page, located by its RecordId. The
+     * records stored in front of it are moved up so the free space stays
+     * contiguous.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("page " + pid.getPageNumber() + " not exist tuple " + t);
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid.getPageNumber()
+                    + " already empty");
+        }
+        beforeWrite();
+        int off = getSlotOffset(slot);
+        int len = getSlotLength(slot);
+        // compact: shift the records in [recordStart, off) up by len
+        System.arraycopy(data, recordStart, data, recordStart + len, off - recordStart);
+        for (int i = 0; i < numSlots; ++i) {
+            int o = getSlotOffset(i);
+            if (o != 0 && o < off) {
+                setSlot(i, o + len, getSlotLength(i));
+            }
+        }
+        Arrays.fill(data, recordStart, recordStart + len, (byte) 0);
+        recordStart += len;
+        setSlot(slot, 0, 0);
+        // drop trailing empty slots so their directory space can hold records
+        while (numSlots > 0 && getSlotOffset(numSlots - 1) == 0) {
+            --numSlots;
+        }
+        writeHeader();
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        int off = getSlotOffset(slot);
+        for (int i = 0; i < td.numFields(); ++i) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int n = getShort(off);
+                t.setField(i, new StringField(new String(data, off + 2, n), Type.STRING_LEN));
+                off += 2 + n;
+            } else {
+                t.setField(i, new IntField(((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                        | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff)));
+                off += 4;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page. Each tuple is decoded
+     *         when it is returned and is a copy: changing its fields does not
+     *         change the page.
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && !isSlotUsed(i)) {
+                    ++i;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                next = advance(next);
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readTuple(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void writePageData(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            beforeWrite();
+            dirtyTid = tid;
+        } else {
+            dirtyTid = null;
+        }
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        byte[] before;
+        synchronized (oldDataLock) {
+            before = oldData != null ? oldData.clone() : data.clone();
+        }
+        try {
+            return new SlottedPage(pid, before);
+        } catch (IOException e) {
+            // we parsed this image before
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -67,6 +68,22 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buf, in the same format as
+     * {@link #serialize(DataOutputStream)}.
+     */
+    public void serialize(ByteBuffer buf) {
+        int len = Math.min(value.length(), maxSize);
+        buf.putInt(len);
+        // one byte per character, as DataOutputStream.writeBytes does
+        for (int i = 0; i < len; ++i) {
+            buf.put((byte) value.charAt(i));
+        }
+        for (int i = len; i < maxSize; ++i) {
+            buf.put((byte) 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
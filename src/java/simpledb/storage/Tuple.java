@@ -1,8 +1,9 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-//import java.util.Arrays;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import simpledb.common.Type;
@@ -14,10 +15,29 @@ import simpledb.common.Type;
  */
 public class Tuple implements Serializable {
     private TupleDesc tupleDesc;
-    private ArrayList<Field> fields;
+    private Field[] fields;
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Decodes the fields of tuples that still live encoded on their page. Pages
+     * hand out tuples backed by a FieldSource so that a field is only turned
+     * into a Field object when someone reads it.
+     *
+     * @see HeapPage#iterator()
+     */
+    interface FieldSource {
+        /**
+         * @return field i of the tuple stored in the specified slot
+         */
+        Field decodeField(int slot, int i);
+    }
+
+    // fields that are still null are decoded from source on first access
+    private transient FieldSource source = null;
+    private transient int slot;
+    private transient boolean modified = false;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -27,16 +47,38 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // DONE: some code goes here
         tupleDesc = td;
-        fields = new ArrayList<>(td.numFields());
+        fields = new Field[td.numFields()];
         for (int i = 0, n = td.numFields(); i < n; ++i) {
             if (td.getFieldType(i) == Type.INT_TYPE) {
-                fields.add(new IntField(0));
+                fields[i] = new IntField(0);
             } else {
-                fields.add(new StringField("", Type.STRING_LEN));
+                fields[i] = new StringField("", Type.STRING_LEN);
             }
         }
     }
 
+    /**
+     * Create a tuple whose fields are decoded lazily from the specified source.
+     *
+     * @param td     the schema of this tuple
+     * @param source the page the tuple is stored on
+     * @param slot   the slot of the tuple on that page
+     */
+    Tuple(TupleDesc td, FieldSource source, int slot) {
+        tupleDesc = td;
+        fields = new Field[td.numFields()];
+        this.source = source;
+        this.slot = slot;
+    }
+
+    /**
+     * @return true if this tuple is backed by the specified source and none of
+     *         its fields were changed, i.e. its encoded bytes are still current
+     */
+    boolean isEncodedIn(FieldSource source) {
+        return this.source == source && !modified;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -74,7 +116,8 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // DONE: some code goes here
-        fields.set(i, f);
+        fields[i] = f;
+        modified = true;
     }
 
     /**
@@ -83,7 +126,12 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // DONE: some code goes here
-        return fields.get(i);
+        Field f = fields[i];
+        if (f == null && source != null) {
+            f = source.decodeField(slot, i);
+            fields[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -99,7 +147,8 @@ public class Tuple implements Serializable {
 //        throw new UnsupportedOperationException("Implement this");
         StringBuilder sb = new StringBuilder();
         boolean first = true;
-        for (Field f : fields) {
+        for (int i = 0; i < fields.length; ++i) {
+            Field f = getField(i);
             if (!first) {
                 sb.append('\t');
             } else {
@@ -115,7 +164,21 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // DONE: some code goes here
-        return fields.iterator();
+        decodeAll();
+        return Arrays.asList(fields).iterator();
+    }
+
+    private void decodeAll() {
+        if (source != null) {
+            for (int i = 0; i < fields.length; ++i) {
+                getField(i);
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -187,6 +187,21 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(typeAr, fieldAr);
     }
 
+    /**
+     * @param fields the indexes of the fields to keep, in the order to keep
+     *               them
+     * @return a TupleDesc with only the specified fields of this one
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] typeAr = new Type[fields.length];
+        String[] fieldAr = new String[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            typeAr[i] = getFieldType(fields[i]);
+            fieldAr[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items and if
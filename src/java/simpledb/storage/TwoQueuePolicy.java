@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy is the full 2Q algorithm (Johnson and Shasha, "2Q: A Low
+ * Overhead High Performance Buffer Management Replacement Algorithm"). A page
+ * read for the first time enters a FIFO queue, A1in, whose hits do not count,
+ * since they are usually the same operation touching the page again. Pages
+ * pushed out of A1in are remembered, without their contents, in a second FIFO,
+ * A1out; a page that is read again while remembered there has proven to be
+ * reused and goes to Am, an LRU list of the hot pages.
+ * <p>
+ * Victims come from A1in while it holds more than its share of the buffer pool
+ * and from Am otherwise, so a scan of a large table only ever cycles through
+ * A1in and leaves the hot pages in Am alone. Every operation takes constant
+ * time, apart from skipping pages that may not be evicted.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+    private final int maxIn;
+    private final int maxOut;
+
+    // pages read once, oldest first
+    private final LinkedHashSet<PageId> in = new LinkedHashSet<>();
+    // ids of pages recently pushed out of A1in, oldest first
+    private final LinkedHashSet<PageId> out = new LinkedHashSet<>();
+    // pages read again after they were pushed out, least recently used first
+    private final LinkedHashSet<PageId> hot = new LinkedHashSet<>();
+
+    /**
+     * Sizes the queues with the settings the 2Q paper recommends: A1in holds a
+     * quarter of the buffer pool and A1out remembers half as many pages as the
+     * buffer pool holds.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueuePolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param maxIn  the number of pages A1in holds before it gives up victims
+     *               first
+     * @param maxOut the number of page ids A1out remembers
+     */
+    public TwoQueuePolicy(int maxIn, int maxOut) {
+        if (maxIn < 1 || maxOut < 0) {
+            throw new IllegalArgumentException("bad queue sizes " + maxIn + "/" + maxOut);
+        }
+        this.maxIn = maxIn;
+        this.maxOut = maxOut;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (out.remove(pid)) {
+            hot.add(pid);
+        } else {
+            in.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (hot.remove(pid)) {
+            hot.add(pid);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (in.remove(pid)) {
+            out.add(pid);
+            if (out.size() > maxOut) {
+                Iterator<PageId> oldest = out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            hot.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (in.size() > maxIn) {
+            victim = first(in, evictable);
+        }
+        if (victim == null) {
+            victim = first(hot, evictable);
+        }
+        if (victim == null) {
+            victim = first(in, evictable);
+        }
+        return victim;
+    }
+
+    private static PageId first(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed versions of pages that read-only
+ * transactions may still need, so that they read a snapshot of the database
+ * without taking locks (see {@link BufferPool#beginSnapshot}).
+ * <p>
+ * Every commit that changes pages is numbered. A snapshot is the number of the
+ * last commit when it began, and sees the pages as that commit left them.
+ * When a commit replaces the committed version of a page while a snapshot is
+ * running, the old version is pushed onto the version chain of the page,
+ * marked with the number of the commit that replaced it; a snapshot taken
+ * before that commit reads it from the chain. Versions are dropped once no
+ * running snapshot is older than the commit that replaced them.
+ * <p>
+ * A commit is numbered when its pages are logged, but snapshots only see it
+ * once its COMMIT record is on disk and it is published; until then, the
+ * versions it replaced are kept even if no snapshot is running, for those
+ * that begin meanwhile. A snapshot sees no commit that follows one still
+ * waiting to be published.
+ * <p>
+ * A page written to disk with uncommitted changes, as when it is stolen, has
+ * its committed version held here until its transaction completes, since
+ * neither the disk nor a copy read back from it holds that version any more.
+ * <p>
+ * The buffer pool calls {@link #begin}, and {@link #isNeeded},
+ * {@link #nextCommit}, {@link #retire} and {@link #published} while it
+ * commits, holding its monitor, so that no snapshot begins while the pages of
+ * a commit are being logged; readers look versions up without it.
+ */
+class VersionStore {
+
+    // a version of a page that a commit replaced; newest first
+    private static class Version {
+        final Page page;
+        // the number of the commit that replaced it
+        final long until;
+        volatile Version older;
+
+        Version(Page page, long until, Version older) {
+            this.page = page;
+            this.until = until;
+            this.older = older;
+        }
+    }
+
+    // the number of the last commit that snapshots see, and of the last one
+    // numbered
+    private volatile long committed = 0;
+    private long numbered = 0;
+    // the commits numbered but not published yet
+    private final TreeSet<Long> pending = new TreeSet<>();
+    // the running snapshots, by transaction
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    // how many running snapshots were taken at each commit
+    private final TreeMap<Long, Integer> taken = new TreeMap<>();
+    // the replaced versions of each page
+    private final ConcurrentHashMap<PageId, Version> chains = new ConcurrentHashMap<>();
+    // the committed versions of pages written with uncommitted changes, and
+    // which pages each running transaction wrote that way
+    private final ConcurrentHashMap<PageId, Page> held = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Page>> heldBy = new ConcurrentHashMap<>();
+
+    /**
+     * Begins a snapshot for the transaction, as of the last commit.
+     *
+     * @return the snapshot
+     */
+    synchronized long begin(TransactionId tid) {
+        long snapshot = committed;
+        snapshots.put(tid, snapshot);
+        taken.merge(snapshot, 1, Integer::sum);
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot of the transaction, or null if it is not reading one
+     */
+    Long snapshotOf(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /**
+     * Ends the snapshot of the transaction, dropping the versions only it
+     * needed.
+     *
+     * @return false if the transaction was not reading a snapshot
+     */
+    synchronized boolean end(TransactionId tid) {
+        Long snapshot = snapshots.remove(tid);
+        if (snapshot == null) {
+            return false;
+        }
+        long oldest = taken.firstKey();
+        if (taken.merge(snapshot, -1, Integer::sum) == 0) {
+            taken.remove(snapshot);
+        }
+        if (taken.isEmpty()) {
+            prune(committed);
+        } else if (taken.firstKey() != oldest) {
+            prune(taken.firstKey());
+        }
+        return true;
+    }
+
+    // drops the versions that commits up to the specified one replaced
+    private void prune(long oldest) {
+        Iterator<Map.Entry<PageId, Version>> it = chains.entrySet().iterator();
+        while (it.hasNext()) {
+            Version v = it.next().getValue();
+            if (v.until <= oldest) {
+                it.remove();
+                continue;
+            }
+            while (v.older != null && v.older.until > oldest) {
+                v = v.older;
+            }
+            v.older = null;
+        }
+    }
+
+    /**
+     * @return true if a snapshot is running, so that commits keep the versions
+     *         they replace
+     */
+    boolean isNeeded() {
+        return !snapshots.isEmpty();
+    }
+
+    /**
+     * @return the number of a commit about to be made, which snapshots do not
+     *         see until it is published
+     */
+    synchronized long nextCommit() {
+        pending.add(++numbered);
+        return numbered;
+    }
+
+    /**
+     * Records that the specified commit is replacing the committed version of
+     * a page, which a snapshot may need. Called before the page changes,
+     * holding its latch.
+     */
+    synchronized void retire(PageId pid, Page version, long commit) {
+        chains.compute(pid, (p, newest) -> new Version(version, commit, newest));
+    }
+
+    /**
+     * Makes the specified commit visible to snapshots that begin from now on,
+     * along with the later ones published before it.
+     */
+    synchronized void published(long commit) {
+        pending.remove(commit);
+        committed = pending.isEmpty() ? numbered : pending.first() - 1;
+        if (taken.isEmpty()) {
+            prune(committed);
+        }
+    }
+
+    /**
+     * @return the version of the page the snapshot sees if a commit since
+     *         replaced it, or null if the snapshot sees the latest committed
+     *         version
+     */
+    Page versionAt(PageId pid, long snapshot) {
+        Version v = chains.get(pid);
+        if (v == null || v.until <= snapshot) {
+            return null;
+        }
+        for (Version older = v.older; older != null && older.until > snapshot; older = v.older) {
+            v = older;
+        }
+        return v.page;
+    }
+
+    /**
+     * Holds the committed version of a page that is about to be written with
+     * the uncommitted changes of the transaction, until it completes. The
+     * first version held for a page is kept.
+     */
+    void hold(TransactionId tid, PageId pid, Page version) {
+        if (held.putIfAbsent(pid, version) == null) {
+            heldBy.computeIfAbsent(tid, t -> new HashMap<>()).put(pid, version);
+        }
+    }
+
+    /**
+     * @return the committed version held for the page, or null
+     */
+    Page heldVersion(PageId pid) {
+        return held.get(pid);
+    }
+
+    /**
+     * @return the committed versions held for the pages the transaction wrote
+     */
+    Map<PageId, Page> heldBy(TransactionId tid) {
+        return heldBy.getOrDefault(tid, Collections.emptyMap());
+    }
+
+    /**
+     * Drops the versions held for the transaction, once its pages are
+     * committed or rolled back.
+     */
+    void release(TransactionId tid) {
+        Map<PageId, Page> pages = heldBy.remove(tid);
+        if (pages != null) {
+            held.keySet().removeAll(pages.keySet());
+        }
+    }
+
+    /**
+     * @return the number of replaced versions kept for running snapshots
+     */
+    int size() {
+        int n = 0;
+        for (Version v : chains.values()) {
+            for (; v != null; v = v.older) {
+                ++n;
+            }
+        }
+        return n;
+    }
+}
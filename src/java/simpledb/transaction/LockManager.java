@@ -0,0 +1,1003 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager grants the shared (READ_ONLY) and exclusive (READ_WRITE) page
+ * locks of transactions, and the table locks above them. Each page and each
+ * table has a queue: the transactions that hold a lock on it, and the requests
+ * waiting for one in arrival order. Waiting requests are granted from the
+ * front, a run of compatible requests at once, and no request overtakes an
+ * earlier one it conflicts with, so a writer is not starved by a stream of
+ * readers. A holder that asks for a stronger lock is upgraded at once if no
+ * other holder conflicts, and otherwise waits ahead of every other request.
+ * <p>
+ * Locks are hierarchical, see {@link LockMode}. A page lock is granted under
+ * an intention lock on its table, IS for a shared one and IX for an exclusive
+ * one, and is not needed where the transaction holds a table lock that covers
+ * it. A transaction that locks more than a threshold of pages of one table
+ * (see {@link #setEscalationThreshold}) is escalated to a table S lock, or X
+ * if it writes the table, and its page locks on the table are released; so
+ * do callers that lock a whole table up front with {@link #acquireTable},
+ * such as a sequential scan.
+ * <p>
+ * Rows are locked below pages: a row lock is granted under an intention lock
+ * on its page and table (see {@link #acquireRow}), so transactions that hold
+ * IX locks on a page change different rows of it at once, while a shared
+ * page lock still waits for all of them. Row locks count towards escalation
+ * as page locks do.
+ * <p>
+ * A waiting thread parks on the monitor of the queue and is woken when a lock
+ * on that page or table is released, its request is granted or its
+ * transaction is chosen to abort. How deadlocks are dealt with is up to the
+ * {@link DeadlockPolicy}. The detecting policies keep the waits-for graph as
+ * the queues change, and look for a cycle only when a waiting transaction
+ * gets a new edge. The wait-die and wound-wait policies compare the ages of a
+ * waiter and the transactions it waits for instead, and keep no graph.
+ * A request that waits longer than {@link #MAX_WAIT_MS} is refused as well.
+ * <p>
+ * The pages, rows and tables each transaction holds a lock on are indexed, so
+ * releasing its locks touches only those queues, and a queue nobody holds or
+ * waits on is dropped.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+    /**
+     * How long a request waits before its transaction is aborted, in case it
+     * waits for something other than a lock, e.g. a transaction that never
+     * completes.
+     */
+    public static final long MAX_WAIT_MS = 30000;
+
+    /**
+     * How many pages and rows of one table a transaction locks before it is
+     * escalated to a table lock, by default.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /**
+     * The modes of locks: S and X lock a row, a page or a whole table; IS and
+     * IX on a table or page announce S and X locks below it, and SIX is S and
+     * IX at once.
+     */
+    public enum LockMode {
+        IS, IX, S, SIX, X;
+
+        // COMPATIBLE[a][b]: a can be held while another transaction holds b
+        private static final boolean[][] COMPATIBLE = {
+                // IS    IX     S      SIX    X
+                { true, true, true, true, false }, // IS
+                { true, true, false, false, false }, // IX
+                { true, false, true, false, false }, // S
+                { true, false, false, false, false }, // SIX
+                { false, false, false, false, false }, // X
+        };
+
+        public boolean isCompatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return true if holding this lock grants what the other does
+         */
+        public boolean covers(LockMode other) {
+            switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+            }
+        }
+
+        /**
+         * @return true if holding this lock on a table or page grants what
+         *         the other does on a page or row below it
+         */
+        public boolean coversBelow(LockMode other) {
+            switch (this) {
+            case X:
+                return true;
+            case S:
+            case SIX:
+                return other == S || other == IS;
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * @return the intention lock taken above a lock of this mode
+         */
+        public LockMode intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+
+        /**
+         * @return the weakest mode that covers both
+         */
+        public LockMode join(LockMode other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            // S and IX, or either with SIX
+            return SIX;
+        }
+
+        static LockMode of(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? X : S;
+        }
+    }
+
+    /**
+     * The key of the queue of a table, as a PageId is that of a page.
+     */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * What a LockManager does about transactions that wait for each other.
+     * Transactions are as old as their IDs, so a transaction that restarts
+     * after an abort is the youngest.
+     */
+    public enum DeadlockPolicy {
+        /**
+         * Detect cycles and abort the youngest transaction in the cycle, which
+         * has the least work to lose.
+         */
+        YOUNGEST,
+        /**
+         * Detect cycles and abort the transaction in the cycle that holds the
+         * fewest locks, the youngest of them on a tie.
+         */
+        FEWEST_LOCKS,
+        /**
+         * A transaction may only wait for younger ones; one that would wait for
+         * an older transaction aborts instead.
+         */
+        WAIT_DIE,
+        /**
+         * A transaction that waits for a younger one aborts it: at once if it
+         * is waiting too, otherwise at its next lock request. Younger
+         * transactions wait for older ones.
+         */
+        WOUND_WAIT
+    }
+
+    private static class Request {
+        final TransactionId tid;
+        final LockMode mode;
+        final LockQueue queue;
+        // set once the lock is held; protected by the monitor of the queue
+        boolean granted = false;
+        // set once the transaction is chosen to abort
+        volatile boolean aborted = false;
+
+        Request(TransactionId tid, LockMode mode, LockQueue queue) {
+            this.tid = tid;
+            this.mode = mode;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * The holders and waiters of one page or table. Its monitor protects it
+     * and is the one its waiters park on.
+     */
+    private static class LockQueue {
+        // a PageId or a TableKey
+        final Object key;
+        // set once the queue is dropped from the table; a request that finds
+        // it so looks the queue up again
+        boolean removed = false;
+        final Map<TransactionId, LockMode> holders = new LinkedHashMap<>();
+        final LinkedList<Request> waiters = new LinkedList<>();
+
+        LockQueue(Object key) {
+            this.key = key;
+        }
+
+        boolean holds(TransactionId tid, LockMode mode) {
+            LockMode held = holders.get(tid);
+            return held != null && held.covers(mode);
+        }
+
+        // true if the lock can be granted now, ignoring other waiters
+        boolean compatible(TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !mode.isCompatibleWith(h.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the transactions the request waits for: holders and earlier
+         *         waiters it conflicts with
+         */
+        Set<TransactionId> blockers(Request r) {
+            Set<TransactionId> ans = new HashSet<>();
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(r.tid) && !r.mode.isCompatibleWith(h.getValue())) {
+                    ans.add(h.getKey());
+                }
+            }
+            for (Request w : waiters) {
+                if (w == r) {
+                    break;
+                }
+                if (!w.tid.equals(r.tid) && !r.mode.isCompatibleWith(w.mode)) {
+                    ans.add(w.tid);
+                }
+            }
+            return ans;
+        }
+    }
+
+    /**
+     * The locks one transaction holds. Changed under the monitor of the queue
+     * of the lock, and read by the transaction's own requests without it.
+     */
+    private static class Held {
+        final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+        final Set<RecordId> rows = ConcurrentHashMap.newKeySet();
+        // the mode held on each table
+        final Map<Integer, LockMode> tables = new ConcurrentHashMap<>();
+        // how many pages and rows of each table are locked
+        final Map<Integer, Integer> counts = new ConcurrentHashMap<>();
+
+        int size() {
+            return pages.size() + rows.size() + tables.size();
+        }
+    }
+
+    // the table of the page or row a queue key stands for
+    private static int tableOf(Object key) {
+        PageId pid = key instanceof RecordId ? ((RecordId) key).getPageId() : (PageId) key;
+        return pid.getTableId();
+    }
+
+    private final DeadlockPolicy policy;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private final ConcurrentHashMap<Object, LockQueue> queues = new ConcurrentHashMap<>();
+    // the transactions each waiting transaction waits for, and the requests they
+    // wait on; protected by waitsFor, which is taken after the monitor of a queue
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    private final Map<TransactionId, Request> waiting = new HashMap<>();
+    // the pages and tables each transaction holds a lock on
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<>();
+    // transactions to abort at their next request, under WOUND_WAIT
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+    private final AtomicLong aborts = new AtomicLong(0);
+
+    /**
+     * Creates a LockManager that aborts the youngest transaction of a deadlock.
+     */
+    public LockManager() {
+        this(DeadlockPolicy.YOUNGEST);
+    }
+
+    public LockManager(DeadlockPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets how many pages and rows of one table a transaction locks before it
+     * is escalated to a table lock.
+     */
+    public void setEscalationThreshold(int pages) {
+        escalationThreshold = pages;
+    }
+
+    // the mode the transaction holds on the table, or null
+    private LockMode tableMode(TransactionId tid, int tableId) {
+        Held h = held.get(tid);
+        return h == null ? null : h.tables.get(tableId);
+    }
+
+    /**
+     * Acquires a lock on a page, waiting until it is granted. Holding an
+     * exclusive lock counts as holding a shared one, and a table lock that
+     * covers the page as holding a lock on the page.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to abort
+     *                                     to break or prevent a deadlock, or
+     *                                     the lock was not granted in time
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        if (lockTableAbove(tid, pid.getTableId(), mode)) {
+            return;
+        }
+        lock(tid, pid, mode);
+        escalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Acquires an intention lock on a page, IS for READ_ONLY and IX for
+     * READ_WRITE, and the same on its table, waiting until they are granted.
+     * The transaction then locks the rows of the page it reads or changes with
+     * {@link #acquireRow} or {@link #tryAcquireRow}.
+     *
+     * @throws TransactionAbortedException as {@link #acquire} does
+     */
+    public void acquireIntention(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        LockMode intention = LockMode.of(perm).intention();
+        if (lockTableAbove(tid, pid.getTableId(), intention)) {
+            return;
+        }
+        lock(tid, pid, intention);
+    }
+
+    /**
+     * Acquires a lock on a row, waiting until it is granted, under intention
+     * locks on its page and table. A page or table lock that covers the row
+     * counts as holding a lock on it.
+     *
+     * @throws TransactionAbortedException as {@link #acquire} does
+     */
+    public void acquireRow(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        PageId pid = rid.getPageId();
+        if (lockTableAbove(tid, pid.getTableId(), mode) || pageCovers(tid, pid, mode)) {
+            return;
+        }
+        lock(tid, pid, mode.intention());
+        lock(tid, rid, mode);
+        escalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Acquires a lock on a row as {@link #acquireRow} does if that needs no
+     * waiting, e.g. while the caller holds a latch on the page. The
+     * transaction is escalated to a table lock if it is due and can be
+     * granted at once.
+     *
+     * @return false if the lock, or one of the intention locks above it,
+     *         cannot be granted now; intention locks granted on the way are
+     *         kept until {@link #releaseAll}
+     */
+    public boolean tryAcquireRow(TransactionId tid, RecordId rid, Permissions perm) {
+        LockMode mode = LockMode.of(perm);
+        PageId pid = rid.getPageId();
+        int tableId = pid.getTableId();
+        LockMode table = tableMode(tid, tableId);
+        if (table != null && table.coversBelow(mode) || pageCovers(tid, pid, mode)) {
+            return true;
+        }
+        if (!tryLock(tid, new TableKey(tableId), mode.intention())
+                || !tryLock(tid, pid, mode.intention()) || !tryLock(tid, rid, mode)) {
+            return false;
+        }
+        if (isDueForEscalation(tid, tableId)) {
+            LockMode target = escalated(tableMode(tid, tableId));
+            if (tryLock(tid, new TableKey(tableId), target)) {
+                releaseCovered(tid, tableId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Acquires a lock on a page as {@link #acquire} does if that needs no
+     * waiting.
+     *
+     * @return false if the lock, or the intention lock on its table, cannot be
+     *         granted now; an intention lock granted on the way is kept until
+     *         {@link #releaseAll}
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        LockMode mode = LockMode.of(perm);
+        int tableId = pid.getTableId();
+        LockMode table = tableMode(tid, tableId);
+        if (table != null && table.coversBelow(mode)) {
+            return true;
+        }
+        return tryLock(tid, new TableKey(tableId), mode.intention()) && tryLock(tid, pid, mode);
+    }
+
+    /**
+     * Takes the intention lock on a table for a lock in the specified mode on
+     * a page or row of it.
+     *
+     * @return true if the transaction holds a lock on the table that covers
+     *         the lock below it, which is then not needed
+     */
+    private boolean lockTableAbove(TransactionId tid, int tableId, LockMode mode)
+            throws TransactionAbortedException {
+        LockMode table = tableMode(tid, tableId);
+        if (table != null && table.coversBelow(mode)) {
+            if (wounded.contains(tid)) {
+                throw new TransactionAbortedException();
+            }
+            return true;
+        }
+        LockMode intention = mode.intention();
+        if (table == null || !table.covers(intention)) {
+            lock(tid, new TableKey(tableId), intention);
+        }
+        return false;
+    }
+
+    // true if the transaction's lock on the page covers the lock on a row of it
+    private boolean pageCovers(TransactionId tid, PageId pid, LockMode mode) {
+        LockQueue q = queues.get(pid);
+        if (q == null) {
+            return false;
+        }
+        synchronized (q) {
+            LockMode page = q.holders.get(tid);
+            return page != null && page.coversBelow(mode);
+        }
+    }
+
+    private boolean isDueForEscalation(TransactionId tid, int tableId) {
+        Held h = held.get(tid);
+        return h != null && h.counts.getOrDefault(tableId, 0) > escalationThreshold;
+    }
+
+    // the table lock a transaction holding the specified one is escalated to
+    private static LockMode escalated(LockMode table) {
+        return table == LockMode.IS ? LockMode.S : LockMode.X;
+    }
+
+    // escalates the transaction to a table lock if it holds too many locks on
+    // pages and rows of the table
+    private void escalate(TransactionId tid, int tableId) throws TransactionAbortedException {
+        if (isDueForEscalation(tid, tableId)) {
+            acquireTable(tid, tableId, escalated(tableMode(tid, tableId)));
+        }
+    }
+
+    /**
+     * Acquires a lock on a whole table, S for READ_ONLY and X for READ_WRITE,
+     * waiting until it is granted, and releases the page locks of the
+     * transaction on the table that it covers. A transaction that holds an IX
+     * lock and asks for an S one gets SIX.
+     *
+     * @throws TransactionAbortedException as {@link #acquire} does
+     */
+    public void acquireTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        acquireTable(tid, tableId, LockMode.of(perm));
+    }
+
+    private void acquireTable(TransactionId tid, int tableId, LockMode mode)
+            throws TransactionAbortedException {
+        lock(tid, new TableKey(tableId), mode);
+        releaseCovered(tid, tableId);
+    }
+
+    // releases the page and row locks of the transaction on the table that its
+    // lock on the table covers
+    private void releaseCovered(TransactionId tid, int tableId) {
+        LockMode table = tableMode(tid, tableId);
+        Held h = held.get(tid);
+        List<Object> keys = new ArrayList<>(h.rows);
+        keys.addAll(h.pages);
+        for (Object key : keys) {
+            if (tableOf(key) == tableId) {
+                LockQueue q = queues.get(key);
+                List<Request> victims = Collections.emptyList();
+                if (q != null) {
+                    synchronized (q) {
+                        LockMode below = q.holders.get(tid);
+                        if (below != null && table.coversBelow(below)) {
+                            victims = release(q, tid);
+                        }
+                    }
+                }
+                abortAll(victims);
+            }
+        }
+    }
+
+    // grants a lock on a page, row or table in the specified mode, or in the
+    // join of it and the mode held already, if it can be granted at once
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) {
+        while (true) {
+            LockQueue q = queues.computeIfAbsent(key, LockQueue::new);
+            synchronized (q) {
+                if (q.removed) {
+                    continue;
+                }
+                if (q.holds(tid, mode)) {
+                    return true;
+                }
+                LockMode current = q.holders.get(tid);
+                boolean upgrade = current != null;
+                Request r = new Request(tid, upgrade ? current.join(mode) : mode, q);
+                if ((upgrade || q.waiters.isEmpty()) && q.compatible(tid, r.mode)) {
+                    grant(q, r);
+                    return true;
+                }
+                collect(q);
+                return false;
+            }
+        }
+    }
+
+    // acquires a lock on a page, row or table in the specified mode, or in the
+    // join of it and the mode held already
+    private void lock(TransactionId tid, Object key, LockMode mode)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        LockQueue q;
+        Request r;
+        List<Request> victims;
+        while (true) {
+            q = queues.computeIfAbsent(key, LockQueue::new);
+            synchronized (q) {
+                if (q.removed) {
+                    continue;
+                }
+                if (q.holds(tid, mode)) {
+                    return;
+                }
+                LockMode current = q.holders.get(tid);
+                boolean upgrade = current != null;
+                r = new Request(tid, upgrade ? current.join(mode) : mode, q);
+                if ((upgrade || q.waiters.isEmpty()) && q.compatible(tid, r.mode)) {
+                    grant(q, r);
+                    return;
+                }
+                if (upgrade) {
+                    // behind earlier upgrades only; everyone else waits for this
+                    // transaction's shared lock anyway
+                    int i = 0;
+                    while (i < q.waiters.size() && q.holders.containsKey(q.waiters.get(i).tid)) {
+                        ++i;
+                    }
+                    q.waiters.add(i, r);
+                } else {
+                    q.waiters.add(r);
+                }
+                synchronized (waitsFor) {
+                    waiting.put(tid, r);
+                }
+                victims = refresh(q);
+                break;
+            }
+        }
+        abortAll(victims);
+
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+        boolean interrupted = false;
+        synchronized (q) {
+            while (!r.granted && !r.aborted && !interrupted) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    break;
+                }
+                try {
+                    q.wait(left);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (r.granted) {
+                return;
+            }
+        }
+        if (!r.aborted) {
+            aborts.incrementAndGet();
+        }
+        abortAll(withdraw(r));
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        throw new TransactionAbortedException();
+    }
+
+    // the caller holds the monitor of the queue
+    private void grant(LockQueue q, Request r) {
+        r.granted = true;
+        boolean added = q.holders.put(r.tid, r.mode) == null;
+        held.compute(r.tid, (t, h) -> {
+            if (h == null) {
+                h = new Held();
+            }
+            if (q.key instanceof TableKey) {
+                h.tables.put(((TableKey) q.key).tableId, r.mode);
+            } else if (added) {
+                if (q.key instanceof RecordId) {
+                    h.rows.add((RecordId) q.key);
+                } else {
+                    h.pages.add((PageId) q.key);
+                }
+                h.counts.merge(tableOf(q.key), 1, Integer::sum);
+            }
+            return h;
+        });
+    }
+
+    // drops a queue nobody holds or waits on; the caller holds its monitor
+    private void collect(LockQueue q) {
+        if (q.holders.isEmpty() && q.waiters.isEmpty()) {
+            q.removed = true;
+            queues.remove(q.key, q);
+        }
+    }
+
+    // the caller holds the monitor of the queue
+    private void stopWaiting(Request r) {
+        synchronized (waitsFor) {
+            waitsFor.remove(r.tid);
+            waiting.remove(r.tid);
+        }
+    }
+
+    /**
+     * Grants waiting requests from the front, up to the first one that
+     * conflicts, and wakes the waiters if any was granted. The caller holds the
+     * monitor of the queue.
+     */
+    private void grantWaiters(LockQueue q) {
+        boolean granted = false;
+        while (!q.waiters.isEmpty() && q.compatible(q.waiters.peek().tid, q.waiters.peek().mode)) {
+            Request r = q.waiters.poll();
+            stopWaiting(r);
+            grant(q, r);
+            granted = true;
+        }
+        if (granted) {
+            q.notifyAll();
+        }
+    }
+
+    /**
+     * Brings what the waiters of a queue wait for up to date after the queue
+     * changed, and applies the policy. The caller holds the monitor of the
+     * queue.
+     *
+     * @return the waiting requests chosen to abort, for {@link #abortAll}
+     */
+    private List<Request> refresh(LockQueue q) {
+        List<Request> victims = new ArrayList<>();
+        for (Request w : q.waiters) {
+            if (w.aborted) {
+                continue;
+            }
+            Set<TransactionId> blockers = q.blockers(w);
+            switch (policy) {
+            case WAIT_DIE:
+                for (TransactionId b : blockers) {
+                    if (b.getId() < w.tid.getId()) {
+                        victims.add(abortRequest(w));
+                        break;
+                    }
+                }
+                break;
+            case WOUND_WAIT:
+                if (wounded.contains(w.tid)) {
+                    // wounded after it checked, before it queued
+                    victims.add(abortRequest(w));
+                    break;
+                }
+                for (TransactionId b : blockers) {
+                    if (b.getId() > w.tid.getId() && wounded.add(b)) {
+                        synchronized (waitsFor) {
+                            Request br = waiting.get(b);
+                            if (br != null && !br.aborted) {
+                                victims.add(abortRequest(br));
+                            }
+                        }
+                    }
+                }
+                break;
+            default:
+                synchronized (waitsFor) {
+                    Set<TransactionId> old = waitsFor.put(w.tid, blockers);
+                    if (old == null || !old.containsAll(blockers)) {
+                        // the new edges may close several cycles
+                        List<TransactionId> cycle;
+                        while ((cycle = findCycle(w.tid)) != null) {
+                            Request victim = waiting.get(chooseVictim(cycle));
+                            // break the cycle now, so it is not broken twice
+                            waitsFor.remove(victim.tid);
+                            victims.add(abortRequest(victim));
+                        }
+                    }
+                }
+            }
+        }
+        return victims;
+    }
+
+    private Request abortRequest(Request r) {
+        r.aborted = true;
+        aborts.incrementAndGet();
+        return r;
+    }
+
+    /**
+     * @return the transactions on a cycle of the waits-for graph through the
+     *         specified one, or null if there is none; the caller holds waitsFor
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(start, null);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId u = stack.pop();
+            for (TransactionId v : waitsFor.getOrDefault(u, Collections.emptySet())) {
+                if (v.equals(start)) {
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for (TransactionId t = u; t != null; t = parent.get(t)) {
+                        cycle.add(t);
+                    }
+                    return cycle;
+                }
+                if (!parent.containsKey(v)) {
+                    parent.put(v, u);
+                    stack.push(v);
+                }
+            }
+        }
+        return null;
+    }
+
+    private int lockCount(TransactionId tid) {
+        Held h = held.get(tid);
+        return h == null ? 0 : h.size();
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        for (TransactionId t : cycle) {
+            if (victim == null) {
+                victim = t;
+                continue;
+            }
+            if (policy == DeadlockPolicy.FEWEST_LOCKS) {
+                int locks = lockCount(t);
+                int victimLocks = lockCount(victim);
+                if (locks != victimLocks) {
+                    if (locks < victimLocks) {
+                        victim = t;
+                    }
+                    continue;
+                }
+            }
+            if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Takes waiting requests chosen to abort out of their queues, which may let
+     * the requests behind them in, and wakes their threads. The caller holds
+     * no queue monitor.
+     */
+    private void abortAll(List<Request> victims) {
+        Deque<Request> todo = new ArrayDeque<>(victims);
+        while (!todo.isEmpty()) {
+            Request r = todo.poll();
+            todo.addAll(withdraw(r));
+            synchronized (r.queue) {
+                r.queue.notifyAll();
+            }
+        }
+    }
+
+    // takes a request that is given up on out of its queue
+    private List<Request> withdraw(Request r) {
+        LockQueue q = r.queue;
+        synchronized (q) {
+            if (!q.waiters.remove(r)) {
+                return Collections.emptyList();
+            }
+            stopWaiting(r);
+            grantWaiters(q);
+            collect(q);
+            return refresh(q);
+        }
+    }
+
+    /**
+     * Releases the lock of a transaction on a page, letting waiting requests
+     * in. Its lock on the table stays until {@link #releaseAll}.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        LockQueue q = queues.get(pid);
+        if (q != null) {
+            List<Request> victims;
+            synchronized (q) {
+                victims = release(q, tid);
+            }
+            abortAll(victims);
+        }
+    }
+
+    // the caller holds the monitor of the queue
+    private List<Request> release(LockQueue q, TransactionId tid) {
+        if (q.holders.remove(tid) == null) {
+            return Collections.emptyList();
+        }
+        held.computeIfPresent(tid, (t, h) -> {
+            if (q.key instanceof TableKey) {
+                h.tables.remove(((TableKey) q.key).tableId);
+            } else {
+                if (q.key instanceof RecordId) {
+                    h.rows.remove(q.key);
+                } else {
+                    h.pages.remove(q.key);
+                }
+                h.counts.computeIfPresent(tableOf(q.key), (id, n) -> n == 1 ? null : n - 1);
+            }
+            return h.size() == 0 ? null : h;
+        });
+        grantWaiters(q);
+        collect(q);
+        return refresh(q);
+    }
+
+    private void release(TransactionId tid, Object key) {
+        LockQueue q = queues.get(key);
+        if (q != null) {
+            List<Request> victims;
+            synchronized (q) {
+                victims = release(q, tid);
+            }
+            abortAll(victims);
+        }
+    }
+
+    /**
+     * Releases every lock of a transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Held h = held.get(tid);
+        if (h != null) {
+            for (RecordId rid : h.rows) {
+                release(tid, (Object) rid);
+            }
+            for (PageId pid : h.pages) {
+                release(tid, (Object) pid);
+            }
+            for (int tableId : h.tables.keySet()) {
+                release(tid, new TableKey(tableId));
+            }
+            held.remove(tid);
+        }
+        wounded.remove(tid);
+    }
+
+    /**
+     * @return the pages, rows and tables some transaction holds or waits for a
+     *         lock on
+     */
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the page, or one on its
+     *         table that covers a shared lock on the page
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockMode table = tableMode(tid, pid.getTableId());
+        if (table != null && table.covers(LockMode.S)) {
+            return true;
+        }
+        LockQueue q = queues.get(pid);
+        if (q == null) {
+            return false;
+        }
+        synchronized (q) {
+            return q.holders.containsKey(tid);
+        }
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the row, or one on its
+     *         page or table that covers a shared lock on the row
+     */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        PageId pid = rid.getPageId();
+        LockMode table = tableMode(tid, pid.getTableId());
+        if (table != null && table.coversBelow(LockMode.S) || pageCovers(tid, pid, LockMode.S)) {
+            return true;
+        }
+        LockQueue q = queues.get(rid);
+        if (q == null) {
+            return false;
+        }
+        synchronized (q) {
+            return q.holders.containsKey(tid);
+        }
+    }
+
+    /**
+     * @return true if a transaction other than the specified one holds a lock
+     *         on the page
+     */
+    public boolean isLockedByOthers(TransactionId tid, PageId pid) {
+        LockQueue q = queues.get(pid);
+        if (q == null) {
+            return false;
+        }
+        synchronized (q) {
+            for (TransactionId holder : q.holders.keySet()) {
+                if (!holder.equals(tid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return true if some transaction holds an exclusive lock on the page or
+     *         on its table
+     */
+    public boolean isLockedExclusive(PageId pid) {
+        LockQueue q = queues.get(pid);
+        if (q != null) {
+            synchronized (q) {
+                if (q.holders.containsValue(LockMode.X)) {
+                    return true;
+                }
+            }
+        }
+        LockQueue table = queues.get(new TableKey(pid.getTableId()));
+        if (table != null) {
+            synchronized (table) {
+                return table.holders.containsValue(LockMode.X);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of requests refused because their transaction was
+     *         chosen to abort or waited too long
+     */
+    public long getAborts() {
+        return aborts.get();
+    }
+}
@@ -7,14 +7,36 @@ import java.io.IOException;
 /**
  * Transaction encapsulates information about the state of
  * a transaction and manages transaction commit / abort.
+ * <p>
+ * A read-only transaction reads a snapshot of the database taken when it
+ * starts, without locks, so that a long query neither waits for writers nor
+ * holds them up; it writes nothing to the log.
  */
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly whether the transaction only reads, from a snapshot
+     *                 taken when it starts
+     * @see simpledb.storage.BufferPool#beginSnapshot
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return true if the transaction reads a snapshot and writes nothing
+     */
+    public boolean isReadOnly() {
+        return readOnly;
     }
 
     /**
@@ -22,6 +44,10 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -52,20 +78,24 @@ public class Transaction {
      */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            // ends the snapshot; there is nothing to log or roll back
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
+            } else {
+                // log the pages, then write and force the commit record while
+                // the locks are still held; if that fails they stay held
+                Database.getBufferPool().prepareCommit(tid);
+                Database.getLogFile().logCommit(tid);
             }
 
             // Release locks and flush pages if needed
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
-            // write commit log record
-            if (!abort) {
-                Database.getLogFile().logCommit(tid);
-            }
-
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
         }
@@ -15,11 +15,13 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -321,6 +323,27 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.writePageData()
+	 */
+	@Test public void writePageData() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+		// leave empty slots between used ones
+		Iterator<BTreeEntry> it = page.iterator();
+		it.next();
+		page.deleteKeyAndRightChild(it.next());
+
+		byte[] data = page.getPageData();
+		ByteBuffer buf = ByteBuffer.allocate(data.length);
+		Arrays.fill(buf.array(), (byte) 0x5a);
+		page.writePageData(buf);
+		assertArrayEquals(data, buf.array());
+		assertEquals(page.getNumEmptySlots(),
+				new BTreeInternalPage(pid, data, 0).getNumEmptySlots());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
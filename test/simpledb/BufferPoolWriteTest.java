@@ -140,6 +140,88 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    private static int count(DbFile f, TransactionId tid) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Commit leaves the pages to the background writer, which writes them out
+     * soon after.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        for (int i = 0; i < 200 && Database.getBufferPool().getBackgroundWrites() == 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, Database.getBufferPool().getBackgroundWrites());
+        assertEquals(504 - 10, ((HeapPage) empty.readPage(pid)).getNumUnusedSlots());
+    }
+
+    /**
+     * Without the background writer, evicting committed pages writes them in the
+     * foreground and counts it; nothing committed is lost.
+     */
+    @Test public void foregroundWrites() throws Exception {
+        // only room for the committed pages
+        BufferPool pool = Database.resetBufferPool(4);
+        pool.close();
+        HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 4);
+        Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+        pool.insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getEvictions());
+
+        tid = new TransactionId();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        assertEquals(504 * 4, count(other, tid));
+        // clean pages are evicted first, so only the first miss has to write
+        assertEquals(1, pool.getForegroundWrites());
+        assertEquals(4, pool.getEvictions());
+        assertEquals(0, pool.getBackgroundWrites());
+        // page 0 is the empty page the file started with
+        for (int i = 1; i <= 4; ++i) {
+            HeapPage p = (HeapPage) hfd.readPage(new HeapPageId(hfd.getId(), i));
+            if (!pool.isBuffered(p.getId())) {
+                assertEquals(504 - 1, p.getNumUnusedSlots());
+            }
+        }
+        assertEquals(4, count(hfd, tid));
+    }
+
+    /**
+     * Aborting a change to a committed page that was not written yet keeps the
+     * committed changes.
+     */
+    @Test public void abortAfterUnwrittenCommit() throws Exception {
+        Database.getBufferPool().close();
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(2, count(empty, tid));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(1, count(empty, tid));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(1, count(empty, tid));
+    }
+
     /**
      * JUnit suite target
      */
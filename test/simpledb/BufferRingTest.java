@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    // rows of two int columns per HeapPage
+    private static final int ROWS_PER_PAGE = 504;
+    private static final int POOL_PAGES = 40;
+
+    private HeapFile hot;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, 5 * ROWS_PER_PAGE, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 100 * ROWS_PER_PAGE, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void readHotPages(TransactionId tid) throws Exception {
+        for (int i = 0; i < hot.numPages(); ++i) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i),
+                    Permissions.READ_ONLY);
+        }
+    }
+
+    private int bufferedHotPages() {
+        int n = 0;
+        for (int i = 0; i < hot.numPages(); ++i) {
+            if (Database.getBufferPool().isBuffered(new HeapPageId(hot.getId(), i))) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Reads that fit in the buffer pool get no ring; larger reads get one of an
+     * eighth of it.
+     */
+    @Test public void ringSize() {
+        BufferPool pool = Database.getBufferPool();
+        assertNull(pool.bulkReadRing(POOL_PAGES));
+        assertEquals(POOL_PAGES / 8, pool.bulkReadRing(POOL_PAGES + 1).getCapacity());
+        assertEquals(BufferRing.MAX_PAGES,
+                Database.resetBufferPool(1000).bulkReadRing(1001).getCapacity());
+    }
+
+    /**
+     * A SeqScan of a table much larger than the buffer pool leaves the pages
+     * another transaction is using in the buffer pool, and reads the whole table.
+     */
+    @Test public void scanKeepsHotPages() throws Exception {
+        TransactionId lookups = new TransactionId();
+        readHotPages(lookups);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++rows;
+        }
+        scan.close();
+        assertEquals(100 * ROWS_PER_PAGE, rows);
+        assertEquals(hot.numPages(), bufferedHotPages());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().transactionComplete(lookups);
+    }
+
+    /**
+     * The same scan without a ring pushes the hot pages out.
+     */
+    @Test public void scanWithoutRingEvictsHotPages() throws Exception {
+        TransactionId lookups = new TransactionId();
+        readHotPages(lookups);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < big.numPages(); ++i) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(big.getId(), i),
+                    Permissions.READ_ONLY);
+        }
+        assertEquals(0, bufferedHotPages());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().transactionComplete(lookups);
+    }
+
+    /**
+     * A page of the ring that another transaction requests leaves the ring and
+     * is not recycled by the scan.
+     */
+    @Test public void sharedPageLeavesRing() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        BufferRing ring = pool.bulkReadRing(big.numPages());
+        TransactionId tid = new TransactionId();
+        TransactionId other = new TransactionId();
+        int n = ring.getCapacity();
+        for (int i = 0; i < n; ++i) {
+            pool.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        pool.getPage(other, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        long evictions = pool.getEvictions();
+        for (int i = n; i < 3 * n; ++i) {
+            pool.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        assertTrue(pool.isBuffered(new HeapPageId(big.getId(), 0)));
+        assertFalse(pool.isBuffered(new HeapPageId(big.getId(), 1)));
+        // the buffer pool was not full, the ring recycled all but one frame
+        assertEquals(2 * n - 1, pool.getEvictions() - evictions);
+        pool.transactionComplete(tid);
+        pool.transactionComplete(other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 3000;
+
+    private ColumnarFile cf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnarFile(f, Utility.getTupleDesc(COLUMNS, "c"));
+        for (int i = 0; i < COLUMNS; ++i) {
+            cf.getColumnFile(i).deleteOnExit();
+        }
+        Database.getCatalog().addTable(cf, "wide");
+
+        TransactionId tid = new TransactionId();
+        for (int row = 0; row < ROWS; ++row) {
+            int[] values = new int[COLUMNS];
+            for (int i = 0; i < COLUMNS; ++i) {
+                values[i] = row * 100 + i;
+            }
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getTuple(values, COLUMNS));
+            if (row % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private List<Tuple> scan(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * A full scan returns every row with all its fields.
+     */
+    @Test public void scanAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = scan(cf.iterator(tid));
+        assertEquals(ROWS, tuples.size());
+        for (int row = 0; row < ROWS; ++row) {
+            for (int i = 0; i < COLUMNS; ++i) {
+                assertEquals(new IntField(row * 100 + i), tuples.get(row).getField(i));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A column scan reads only the pages of the requested columns, and
+     * returns tuples of those fields only.
+     */
+    @Test public void scanColumns() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = scan(cf.iterator(tid, new int[] { 2, 7 }));
+        assertEquals(ROWS, tuples.size());
+        Tuple t = tuples.get(ROWS - 1);
+        assertEquals(2, t.getTupleDesc().numFields());
+        assertEquals(cf.getTupleDesc().getFieldName(7), t.getTupleDesc().getFieldName(1));
+        assertEquals(new IntField((ROWS - 1) * 100 + 2), t.getField(0));
+        assertEquals(new IntField((ROWS - 1) * 100 + 7), t.getField(1));
+
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 2, 0)));
+        for (int i : new int[] { 0, 1, 3, 19 }) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), i, 0)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted rows disappear from every column, and an abort brings them back.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> victims = new ArrayList<>();
+        for (Tuple t : scan(cf.iterator(tid, new int[0]))) {
+            if (t.getRecordId().getTupleNumber() % 3 == 0) {
+                victims.add(t);
+            }
+        }
+        Database.getBufferPool().deleteTuples(tid, victims);
+        assertEquals(ROWS - victims.size(), scan(cf.iterator(tid, new int[] { 5 })).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS, scan(cf.iterator(tid, new int[] { 5 })).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A tuple with a field of the wrong type is refused before any column of
+     * it is written.
+     */
+    @Test public void insertWrongType() throws Exception {
+        Type[] types = new Type[COLUMNS];
+        Arrays.fill(types, Type.INT_TYPE);
+        types[COLUMNS / 2] = Type.STRING_TYPE;
+        Tuple t = new Tuple(new TupleDesc(types));
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+            fail("inserted a tuple with a string field into int columns");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(ROWS, scan(cf.iterator(tid)).size());
+        for (int i = 0; i < COLUMNS; ++i) {
+            assertEquals(ROWS, scan(cf.iterator(tid, new int[] { i })).size());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The physical plan of an aggregate query scans only the columns it uses.
+     */
+    @Test public void planReadsReferencedColumns() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("wide", new TableStats(cf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "w");
+        lp.addFilter("w.c7", Predicate.Op.LESS_THAN, "1000");
+        lp.addAggregate("sum", "w.c3", null);
+        lp.addProjectField("w.c3", "sum");
+
+        TransactionId tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertTrue(plan.hasNext());
+        // rows 0..9 pass the filter
+        int expected = 0;
+        for (int row = 0; row < 10; ++row) {
+            expected += row * 100 + 3;
+        }
+        assertEquals(new IntField(expected), plan.next().getField(0));
+        plan.close();
+
+        // the scan locks the whole table, so look at the pages it read
+        assertTrue(Database.getBufferPool().isBuffered(new ColumnPageId(cf.getId(), 3, 0)));
+        assertFalse(Database.getBufferPool().isBuffered(new ColumnPageId(cf.getId(), 0, 0)));
+        assertFalse(Database.getBufferPool().isBuffered(new ColumnPageId(cf.getId(), 12, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan reset to another table reads all of its fields, not the ones
+     * chosen for the old table.
+     */
+    @Test public void resetReadsAllColumns() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "w", new int[] { 2, 7 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        scan.reset(cf.getId(), "v");
+        assertEquals(COLUMNS, scan.getTupleDesc().numFields());
+        scan.open();
+        Tuple t = scan.next();
+        assertEquals(COLUMNS, t.getTupleDesc().numFields());
+        assertEquals(new IntField(19), t.getField(19));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
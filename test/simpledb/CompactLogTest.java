@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class CompactLogTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = File.createTempFile("compact", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private List<Tuple> scan(Transaction t) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Committing an insert of one tuple logs the bytes of its slot, not the
+     * before and after images of its page.
+     */
+    @Test public void insertLogsSlot() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        long start = Database.getLogFile().getEnd();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+        long logged = Database.getLogFile().getEnd() - start;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 20);
+    }
+
+    /**
+     * Deletes that were written to disk before the transaction aborted are
+     * undone from their logged slots.
+     */
+    @Test public void stolenDeletesUndone() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 10; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+        Database.getBufferPool().writeCommittedPages();
+        byte[] committed = hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+
+        t = new Transaction();
+        t.start();
+        List<Tuple> tuples = scan(t);
+        assertEquals(10, tuples.size());
+        Database.getBufferPool().deleteTuples(t.getId(), tuples.subList(0, 5));
+        Database.getBufferPool().flushPages(t.getId());
+        assertEquals(5, scan(t).size());
+        t.abort();
+
+        assertArrayEquals(committed, hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData());
+        t = new Transaction();
+        t.start();
+        assertEquals(10, scan(t).size());
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompactLogTest.class);
+    }
+}
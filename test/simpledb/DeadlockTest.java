@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -14,6 +17,7 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionId;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -221,6 +225,34 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * The deadlock policy of the buffer pool applies to its transactions:
+   * under wait-die, a younger transaction that would wait for an older one
+   * aborts at once, and an older one waits.
+   */
+  @Test public void waitDiePolicy() throws Exception {
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, LockManager.DeadlockPolicy.WAIT_DIE);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber younger = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    younger.join(LockManager.MAX_WAIT_MS / 3);
+    assertFalse(younger.acquired());
+    assertNotNull(younger.getError());
+    bp.transactionComplete(tid2, false);
+
+    tid2 = new TransactionId();
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber older = startGrabber(tid1, p1, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(older.acquired());
+    assertNull(older.getError());
+    bp.transactionComplete(tid2);
+    older.join(LockManager.MAX_WAIT_MS / 3);
+    assertTrue(older.acquired());
+    bp.transactionComplete(tid1);
+  }
+
   /**
    * JUnit suite target
    */
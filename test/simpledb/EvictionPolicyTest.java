@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Replays page requests against a policy the way the buffer pool does,
+     * evicting whatever the policy chooses once capacity pages are cached.
+     */
+    private static class Cache {
+        final EvictionPolicy policy;
+        final int capacity;
+        final Set<PageId> cached = new HashSet<>();
+        int misses = 0;
+
+        Cache(EvictionPolicy policy, int capacity) {
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        void get(int n) {
+            PageId pid = page(n);
+            if (cached.contains(pid)) {
+                policy.pageAccessed(pid);
+                return;
+            }
+            ++misses;
+            if (cached.size() >= capacity) {
+                PageId victim = policy.chooseVictim(p -> true);
+                assertTrue(cached.remove(victim));
+                policy.pageRemoved(victim);
+            }
+            cached.add(pid);
+            policy.pageAdded(pid);
+        }
+
+        /**
+         * Looks up the hot pages 0..hot-1 a few times, then scans pages 100 and
+         * up, then looks the hot pages up once more and returns the misses of
+         * that last round.
+         */
+        int missesAfterScan(int hot, int scan) {
+            for (int round = 0; round < 3; ++round) {
+                for (int i = 0; i < hot; ++i) {
+                    get(i);
+                }
+                // push the hot pages out of the probationary queue once
+                for (int i = 0; i < capacity; ++i) {
+                    get(1000 + round * capacity + i);
+                }
+            }
+            for (int i = 0; i < hot; ++i) {
+                get(i);
+            }
+            for (int i = 0; i < scan; ++i) {
+                get(100 + i);
+            }
+            int before = misses;
+            for (int i = 0; i < hot; ++i) {
+                get(i);
+            }
+            return misses - before;
+        }
+    }
+
+    private static void addAll(EvictionPolicy policy, int n) {
+        for (int i = 0; i < n; ++i) {
+            policy.pageAdded(page(i));
+        }
+    }
+
+    /**
+     * LRU evicts the least recently requested evictable page.
+     */
+    @Test public void lru() {
+        EvictionPolicy policy = new LRUPolicy();
+        addAll(policy, 4);
+        policy.pageAccessed(page(0));
+        assertEquals(page(1), policy.chooseVictim(p -> true));
+        assertEquals(page(2), policy.chooseVictim(p -> !p.equals(page(1))));
+        policy.pageRemoved(page(1));
+        assertEquals(page(2), policy.chooseVictim(p -> true));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    /**
+     * CLOCK passes over pages that were requested since the hand last passed
+     * them, clearing their bit, and gives up after two turns.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockPolicy();
+        addAll(policy, 4);
+        policy.pageAccessed(page(0));
+        policy.pageAccessed(page(1));
+        assertEquals(page(2), policy.chooseVictim(p -> true));
+        policy.pageRemoved(page(2));
+        assertEquals(page(3), policy.chooseVictim(p -> true));
+        // the hand cleared the bits of 0 and 1 on its way
+        assertEquals(page(3), policy.chooseVictim(p -> true));
+        assertEquals(page(0), policy.chooseVictim(p -> !p.equals(page(3))));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    /**
+     * LRU-K evicts pages requested fewer than K times first, then the page
+     * whose K-th most recent request is the oldest.
+     */
+    @Test public void lruK() {
+        EvictionPolicy policy = new LRUKPolicy(2, 4);
+        addAll(policy, 4);
+        policy.pageAccessed(page(0));
+        policy.pageAccessed(page(3));
+        policy.pageAccessed(page(0));
+        assertEquals(page(1), policy.chooseVictim(p -> true));
+        policy.pageRemoved(page(1));
+        policy.pageRemoved(page(2));
+        // the second most recent request of 3 is older than that of 0
+        assertEquals(page(3), policy.chooseVictim(p -> true));
+        assertEquals(page(0), policy.chooseVictim(p -> p.equals(page(0))));
+    }
+
+    /**
+     * 2Q evicts new pages in FIFO order and keeps a page that is requested again
+     * after it was evicted from the probationary queue.
+     */
+    @Test public void twoQueue() {
+        Cache cache = new Cache(new TwoQueuePolicy(8), 8);
+        for (int i = 0; i < 8; ++i) {
+            cache.get(i);
+        }
+        cache.get(0);
+        cache.get(8);
+        // a hit in A1in does not count
+        assertFalse(cache.cached.contains(page(0)));
+        cache.get(0);
+        for (int i = 20; i < 40; ++i) {
+            cache.get(i);
+        }
+        assertTrue(cache.cached.contains(page(0)));
+    }
+
+    /**
+     * A scan twice the size of the cache evicts every hot page under LRU and
+     * CLOCK, and none of them under 2Q and LRU-2.
+     */
+    @Test public void scanResistance() {
+        int capacity = 40;
+        int hot = 10;
+        assertEquals(hot, new Cache(new LRUPolicy(), capacity).missesAfterScan(hot, 2 * capacity));
+        assertEquals(hot, new Cache(new ClockPolicy(), capacity).missesAfterScan(hot, 2 * capacity));
+        assertEquals(0, new Cache(new TwoQueuePolicy(capacity), capacity)
+                .missesAfterScan(hot, 2 * capacity));
+        assertEquals(0, new Cache(new LRUKPolicy(capacity), capacity)
+                .missesAfterScan(hot, 2 * capacity));
+    }
+
+    /**
+     * The buffer pool evicts the pages its policy chooses.
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        BufferPool pool = Database.resetBufferPool(4, new LRUKPolicy(4));
+        TransactionId tid = new TransactionId();
+        PageId hotPage = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, hotPage, Permissions.READ_ONLY);
+        pool.getPage(tid, hotPage, Permissions.READ_ONLY);
+        for (int i = 1; i < 8; ++i) {
+            pool.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertTrue(pool.isBuffered(hotPage));
+        assertEquals(4, pool.getEvictions());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("fuzzy", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        // committed pages stay unwritten
+        Database.getBufferPool().close();
+    }
+
+    private void insert(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(v, 2));
+        t.commit();
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++count;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * A checkpoint leaves committed pages in the buffer pool, and recovery
+     * redoes them from before the checkpoint.
+     */
+    @Test public void checkpointWritesNoPages() throws Exception {
+        insert(1);
+        Database.getLogFile().logCheckpoint();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(504, ((HeapPage) hf.readPage(pid)).getNumUnusedSlots());
+
+        insert(2);
+        Database.getLogFile().logCheckpoint();
+        assertEquals(504, ((HeapPage) hf.readPage(pid)).getNumUnusedSlots());
+        crash();
+        assertEquals(2, count());
+    }
+
+    /**
+     * A checkpoint does not wait for work that holds the buffer pool.
+     */
+    @Test public void checkpointDoesNotTakeBufferPool() throws Exception {
+        insert(1);
+        List<Throwable> errors = new ArrayList<>();
+        Thread checkpoint = new Thread(() -> {
+            try {
+                Database.getLogFile().logCheckpoint();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        synchronized (Database.getBufferPool()) {
+            checkpoint.start();
+            checkpoint.join(10_000);
+            assertFalse(checkpoint.isAlive());
+        }
+        assertTrue(errors.isEmpty());
+        crash();
+        assertEquals(1, count());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
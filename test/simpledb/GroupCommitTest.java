@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("grouplog", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    private Thread committer(List<Throwable> errors) {
+        Thread t = new Thread(() -> {
+            try {
+                TransactionId tid = new TransactionId();
+                log.logXactionBegin(tid);
+                log.logCommit(tid);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * Committers that arrive while a force is pending share it, and the force
+     * starts as soon as the group is full rather than after the delay.
+     */
+    @Test public void commitsShareForce() throws Exception {
+        log.setGroupCommit(10_000_000, 4);
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; ++i) {
+            threads.add(committer(errors));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, log.getForces());
+        assertTrue(log.isForced(log.getEnd()));
+    }
+
+    /**
+     * By default a lone committer forces the log at once.
+     */
+    @Test public void loneCommitterForces() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            assertFalse(log.isForced(log.getEnd()));
+            log.logCommit(tid);
+            assertTrue(log.isForced(log.getEnd()));
+        }
+        assertEquals(3, log.getForces());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class HeapFileMmapTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        // three pages of two int columns
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+        hf.setMemoryMapped(true);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in mmap mode
+     */
+    @Test
+    public void readPage() throws Exception {
+        assertTrue(hf.isMemoryMapped());
+        for (int i = 0; i < hf.numPages(); ++i) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            HeapPage mapped = (HeapPage) hf.readPage(pid);
+            hf.setMemoryMapped(false);
+            HeapPage read = (HeapPage) hf.readPage(pid);
+            hf.setMemoryMapped(true);
+            assertEquals(read.getNumUnusedSlots(), mapped.getNumUnusedSlots());
+            assertArrayEquals(read.getPageData(), mapped.getPageData());
+            assertArrayEquals(read.getBeforeImage().getPageData(),
+                    mapped.getBeforeImage().getPageData());
+        }
+    }
+
+    /**
+     * Unit test for the iterator of a memory-mapped HeapFile
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * A tuple read through the mapping keeps its values after its page is
+     * written with other ones
+     */
+    @Test
+    public void tupleOutlivesWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+        Tuple first = mapped.iterator().next();
+
+        hf.setMemoryMapped(false);
+        HeapPage other = (HeapPage) hf.readPage(pid);
+        hf.setMemoryMapped(true);
+        Tuple changed = other.iterator().next();
+        changed.setField(0, new IntField(-1));
+        changed.setField(1, new IntField(-2));
+        hf.writePage(other);
+        assertEquals(-1, ((IntField) ((HeapPage) hf.readPage(pid)).iterator().next().getField(0)).getValue());
+
+        assertEquals(tuples.get(0).get(0).intValue(), ((IntField) first.getField(0)).getValue());
+        assertEquals(tuples.get(0).get(1).intValue(), ((IntField) first.getField(1)).getValue());
+    }
+
+    /**
+     * The mapping follows the file when insertTuple appends pages
+     */
+    @Test
+    public void remapOnGrowth() throws Exception {
+        int pages = hf.numPages();
+        int added = 0;
+        while (hf.numPages() == pages) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(added, 2));
+            tuples.add(Arrays.asList(added, added));
+            ++added;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+
+        // the appended page (504 slots) holds exactly the last inserted tuple
+        HeapPage last = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pages));
+        assertEquals(503, last.getNumUnusedSlots());
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileMmapTest.class);
+    }
+}
@@ -125,6 +125,29 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan of some of the fields returns tuples of only those, still
+     * pointing at the stored tuples.
+     */
+    @Test
+    public void testIteratorColumns() throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(3, 10, null, rows);
+        DbFileIterator it = file.iterator(tid, new int[] { 2, 0 });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            List<Integer> row = rows.get(t.getRecordId().getTupleNumber());
+            assertEquals(new IntField(row.get(2)), t.getField(0));
+            assertEquals(new IntField(row.get(0)), t.getField(1));
+            count += 1;
+        }
+        assertEquals(10, count);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -7,12 +7,16 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +94,97 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts should skip full pages without keeping them locked, and reuse a
+     * page once a tuple was deleted from it.
+     */
+    @Test public void insertUsesFreeSpace() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        assertEquals(3, hf.numPages());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(4, hf.numPages());
+        for (int i = 0; i < 3; ++i) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 1) {
+                victim = t;
+                break;
+            }
+        }
+        it.close();
+        assertNotNull(victim);
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, hf.numPages());
+    }
+
+    /**
+     * A slot an aborted insert took is free again for the next insert.
+     */
+    @Test public void insertAfterAbort() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 503, null, null);
+        assertEquals(1, hf.numPages());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, hf.numPages());
+    }
+
+    /**
+     * Deleting by RecordId should touch only the pages the tuples live on.
+     */
+    @Test public void deleteTuples() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        List<Tuple> onPageTwo = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 2) {
+                onPageTwo.add(t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, onPageTwo.remove(0));
+        Database.getBufferPool().deleteTuples(tid, onPageTwo);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(504, page.getNumUnusedSlots());
+
+        Tuple stranger = Utility.getHeapTuple(1, 2);
+        stranger.setRecordId(new RecordId(new HeapPageId(hf.getId(), 7), 0));
+        try {
+            hf.deleteTuple(tid, stranger);
+            fail("deleted a tuple past the end of the file");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -13,6 +13,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -102,6 +103,36 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples decode their fields from the page bytes on demand: fields read in
+     * any order, or never, come back right, an untouched page serializes to
+     * the bytes it was read from, and a changed field is serialized instead
+     * of the bytes it replaced.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        assertEquals(EXAMPLE_VALUES.length, tuples.size());
+        for (int row = tuples.size() - 1; row >= 0; row -= 2) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tuples.get(row).getField(1)).getValue());
+        }
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        for (int row = 0; row < tuples.size(); ++row) {
+            assertEquals(EXAMPLE_VALUES[row][0] + "\t" + EXAMPLE_VALUES[row][1],
+                    tuples.get(row).toString());
+        }
+
+        tuples.get(2).setField(0, new IntField(-7));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int row = 0; it.hasNext(); ++row) {
+            Tuple t = it.next();
+            assertEquals(row == 2 ? -7 : EXAMPLE_VALUES[row][0], ((IntField) t.getField(0)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) t.getField(1)).getValue());
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
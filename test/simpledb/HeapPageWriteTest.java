@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -131,6 +133,28 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.writePageData(): a page with both unchanged and
+     * inserted tuples is written into a buffer holding older contents exactly as
+     * getPageData() returns it.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        for (int i = 0; i < 20; ++i) {
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        page.deleteTuple(page.iterator().next());
+
+        byte[] data = page.getPageData();
+        ByteBuffer buf = ByteBuffer.allocate(data.length + 8);
+        Arrays.fill(buf.array(), (byte) 0x5a);
+        buf.position(8);
+        page.writePageData(buf);
+        assertEquals(buf.capacity(), buf.position());
+        assertArrayEquals(data, Arrays.copyOfRange(buf.array(), 8, buf.capacity()));
+        assertArrayEquals(data, new HeapPage(pid, data).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
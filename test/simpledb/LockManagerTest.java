@@ -0,0 +1,403 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest {
+    // long enough for a thread to start waiting
+    private static final int SETTLE_MS = 100;
+
+    private final LockManager lm = new LockManager();
+    private final PageId p0 = new HeapPageId(1, 0);
+    private final PageId p1 = new HeapPageId(1, 1);
+    private final PageId p2 = new HeapPageId(1, 2);
+
+    /**
+     * Acquires a lock in a thread of its own and records whether it got it.
+     */
+    private class Waiter extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired = false;
+        volatile boolean aborted = false;
+
+        Waiter(TransactionId tid, Permissions perm) {
+            this(LockManagerTest.this.lm, tid, p0, perm);
+        }
+
+        Waiter(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    private static void settle() throws InterruptedException {
+        Thread.sleep(SETTLE_MS);
+    }
+
+    /**
+     * A shared request waits behind an exclusive one that arrived first, even
+     * though the lock is only held shared.
+     */
+    @Test public void writerNotOvertaken() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        Waiter writer = new Waiter(new TransactionId(), Permissions.READ_WRITE);
+        settle();
+        Waiter reader = new Waiter(new TransactionId(), Permissions.READ_ONLY);
+        settle();
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.release(t1, p0);
+        writer.join();
+        assertTrue(writer.acquired);
+        settle();
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(writer.tid);
+        reader.join();
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * The shared requests waiting at the front of the queue are granted
+     * together.
+     */
+    @Test public void sharedGroup() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        Waiter r1 = new Waiter(new TransactionId(), Permissions.READ_ONLY);
+        Waiter r2 = new Waiter(new TransactionId(), Permissions.READ_ONLY);
+        settle();
+        lm.releaseAll(t1);
+        r1.join();
+        r2.join();
+        assertTrue(r1.acquired);
+        assertTrue(r2.acquired);
+        assertTrue(lm.holdsLock(r1.tid, p0));
+        assertTrue(lm.holdsLock(r2.tid, p0));
+    }
+
+    /**
+     * The only holder of a shared lock is upgraded at once; otherwise the
+     * upgrade waits ahead of requests that arrived earlier.
+     */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.isLockedExclusive(p0));
+        lm.releaseAll(t1);
+
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        Waiter writer = new Waiter(new TransactionId(), Permissions.READ_WRITE);
+        settle();
+        Waiter upgrade = new Waiter(t1, Permissions.READ_WRITE);
+        settle();
+        lm.release(t2, p0);
+        upgrade.join();
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+        lm.releaseAll(t1);
+        writer.join();
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * A waiter is woken when the lock is released. Nothing else wakes it
+     * before MAX_WAIT_MS, when it would give up, so it has the lock well
+     * before then.
+     */
+    @Test public void wakeOnRelease() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        Waiter w = new Waiter(new TransactionId(), Permissions.READ_WRITE);
+        settle();
+        assertFalse(w.acquired);
+        lm.releaseAll(t1);
+        w.join(LockManager.MAX_WAIT_MS / 3);
+        assertTrue(w.acquired);
+    }
+
+    /**
+     * Two holders of a shared lock that both upgrade deadlock; the second is
+     * refused and the first gets the lock once the second gives up.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        Waiter upgrade = new Waiter(t1, Permissions.READ_WRITE);
+        settle();
+        try {
+            lm.acquire(t2, p0, Permissions.READ_WRITE);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAll(t2);
+        upgrade.join();
+        assertTrue(upgrade.acquired);
+        assertFalse(upgrade.aborted);
+    }
+
+    /**
+     * Sets up t1 waiting for t2 on p0 and has t2 close the cycle on p1,
+     * in threads, and returns the two waiters once one of them is refused.
+     */
+    private Waiter[] deadlock(LockManager lm, TransactionId t1, TransactionId t2)
+            throws Exception {
+        lm.acquire(t2, p0, Permissions.READ_WRITE);
+        lm.acquire(t1, p1, Permissions.READ_WRITE);
+        Waiter w1 = new Waiter(lm, t1, p0, Permissions.READ_WRITE);
+        settle();
+        Waiter w2 = new Waiter(lm, t2, p1, Permissions.READ_WRITE);
+        settle();
+        assertEquals(1, lm.getAborts());
+        return new Waiter[] { w1, w2 };
+    }
+
+    /**
+     * The detector aborts the youngest transaction of a cycle, whichever closed
+     * it, and the other one gets its lock once the victim releases its locks.
+     */
+    @Test public void youngestVictim() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.YOUNGEST);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        // the older transaction closes the cycle
+        Waiter[] w = deadlock(lm, younger, older);
+        assertTrue(w[0].aborted);
+        assertFalse(w[1].aborted);
+        lm.releaseAll(younger);
+        w[1].join();
+        assertTrue(w[1].acquired);
+    }
+
+    /**
+     * With FEWEST_LOCKS, the detector aborts the transaction of the cycle that
+     * holds the fewest locks, even if it is the oldest.
+     */
+    @Test public void fewestLocksVictim() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.FEWEST_LOCKS);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(younger, p2, Permissions.READ_ONLY);
+        Waiter[] w = deadlock(lm, older, younger);
+        assertTrue(w[0].aborted);
+        assertFalse(w[1].aborted);
+        lm.releaseAll(older);
+        w[1].join();
+        assertTrue(w[1].acquired);
+    }
+
+    /**
+     * Under wait-die, a transaction waits for younger ones only.
+     */
+    @Test public void waitDie() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, Permissions.READ_WRITE);
+        lm.acquire(younger, p1, Permissions.READ_WRITE);
+        try {
+            lm.acquire(younger, p0, Permissions.READ_ONLY);
+            fail("the younger transaction should die");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        Waiter w = new Waiter(lm, older, p1, Permissions.READ_ONLY);
+        settle();
+        assertFalse(w.aborted);
+        lm.releaseAll(younger);
+        w.join();
+        assertTrue(w.acquired);
+    }
+
+    /**
+     * Under wound-wait, an older transaction aborts a younger one it waits for,
+     * at once if the younger one waits too, and at its next request otherwise.
+     */
+    @Test public void woundWait() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(younger, p0, Permissions.READ_WRITE);
+        Waiter w = new Waiter(lm, older, p0, Permissions.READ_WRITE);
+        settle();
+        try {
+            lm.acquire(younger, p1, Permissions.READ_ONLY);
+            fail("the younger transaction should be wounded");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAll(younger);
+        w.join();
+        assertTrue(w.acquired);
+    }
+
+    /**
+     * The queue of a page is dropped once nobody holds or waits for a lock on
+     * it, and made again by the next request. The table of the pages has a
+     * queue too, for the intention locks.
+     */
+    @Test public void queuesCollected() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p1, Permissions.READ_WRITE);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        assertEquals(3, lm.getQueueCount());
+        lm.releaseAll(t1);
+        assertEquals(2, lm.getQueueCount());
+        assertTrue(lm.holdsLock(t2, p0));
+        lm.release(t2, p0);
+        assertEquals(1, lm.getQueueCount());
+        lm.releaseAll(t2);
+        assertEquals(0, lm.getQueueCount());
+
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.isLockedExclusive(p0));
+        assertEquals(2, lm.getQueueCount());
+    }
+
+    /**
+     * Intention locks on a table let readers and writers of different pages
+     * in, and a table S lock keeps writers of any page out.
+     */
+    @Test public void tableLocks() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(reader, p0, Permissions.READ_ONLY);
+        lm.acquire(writer, p1, Permissions.READ_WRITE);
+        lm.releaseAll(writer);
+
+        lm.acquireTable(reader, 1, Permissions.READ_ONLY);
+        // the table lock covers the page lock, which is dropped
+        assertEquals(1, lm.getQueueCount());
+        assertTrue(lm.holdsLock(reader, p2));
+        Waiter w = new Waiter(lm, writer, p1, Permissions.READ_WRITE);
+        settle();
+        assertFalse(w.acquired);
+        lm.releaseAll(reader);
+        w.join();
+        assertTrue(w.acquired);
+        lm.releaseAll(writer);
+    }
+
+    /**
+     * A transaction that reads more pages of a table than the threshold is
+     * escalated to a table S lock and holds no page locks; one that also
+     * writes it gets a table X lock.
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p1, Permissions.READ_ONLY);
+        assertEquals(3, lm.getQueueCount());
+        lm.acquire(t1, p2, Permissions.READ_ONLY);
+        assertEquals(1, lm.getQueueCount());
+        assertTrue(lm.holdsLock(t1, new HeapPageId(1, 100)));
+        assertFalse(lm.isLockedExclusive(p0));
+
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t1, p1, Permissions.READ_WRITE);
+        lm.acquire(t1, p2, Permissions.READ_WRITE);
+        assertEquals(1, lm.getQueueCount());
+        assertTrue(lm.isLockedExclusive(new HeapPageId(1, 100)));
+        lm.releaseAll(t1);
+        assertEquals(0, lm.getQueueCount());
+    }
+
+    /**
+     * Lock modes combine and conflict as the hierarchy says.
+     */
+    /**
+     * Row locks of different transactions on one page are granted at once
+     * under IX page locks, which keep out a shared page lock, and count
+     * towards escalation.
+     */
+    @Test public void rowLocks() throws Exception {
+        RecordId r0 = new RecordId(p0, 0);
+        RecordId r1 = new RecordId(p0, 1);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireRow(t1, r0, Permissions.READ_WRITE);
+        assertTrue(lm.tryAcquireRow(t2, r1, Permissions.READ_WRITE));
+        assertFalse(lm.tryAcquireRow(t2, r0, Permissions.READ_WRITE));
+        assertTrue(lm.holdsLock(t1, r0));
+        assertFalse(lm.holdsLock(t1, r1));
+        assertFalse(lm.isLockedExclusive(p0));
+        assertTrue(lm.isLockedByOthers(t1, p0));
+        TransactionId reader = new TransactionId();
+        assertFalse(lm.tryAcquire(reader, p0, Permissions.READ_ONLY));
+        lm.releaseAll(reader);
+        lm.releaseAll(t2);
+        assertFalse(lm.isLockedByOthers(t1, p0));
+
+        lm.setEscalationThreshold(2);
+        lm.acquireRow(t1, r1, Permissions.READ_WRITE);
+        assertTrue(lm.tryAcquireRow(t1, new RecordId(p1, 0), Permissions.READ_WRITE));
+        assertEquals(1, lm.getQueueCount());
+        assertTrue(lm.holdsLock(t1, new RecordId(p2, 5)));
+        assertTrue(lm.isLockedExclusive(p2));
+        lm.releaseAll(t1);
+        assertEquals(0, lm.getQueueCount());
+    }
+
+    @Test public void lockModes() {
+        LockManager.LockMode is = LockManager.LockMode.IS;
+        LockManager.LockMode ix = LockManager.LockMode.IX;
+        LockManager.LockMode s = LockManager.LockMode.S;
+        LockManager.LockMode six = LockManager.LockMode.SIX;
+        LockManager.LockMode x = LockManager.LockMode.X;
+        assertEquals(six, s.join(ix));
+        assertEquals(six, ix.join(s));
+        assertEquals(s, is.join(s));
+        assertEquals(x, six.join(x));
+        assertTrue(is.isCompatibleWith(six));
+        assertTrue(ix.isCompatibleWith(ix));
+        assertFalse(ix.isCompatibleWith(s));
+        assertFalse(six.isCompatibleWith(ix));
+        assertFalse(is.isCompatibleWith(x));
+        assertTrue(six.covers(s));
+        assertFalse(s.covers(ix));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class LogBufferTest extends SimpleDbTestBase {
+    // BEGIN and COMMIT records: type, tid, start offset
+    private static final int RECORD_SIZE = 4 + 8 + 8;
+    private static final int BEGIN = 4;
+    private static final int COMMIT = 2;
+
+    private File f;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("logbuffer", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    /**
+     * Records are kept in memory until the log is forced.
+     */
+    @Test public void buffered() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        assertTrue(log.getSegmentFiles().isEmpty());
+        log.force();
+        assertEquals(1, log.getSegmentFiles().size());
+        assertEquals(RECORD_SIZE, log.getSegmentFiles().get(0).length());
+        assertEquals(RECORD_SIZE, log.getEnd());
+    }
+
+    /**
+     * Records appended by many threads at once reach the file whole, each
+     * ending with its own offset, and in order for each transaction.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        List<Thread> ts = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            ts.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; ++i) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread t : ts) {
+            t.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+
+        Map<Long, Integer> last = new HashMap<>();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            assertEquals(-1, raf.readLong());
+        }
+        assertEquals(1, log.getSegmentFiles().size());
+        try (RandomAccessFile raf = new RandomAccessFile(log.getSegmentFiles().get(0), "r")) {
+            while (raf.getFilePointer() < raf.length()) {
+                long offset = raf.getFilePointer();
+                int type = raf.readInt();
+                long tid = raf.readLong();
+                assertEquals(offset, raf.readLong());
+                if (type == BEGIN) {
+                    assertNull(last.put(tid, type));
+                } else {
+                    assertEquals(COMMIT, type);
+                    assertEquals(Integer.valueOf(BEGIN), last.put(tid, type));
+                }
+            }
+        }
+        assertEquals(threads * perThread, last.size());
+        assertFalse(last.containsValue(BEGIN));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.EOFException;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+    private File f;
+    private PageChannel io;
+
+    @Before public void createChannel() throws Exception {
+        f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        io = new PageChannel(f);
+    }
+
+    @After public void closeChannel() throws Exception {
+        io.close();
+    }
+
+    private static byte[] page(int seed) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    /**
+     * Unit test for PageChannel.write() and PageChannel.read()
+     */
+    @Test public void writeThenRead() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        io.write(0, page(1));
+        io.write(2L * pageSize, page(3));
+        assertEquals(3L * pageSize, io.size());
+        assertEquals(f.length(), io.size());
+
+        assertArrayEquals(page(1), io.read(0, pageSize));
+        assertArrayEquals(page(3), io.read(2L * pageSize, pageSize));
+        // the gap reads back as zeroes
+        assertArrayEquals(new byte[pageSize], io.read(pageSize, pageSize));
+
+        // overwrite in place
+        io.write(0, page(7));
+        assertArrayEquals(page(7), io.read(0, pageSize));
+    }
+
+    /**
+     * Unit test for PageChannel.read() past the end of the file
+     */
+    @Test(expected = EOFException.class) public void readPastEnd() throws Exception {
+        io.write(0, page(1));
+        io.read(BufferPool.getPageSize(), BufferPool.getPageSize());
+    }
+
+    /**
+     * A page the file ends within reads as if padded with zeros, through the
+     * mapping as well as positional reads
+     */
+    @Test public void readPartialPage() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        io.write(0, page(1));
+        io.write(pageSize, new byte[] { 1, 2, 3 });
+        byte[] expected = new byte[pageSize];
+        expected[0] = 1;
+        expected[1] = 2;
+        expected[2] = 3;
+        assertArrayEquals(expected, io.read(pageSize, pageSize));
+        // left to read()
+        assertNull(io.slice(pageSize, pageSize));
+        assertNotNull(io.slice(0, pageSize));
+    }
+
+    /**
+     * A file too large to be mapped in one piece is read positionally
+     */
+    @Test public void unmappableFile() throws Exception {
+        long offset = (long) Integer.MAX_VALUE + 1;
+        // sparse, so it takes no space
+        io.write(offset, page(9));
+        assertNull(io.slice(offset, BufferPool.getPageSize()));
+        assertNull(io.slice(0, BufferPool.getPageSize()));
+        assertArrayEquals(page(9), io.read(offset, BufferPool.getPageSize()));
+    }
+
+    /**
+     * Unit test for PageChannel.close(); the channel reopens on demand
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        io.write(0, page(5));
+        io.close();
+        assertArrayEquals(page(5), io.read(0, BufferPool.getPageSize()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class ParallelRecoveryTest extends SimpleDbTestBase {
+    private File file;
+    private File otherFile;
+    private HeapFile hf;
+    private HeapFile other;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("parallel", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        otherFile = File.createTempFile("parallel", ".dat");
+        otherFile.deleteOnExit();
+        other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+        // committed pages stay unwritten
+        Database.getBufferPool().close();
+    }
+
+    private void insert(Transaction t, HeapFile f, int first, int count) throws Exception {
+        for (int i = first; i < first + count; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int count(HeapFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++count;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    private void crash(int threads) throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        other = Utility.openHeapFile(2, otherFile);
+        Database.getLogFile().setRecoveryThreads(threads);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * Committed changes to many pages are redone by several threads.
+     */
+    @Test public void redoInParallel() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, hf, i * 300, 300);
+            t.commit();
+        }
+        crash(4);
+        assertEquals(3000, count(hf));
+        assertTrue(hf.numPages() > 4);
+    }
+
+    /**
+     * The changes of a transaction that did not finish are undone by
+     * following its chain of UPDATE records, past those of the transactions
+     * that ran beside it.
+     */
+    @Test public void undoFollowsBackChain() throws Exception {
+        Transaction loser = new Transaction();
+        loser.start();
+        Transaction winner = new Transaction();
+        winner.start();
+        // the loser's pages reach disk before it finishes
+        insert(loser, hf, 0, 600);
+        Database.getBufferPool().flushPages(loser.getId());
+        insert(winner, other, 1000, 10);
+        winner.commit();
+        insert(loser, hf, 2000, 600);
+        Database.getBufferPool().flushPages(loser.getId());
+        crash(2);
+        assertEquals(0, count(hf));
+        assertEquals(10, count(other));
+    }
+
+    /**
+     * Rolling back a transaction follows its chain of UPDATE records.
+     */
+    @Test public void abortFollowsBackChain() throws Exception {
+        Transaction winner = new Transaction();
+        winner.start();
+        insert(winner, hf, 0, 10);
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, hf, 100, 600);
+        Database.getBufferPool().flushPages(loser.getId());
+        loser.abort();
+        assertEquals(10, count(hf));
+        crash(1);
+        assertEquals(10, count(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelRecoveryTest.class);
+    }
+}
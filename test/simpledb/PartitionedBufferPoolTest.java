@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PartitionedBufferPoolTest extends SimpleDbTestBase {
+    // rows of two int columns per HeapPage
+    private static final int ROWS_PER_PAGE = 504;
+    private static final int PARTITIONS = 4;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 32 * ROWS_PER_PAGE, null, null);
+    }
+
+    private PageId page(int n) {
+        return new HeapPageId(hf.getId(), n);
+    }
+
+    private int bufferedPages() {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); ++i) {
+            if (Database.getBufferPool().isBuffered(page(i))) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The partitions share the capacity of the buffer pool.
+     */
+    @Test public void partitionsShareCapacity() throws Exception {
+        BufferPool pool = Database.resetBufferPool(8, PARTITIONS, pages -> new LRUPolicy());
+        assertEquals(PARTITIONS, pool.getPartitions());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; ++i) {
+            pool.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertEquals(8, bufferedPages());
+        assertEquals(12, pool.getEvictions());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A miss in a partition that holds no page evicts from another one.
+     */
+    @Test public void evictsFromOtherPartition() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4, PARTITIONS, pages -> new LRUPolicy());
+        TransactionId tid = new TransactionId();
+        // pages whose numbers differ by a multiple of PARTITIONS share a partition
+        for (int i = 0; i < 4; ++i) {
+            pool.getPage(tid, page(i * PARTITIONS), Permissions.READ_ONLY);
+        }
+        pool.getPage(tid, page(1), Permissions.READ_ONLY);
+        assertTrue(pool.isBuffered(page(1)));
+        assertFalse(pool.isBuffered(page(0)));
+        assertEquals(4, bufferedPages());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Threads reading the same pages at once all get the pages they asked for,
+     * and none of them is evicted.
+     */
+    @Test public void concurrentHits() throws Exception {
+        BufferPool pool = Database.resetBufferPool(64, PARTITIONS, pages -> new LRUPolicy());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        List<TransactionId> tids = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            TransactionId tid = new TransactionId();
+            tids.add(tid);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 50; ++round) {
+                        for (int i = 0; i < hf.numPages(); ++i) {
+                            Page p = pool.getPage(tid, page(i), Permissions.READ_ONLY);
+                            assertEquals(page(i), p.getId());
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(hf.numPages(), bufferedPages());
+        assertEquals(0, pool.getEvictions());
+        for (TransactionId tid : tids) {
+            pool.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedBufferPoolTest.class);
+    }
+}
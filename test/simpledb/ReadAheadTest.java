@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    // rows of two int columns per HeapPage
+    private static final int ROWS_PER_PAGE = 504;
+    private static final int PAGES = 40;
+
+    /**
+     * A HeapFile on a slow disk, so that its pages are worth reading ahead.
+     */
+    private static class SlowHeapFile extends HeapFile {
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private static HeapFile createSlowHeapFile() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, PAGES * ROWS_PER_PAGE, 1000,
+                null, null);
+        HeapFile hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "slow");
+        return hf;
+    }
+
+    private static boolean awaitBuffered(PageId pid) throws InterruptedException {
+        for (int i = 0; i < 200 && !Database.getBufferPool().isBuffered(pid); ++i) {
+            Thread.sleep(10);
+        }
+        return Database.getBufferPool().isBuffered(pid);
+    }
+
+    /**
+     * A sequential HeapFile scan on a slow disk loads the pages after the one it
+     * is reading, without locking them, and still returns every tuple once.
+     */
+    @Test public void heapScanReadsAhead() throws Exception {
+        HeapFile hf = createSlowHeapFile();
+        Database.resetBufferPool(100);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int rows = 0;
+        while (rows <= 3 * ROWS_PER_PAGE) {
+            assertTrue(it.hasNext());
+            it.next();
+            ++rows;
+        }
+        PageId ahead = new HeapPageId(hf.getId(), 5);
+        assertTrue(awaitBuffered(ahead));
+        assertFalse(Database.getBufferPool().holdsLock(tid, ahead));
+
+        while (it.hasNext()) {
+            it.next();
+            ++rows;
+        }
+        it.close();
+        assertEquals(PAGES * ROWS_PER_PAGE, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages that arrive in time grow the window up to a quarter of the buffer
+     * pool; a scan that is not sequential reads nothing ahead.
+     */
+    @Test public void windowAdapts() throws Exception {
+        HeapFile hf = createSlowHeapFile();
+        Database.resetBufferPool(40);
+        TransactionId tid = new TransactionId();
+        ReadAhead readAhead = new ReadAhead(page -> {
+            int next = page.getId().getPageNumber() + 1;
+            return next < hf.numPages() ? new HeapPageId(hf.getId(), next) : null;
+        }, ReadAhead.DEFAULT_MAX_WINDOW);
+        for (int i = 0; i < PAGES; ++i) {
+            readAhead.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            if (i > 0) {
+                // give the prefetcher time to keep ahead
+                awaitBuffered(new HeapPageId(hf.getId(), Math.min(i + 1, PAGES - 1)));
+            }
+        }
+        assertEquals(10, readAhead.getWindow());
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(40);
+        tid = new TransactionId();
+        readAhead.reset();
+        for (int i = 0; i < PAGES; i += 2) {
+            readAhead.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        Thread.sleep(100);
+        assertFalse(Database.getBufferPool().isBuffered(new HeapPageId(hf.getId(), 1)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree scan follows the right siblings of the leaves ahead of the
+     * iterator and returns the tuples in key order.
+     */
+    @Test public void btreeScanReadsAhead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        Database.resetBufferPool(100);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int rows = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            ++rows;
+        }
+        it.close();
+        assertEquals(tuples.size(), rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class RowLockTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile hf;
+    private List<Tuple> rows;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("rowlock", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 10; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+        rows = scan();
+    }
+
+    // the tuples of the table, read in a transaction of their own
+    private List<Tuple> scan() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        t.commit();
+        return tuples;
+    }
+
+    private List<Integer> values() throws Exception {
+        List<Integer> values = new ArrayList<>();
+        for (Tuple t : scan()) {
+            values.add(((IntField) t.getField(0)).getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Two transactions delete different rows of one page without waiting for
+     * each other, and each commits or rolls back only its own.
+     */
+    @Test public void differentRowsOfOnePage() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().deleteTuple(t1.getId(), rows.get(3));
+        Database.getBufferPool().deleteTuple(t2.getId(), rows.get(7));
+        assertTrue(Database.getBufferPool().holdsLock(t1.getId(), rows.get(3).getRecordId()));
+        assertFalse(Database.getBufferPool().holdsLock(t1.getId(), rows.get(7).getRecordId()));
+        assertTrue(Database.getBufferPool().holdsLock(t2.getId(), rows.get(7).getRecordId()));
+
+        t1.commit();
+        t2.abort();
+        List<Integer> values = values();
+        assertEquals(9, values.size());
+        assertFalse(values.contains(3));
+        assertTrue(values.contains(7));
+    }
+
+    /**
+     * An insert does not take the slot of a row that a running transaction
+     * deleted, so that the row can come back if it aborts.
+     */
+    @Test public void insertSkipsDeletedSlot() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Database.getBufferPool().deleteTuple(t1.getId(), rows.get(0));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        Tuple added = Utility.getHeapTuple(100, 2);
+        Database.getBufferPool().insertTuple(t2.getId(), hf.getId(), added);
+        assertEquals(0, added.getRecordId().getPageId().getPageNumber());
+        assertNotEquals(rows.get(0).getRecordId(), added.getRecordId());
+
+        t1.abort();
+        t2.commit();
+        List<Integer> values = values();
+        assertEquals(11, values.size());
+        assertTrue(values.contains(0));
+        assertTrue(values.contains(100));
+    }
+
+    /**
+     * A shared lock on the page waits until the transactions changing rows of
+     * it complete.
+     */
+    @Test public void pageReaderWaitsForRowWriters() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Database.getBufferPool().deleteTuple(t1.getId(), rows.get(5));
+
+        Transaction t2 = new Transaction();
+        TestUtil.LockGrabber reader = new TestUtil.LockGrabber(t2.getId(),
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        reader.start();
+        Thread.sleep(200);
+        assertFalse(reader.acquired());
+
+        t1.commit();
+        reader.join(5000);
+        assertTrue(reader.acquired());
+        Database.getBufferPool().transactionComplete(t2.getId());
+    }
+
+    /**
+     * The log record of a commit holds only the rows of the transaction, so
+     * recovery does not bring back the rows of another one that was running.
+     */
+    @Test public void commitLogsOwnRows() throws Exception {
+        // committed pages stay unwritten
+        Database.getBufferPool().close();
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getBufferPool().insertTuple(loser.getId(), hf.getId(), Utility.getHeapTuple(200, 2));
+        Transaction winner = new Transaction();
+        winner.start();
+        Database.getBufferPool().insertTuple(winner.getId(), hf.getId(), Utility.getHeapTuple(300, 2));
+        winner.commit();
+
+        crash();
+        List<Integer> values = values();
+        assertEquals(11, values.size());
+        assertTrue(values.contains(300));
+        assertFalse(values.contains(200));
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class SegmentedLogTest extends SimpleDbTestBase {
+    private File file;
+    private File otherFile;
+    private HeapFile hf;
+    private HeapFile other;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("segmented", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        otherFile = File.createTempFile("segmented", ".dat");
+        otherFile.deleteOnExit();
+        other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+        Database.getLogFile().setSegmentSize(4096);
+    }
+
+    private void insert(Transaction t, HeapFile f, int first, int count) throws Exception {
+        for (int i = first; i < first + count; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private void commitInserts(int transactions) throws Exception {
+        for (int i = 0; i < transactions; ++i) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, hf, i, 1);
+            t.commit();
+        }
+    }
+
+    private int count(HeapFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++count;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        other = Utility.openHeapFile(2, otherFile);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * Truncation deletes the segments before the last checkpoint once the
+     * pages they changed are on disk, and the rest of the log still recovers.
+     */
+    @Test public void truncationDropsSegments() throws Exception {
+        commitInserts(200);
+        List<File> before = Database.getLogFile().getSegmentFiles();
+        assertTrue(before.size() > 2);
+        Database.getBufferPool().writeCommittedPages();
+        Database.getLogFile().logCheckpoint();
+        List<File> after = Database.getLogFile().getSegmentFiles();
+        assertEquals(1, after.size());
+        assertFalse(before.get(0).exists());
+
+        commitInserts(20);
+        crash();
+        assertEquals(220, count(hf));
+    }
+
+    /**
+     * Truncation keeps the segments from the first record of the oldest
+     * running transaction, which can still roll back.
+     */
+    @Test public void truncationKeepsRunningTransaction() throws Exception {
+        Transaction running = new Transaction();
+        running.start();
+        Database.getLogFile().force();
+        List<File> first = Database.getLogFile().getSegmentFiles();
+        insert(running, other, 0, 10);
+        Database.getBufferPool().flushPages(running.getId());
+
+        commitInserts(200);
+        Database.getBufferPool().writeCommittedPages();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(first.get(0).exists());
+
+        running.abort();
+        assertEquals(0, count(other));
+        crash();
+        assertEquals(0, count(other));
+        assertEquals(200, count(hf));
+    }
+
+    /**
+     * Records that do not fit in what is left of a segment continue in the
+     * next one.
+     */
+    @Test public void recordsSpanSegments() throws Exception {
+        Database.getLogFile().setSegmentSize(50);
+        commitInserts(10);
+        assertTrue(Database.getLogFile().getSegmentFiles().size() > 10);
+        crash();
+        assertEquals(10, count(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
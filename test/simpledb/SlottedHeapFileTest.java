@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc td = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private SlottedHeapFile slotted;
+    private HeapFile heap;
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<String> scan(DbFile f, TransactionId tid) throws Exception {
+        List<String> rows = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    @Before public void setUp() throws Exception {
+        slotted = new SlottedHeapFile(tempFile(), td);
+        heap = new HeapFile(tempFile(), td);
+        Database.getCatalog().addTable(slotted, "slotted");
+        Database.getCatalog().addTable(heap, "heap");
+    }
+
+    /**
+     * Short strings should take several times fewer pages than in a HeapFile,
+     * and read back unchanged.
+     */
+    @Test public void insertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            Tuple t = tuple(i, "name" + i);
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, slotted.getId(), t);
+            Database.getBufferPool().insertTuple(tid, heap.getId(), tuple(i, "name" + i));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(slotted.numPages() * 5 <= heap.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(expected, scan(slotted, tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleting compacts the page, keeps the other RecordIds valid and frees the
+     * space for new tuples.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        TransactionId tid = new TransactionId();
+        SlottedPage page = new SlottedPage(new HeapPageId(slotted.getId(), 0),
+                SlottedPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        int i = 0;
+        while (page.canInsert(tuple(i, "some name " + i))) {
+            Tuple t = tuple(i, "some name " + i);
+            page.insertTuple(t);
+            tuples.add(t);
+            ++i;
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(tuples.get(3));
+        page.deleteTuple(tuples.get(10));
+        assertEquals(free + SlottedPage.getRecordSize(tuples.get(3))
+                + SlottedPage.getRecordSize(tuples.get(10)), page.getFreeSpace());
+
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ++n) {
+            Tuple t = it.next();
+            Tuple expected = tuples.get(t.getRecordId().getTupleNumber());
+            assertEquals(expected.toString(), t.toString());
+        }
+        assertEquals(tuples.size() - 2, n);
+
+        // the freed slots are reused
+        Tuple t = tuple(-1, "x");
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().getTupleNumber());
+
+        // and the page survives a round trip through its bytes
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertEquals(page.getNumSlots(), copy.getNumSlots());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleting through the buffer pool and aborting restores the page.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; ++i) {
+            Database.getBufferPool().insertTuple(tid, slotted.getId(), tuple(i, "n" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> victims = new ArrayList<>();
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                victims.add(t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuples(tid, victims);
+        assertEquals(50, scan(slotted, tid).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(100, scan(slotted, tid).size());
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(slotted.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(100, page.getNumSlots());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Catalog.loadSchema should pick the storage format of each table.
+     */
+    @Test public void loadSchema() throws Exception {
+        File catalog = tempFile();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("plain (id int, name string)\n");
+            w.write("texts (id int pk, name string) slotted\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("plain")) instanceof HeapFile);
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("texts")) instanceof SlottedHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
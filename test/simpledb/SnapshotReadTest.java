@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class SnapshotReadTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private List<Tuple> rows;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = File.createTempFile("snapshot", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(hf, "snapshot");
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 10; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+        rows = new ArrayList<>();
+        Transaction reader = new Transaction(true);
+        reader.start();
+        SeqScan scan = new SeqScan(reader.getId(), hf.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            rows.add(scan.next());
+        }
+        scan.close();
+        reader.commit();
+    }
+
+    // the first field of each row the transaction sees
+    private List<Integer> values(Transaction t) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            values.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        scan.close();
+        return values;
+    }
+
+    /**
+     * A snapshot does not see what commits after it began, and the versions
+     * it needed are dropped once it completes.
+     */
+    @Test public void ignoresLaterCommits() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().deleteTuple(writer.getId(), rows.get(0));
+        Database.getBufferPool().insertTuple(writer.getId(), hf.getId(), Utility.getHeapTuple(100, 2));
+        writer.commit();
+
+        List<Integer> before = values(reader);
+        assertEquals(10, before.size());
+        assertTrue(before.contains(0));
+        assertFalse(before.contains(100));
+        assertTrue(Database.getBufferPool().getPageVersions() > 0);
+        reader.commit();
+        assertEquals(0, Database.getBufferPool().getPageVersions());
+
+        Transaction later = new Transaction(true);
+        later.start();
+        List<Integer> after = values(later);
+        assertFalse(after.contains(0));
+        assertTrue(after.contains(100));
+        later.commit();
+    }
+
+    /**
+     * A snapshot reads pages a writer is changing without waiting for it, and
+     * takes no lock that would hold the writer up.
+     */
+    @Test public void readersAndWritersDoNotWait() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().deleteTuple(writer.getId(), rows.get(3));
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertTrue(values(reader).contains(3));
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertFalse(Database.getBufferPool().holdsLock(reader.getId(), pid));
+        writer.commit();
+
+        Transaction other = new Transaction();
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(other.getId(), pid,
+                Permissions.READ_WRITE);
+        grabber.start();
+        grabber.join(5000);
+        assertTrue(grabber.acquired());
+        assertTrue(values(reader).contains(3));
+        Database.getBufferPool().transactionComplete(other.getId());
+        reader.commit();
+    }
+
+    /**
+     * A page written to disk with uncommitted changes is read as committed
+     * until its transaction commits.
+     */
+    @Test public void writtenPageReadsCommittedVersion() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().insertTuple(writer.getId(), hf.getId(), Utility.getHeapTuple(200, 2));
+        Database.getBufferPool().flushPages(writer.getId());
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertFalse(values(reader).contains(200));
+        writer.commit();
+        assertFalse(values(reader).contains(200));
+        reader.commit();
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertTrue(values(later).contains(200));
+        later.commit();
+    }
+
+    /**
+     * A committing transaction keeps its locks until its COMMIT record is on
+     * disk, and snapshots begun meanwhile do not see its changes.
+     */
+    @Test public void commitPublishedAfterLog() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().deleteTuple(writer.getId(), rows.get(5));
+        Database.getBufferPool().prepareCommit(writer.getId());
+        assertTrue(Database.getBufferPool().holdsLock(writer.getId(), rows.get(5).getRecordId()));
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertTrue(values(reader).contains(5));
+        Database.getLogFile().logCommit(writer.getId());
+        Database.getBufferPool().transactionComplete(writer.getId(), true);
+        assertFalse(Database.getBufferPool().holdsLock(writer.getId(), rows.get(5).getRecordId()));
+        assertTrue(values(reader).contains(5));
+        reader.commit();
+        assertEquals(0, Database.getBufferPool().getPageVersions());
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertFalse(values(later).contains(5));
+        later.commit();
+    }
+
+    /**
+     * Snapshots share the committed version of a page until a commit replaces
+     * it.
+     */
+    @Test public void sharesCommittedVersion() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Transaction reader = new Transaction(true);
+        reader.start();
+        Page first = Database.getBufferPool().getPage(reader.getId(), pid, Permissions.READ_ONLY);
+        assertSame(first, Database.getBufferPool().getPage(reader.getId(), pid, Permissions.READ_ONLY));
+        reader.commit();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().deleteTuple(writer.getId(), rows.get(0));
+        writer.commit();
+
+        Transaction later = new Transaction(true);
+        later.start();
+        Page next = Database.getBufferPool().getPage(later.getId(), pid, Permissions.READ_ONLY);
+        assertNotSame(first, next);
+        assertFalse(values(later).contains(0));
+        later.commit();
+    }
+
+    /**
+     * A read-only transaction may not change anything.
+     */
+    @Test public void refusesWrites() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            Database.getBufferPool().insertTuple(reader.getId(), hf.getId(), Utility.getHeapTuple(300, 2));
+            fail("a read-only transaction inserted a tuple");
+        } catch (DbException e) {
+            // expected
+        }
+        reader.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.benchmark;
+
+import java.util.Locale;
+
+/**
+ * Small helpers shared by the benchmarks in this package, all run with
+ * <code>ant runbench -Dbench=BenchmarkName</code>.
+ * <p>
+ * A benchmark of one small operation on objects in memory is written for JMH
+ * (see {@link PageEncodeBenchmark}), whose forks, warmup and profilers make
+ * its numbers trustworthy. The others drive a whole workload through the
+ * buffer pool, the log or the lock manager, with threads and files of their
+ * own set up once per run, so they are plain programs timed with these
+ * helpers: each one warms up the JIT before the measured rounds and reports
+ * the best round.
+ */
+public class BenchmarkUtil {
+
+    /**
+     * A measured piece of work; returns the number of operations it did.
+     */
+    public interface Work {
+        long run() throws Exception;
+    }
+
+    /**
+     * Runs the work a few times to warm up and then reports the best rate over
+     * the measured rounds, in operations per second.
+     *
+     * @param name   the label printed next to the rate
+     * @param unit   what one operation is, e.g. "pages"
+     * @param rounds the number of measured rounds
+     * @param work   the work to time
+     * @return the best rate observed
+     */
+    public static double measure(String name, String unit, int rounds, Work work)
+            throws Exception {
+        for (int i = 0; i < 2; ++i) {
+            work.run();
+        }
+        double best = 0;
+        for (int i = 0; i < rounds; ++i) {
+            long start = System.nanoTime();
+            long ops = work.run();
+            long elapsed = System.nanoTime() - start;
+            best = Math.max(best, ops * 1e9 / Math.max(elapsed, 1));
+        }
+        report(name, best, unit + "/sec");
+        return best;
+    }
+
+    /**
+     * Prints one aligned result line.
+     */
+    public static void report(String name, double value, String unit) {
+        System.out.println(String.format(Locale.ROOT, "%-48s %14.1f %s", name, value, unit));
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if the JVM does
+     *         not expose per-thread allocation counters
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs SELECT SUM(c3) FROM t WHERE c7 &lt; x over a wide table of 20 int
+ * columns stored as a HeapFile and as a ColumnarFile, and reports the pages
+ * each scan has to read besides its throughput.
+ */
+public class ColumnScanBenchmark {
+
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 50000;
+
+    private static long query(DbFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        OpIterator scan = new SeqScan(tid, f.getId(), "t", new int[] { 3, 7 });
+        // the scan returns c3 and c7 as fields 0 and 1
+        OpIterator filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1 << 15)), scan);
+        OpIterator sum = new Aggregate(filter, 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        long result = ((IntField) sum.next().getField(0)).getValue();
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, rows, "c");
+
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        ColumnarFile cf = new ColumnarFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(cf, "columnar");
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        int[] values = new int[COLUMNS];
+        for (int r = 0; r < ROWS; ++r) {
+            for (int i = 0; i < COLUMNS; ++i) {
+                values[i] = rows.get(r).get(i);
+            }
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getTuple(values, COLUMNS));
+            if (r % 10000 == 9999) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < COLUMNS; ++i) {
+            cf.getColumnFile(i).deleteOnExit();
+        }
+
+        if (query(hf) != query(cf)) {
+            throw new IllegalStateException("HeapFile and ColumnarFile disagree");
+        }
+        System.out.println(ROWS + " rows x " + COLUMNS + " int columns, query reads 2 columns");
+        BenchmarkUtil.report("HeapFile pages read", hf.numPages(), "pages");
+        BenchmarkUtil.report("ColumnarFile pages read", cf.numPages(3) + cf.numPages(7), "pages");
+        BenchmarkUtil.measure("HeapFile SUM/WHERE", "rows", 5, () -> {
+            query(hf);
+            return ROWS;
+        });
+        BenchmarkUtil.measure("ColumnarFile SUM/WHERE", "rows", 5, () -> {
+            query(cf);
+            return ROWS;
+        });
+        Database.reset();
+    }
+}
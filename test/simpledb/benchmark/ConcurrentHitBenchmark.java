@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUPolicy;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many cache hits per second threads reading pages of a table
+ * that fits in the buffer pool get, with the buffer pool in one partition,
+ * where every hit takes the same monitor, and in one partition per thread.
+ * Throughput can only grow with the number of threads up to the number of
+ * processors, which is printed first.
+ */
+public class ConcurrentHitBenchmark {
+
+    private static final int TABLE_PAGES = 1000;
+    private static final int POOL_PAGES = 2 * TABLE_PAGES;
+    private static final int HITS_PER_THREAD = 500_000;
+    private static final int COLUMNS = 2;
+
+    private static HeapFile createTable() throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, TABLE_PAGES * rowsPerPage,
+                1000, null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        Database.getCatalog().addTable(hf, f.getName());
+        return hf;
+    }
+
+    private static double run(HeapFile hf, int partitions, int threads) throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, partitions, pages -> new LRUPolicy());
+        PageId[] ids = new PageId[TABLE_PAGES];
+        TransactionId warmup = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; ++i) {
+            ids[i] = new HeapPageId(hf.getId(), i);
+            pool.getPage(warmup, ids[i], Permissions.READ_ONLY);
+        }
+        pool.transactionComplete(warmup);
+
+        List<Thread> workers = new ArrayList<>();
+        List<TransactionId> tids = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            TransactionId tid = new TransactionId();
+            Random rand = new Random(t);
+            tids.add(tid);
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < HITS_PER_THREAD; ++i) {
+                        pool.getPage(tid, ids[rand.nextInt(TABLE_PAGES)], Permissions.READ_ONLY);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (TransactionId tid : tids) {
+            pool.transactionComplete(tid);
+        }
+        return (double) threads * HITS_PER_THREAD / elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = createTable();
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + TABLE_PAGES + " cached pages, " + HITS_PER_THREAD + " hits per thread");
+        // warm up the JIT
+        run(hf, 1, 1);
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            BenchmarkUtil.report(threads + " thread(s), 1 partition", run(hf, 1, threads),
+                    "hits/sec");
+            BenchmarkUtil.report(threads + " thread(s), " + threads + " partition(s)",
+                    run(hf, threads, threads), "hits/sec");
+        }
+        Database.reset();
+    }
+}
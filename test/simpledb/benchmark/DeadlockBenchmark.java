@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs many threads of short transactions that lock a few random pages of a
+ * small table, half of them exclusively, in random order, so that they often
+ * deadlock, against a {@link LockManager} with each deadlock policy. An
+ * aborted transaction releases its locks and restarts. Reports the committed
+ * transactions per second and how many transactions were aborted per hundred
+ * commits.
+ */
+public class DeadlockBenchmark {
+
+    private static final int THREADS = 64;
+    private static final int PAGES = 64;
+    private static final int LOCKS_PER_TRANSACTION = 4;
+    private static final int COMMITS_PER_THREAD = 300;
+
+    private static void run(LockManager.DeadlockPolicy policy) throws InterruptedException {
+        LockManager lm = new LockManager(policy);
+        PageId[] ids = new PageId[PAGES];
+        for (int i = 0; i < PAGES; ++i) {
+            ids[i] = new HeapPageId(1, i);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            Random rand = new Random(t);
+            threads.add(new Thread(() -> {
+                int commits = 0;
+                while (commits < COMMITS_PER_THREAD) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < LOCKS_PER_TRANSACTION; ++i) {
+                            lm.acquire(tid, ids[rand.nextInt(PAGES)],
+                                    rand.nextBoolean() ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                            Thread.yield();
+                        }
+                        ++commits;
+                    } catch (TransactionAbortedException e) {
+                        // restart
+                    }
+                    lm.releaseAll(tid);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        int commits = THREADS * COMMITS_PER_THREAD;
+        BenchmarkUtil.report(policy + ", throughput", commits / elapsed, "commits/sec");
+        BenchmarkUtil.report(policy + ", aborts", 100.0 * lm.getAborts() / commits,
+                "per 100 commits");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(THREADS + " threads, " + PAGES + " pages, " + LOCKS_PER_TRANSACTION
+                + " locks per transaction, " + COMMITS_PER_THREAD + " commits per thread");
+        // warm up the JIT
+        run(LockManager.DeadlockPolicy.YOUNGEST);
+        for (LockManager.DeadlockPolicy policy : LockManager.DeadlockPolicy.values()) {
+            run(policy);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb.benchmark;
+
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUKPolicy;
+import simpledb.storage.LRUPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.TwoQueuePolicy;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Replays a trace of page requests against each eviction policy, the way the
+ * buffer pool drives them, and reports the hit ratio and the average time to
+ * pick and drop a victim. The trace mixes point lookups, most of them to a hot
+ * set of half the buffer pool, with a sequential scan of twice the buffer pool
+ * after every twenty buffer pools' worth of lookups.
+ * <p>
+ * The policy the buffer pool used before, which only recorded when a page was
+ * added and looked through every cached page for the oldest, is replayed for
+ * comparison.
+ */
+public class EvictionBenchmark {
+
+    private static final int TABLE_PAGES = 200_000;
+    // lookups between two scans, in buffer pools
+    private static final int LOOKUPS_PER_SCAN = 20;
+    private static final int SCANS = 10;
+    private static final double HOT_FRACTION = 0.9;
+
+    /**
+     * The previous buffer pool policy: the page added longest ago, found by a
+     * linear search.
+     */
+    private static class LinearLRUPolicy implements EvictionPolicy {
+        private long now = 0;
+        private final Map<PageId, Long> added = new HashMap<>();
+
+        public void pageAdded(PageId pid) {
+            added.put(pid, now++);
+        }
+
+        public void pageAccessed(PageId pid) {
+        }
+
+        public void pageRemoved(PageId pid) {
+            added.remove(pid);
+        }
+
+        public PageId chooseVictim(Predicate<PageId> evictable) {
+            PageId min = null;
+            long minTime = Long.MAX_VALUE;
+            for (Map.Entry<PageId, Long> e : added.entrySet()) {
+                if (e.getValue() < minTime && evictable.test(e.getKey())) {
+                    minTime = e.getValue();
+                    min = e.getKey();
+                }
+            }
+            return min;
+        }
+    }
+
+    private static int[] trace(int poolPages) {
+        Random rand = new Random(6830);
+        int hot = poolPages / 2;
+        int lookups = LOOKUPS_PER_SCAN * poolPages;
+        int[] trace = new int[SCANS * (lookups + 2 * poolPages)];
+        int i = 0;
+        for (int scan = 0; scan < SCANS; ++scan) {
+            for (int j = 0; j < lookups; ++j) {
+                trace[i++] = rand.nextDouble() < HOT_FRACTION ? rand.nextInt(hot)
+                        : rand.nextInt(TABLE_PAGES);
+            }
+            int start = rand.nextInt(TABLE_PAGES - 2 * poolPages);
+            for (int j = 0; j < 2 * poolPages; ++j) {
+                trace[i++] = start + j;
+            }
+        }
+        return trace;
+    }
+
+    private static void replay(String name, EvictionPolicy policy, int poolPages, int[] trace,
+            PageId[] ids, boolean report) {
+        Set<PageId> cached = new HashSet<>();
+        long hits = 0;
+        long evictions = 0;
+        long evictNanos = 0;
+        for (int n : trace) {
+            PageId pid = ids[n];
+            if (cached.contains(pid)) {
+                policy.pageAccessed(pid);
+                ++hits;
+                continue;
+            }
+            if (cached.size() >= poolPages) {
+                long start = System.nanoTime();
+                PageId victim = policy.chooseVictim(p -> true);
+                policy.pageRemoved(victim);
+                evictNanos += System.nanoTime() - start;
+                cached.remove(victim);
+                ++evictions;
+            }
+            cached.add(pid);
+            policy.pageAdded(pid);
+        }
+        if (!report) {
+            return;
+        }
+        BenchmarkUtil.report(name + ", hit ratio", 100.0 * hits / trace.length, "%");
+        BenchmarkUtil.report(name + ", eviction", evictNanos / (double) Math.max(evictions, 1),
+                "ns");
+    }
+
+    public static void main(String[] args) {
+        PageId[] ids = new PageId[TABLE_PAGES];
+        for (int i = 0; i < TABLE_PAGES; ++i) {
+            ids[i] = new HeapPageId(1, i);
+        }
+        Map<String, IntFunction<EvictionPolicy>> policies = new LinkedHashMap<>();
+        policies.put("linear LRU (before)", pages -> new LinearLRUPolicy());
+        policies.put("LRU", pages -> new LRUPolicy());
+        policies.put("CLOCK", pages -> new ClockPolicy());
+        policies.put("LRU-2", LRUKPolicy::new);
+        policies.put("2Q", TwoQueuePolicy::new);
+        for (int poolPages : new int[] { 1000, 8000 }) {
+            int[] trace = trace(poolPages);
+            System.out.println(trace.length + " requests, " + poolPages + " page buffer pool, "
+                    + TABLE_PAGES + " page table, " + SCANS + " scans of " + 2 * poolPages
+                    + " pages");
+            // once to warm up the JIT, once measured
+            for (int round = 0; round < 2; ++round) {
+                for (Map.Entry<String, IntFunction<EvictionPolicy>> e : policies.entrySet()) {
+                    replay(e.getKey(), e.getValue().apply(poolPages), poolPages, trace, ids,
+                            round == 1);
+                }
+            }
+        }
+    }
+}
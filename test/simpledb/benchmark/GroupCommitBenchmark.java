@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many empty transactions per second clients that each begin and
+ * commit transactions in a loop get from a {@link LogFile}, with commits
+ * grouped into shared forces and with each commit forcing the log on its own
+ * while holding it, as every commit did before. How much grouping gains
+ * depends on how long a force of the log file takes here.
+ */
+public class GroupCommitBenchmark {
+
+    private static final int COMMITS_PER_CLIENT = 200;
+
+    private static double run(int clients, boolean grouped) throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; ++c) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < COMMITS_PER_CLIENT; ++i) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        if (grouped) {
+                            log.logCommit(tid);
+                        } else {
+                            synchronized (log) {
+                                log.logCommit(tid);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        f.delete();
+        return clients * COMMITS_PER_CLIENT / elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(COMMITS_PER_CLIENT + " commits per client");
+        // warm up the JIT
+        run(4, true);
+        for (int clients : new int[] { 1, 2, 4, 8, 16, 32 }) {
+            BenchmarkUtil.report(clients + " client(s), force per commit", run(clients, false),
+                    "commits/sec");
+            BenchmarkUtil.report(clients + " client(s), group commit", run(clients, true),
+                    "commits/sec");
+        }
+    }
+}
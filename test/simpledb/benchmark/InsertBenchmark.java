@@ -0,0 +1,50 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures HeapFile insert throughput into tables of growing size whose
+ * existing pages are all full, so that the cost of finding a page with room
+ * shows up as the table grows.
+ */
+public class InsertBenchmark {
+
+    private static final int COLUMNS = 2;
+    private static final int INSERTS = 2000;
+    private static final int[] TABLE_PAGES = { 16, 64, 256, 1024, 4096 };
+
+    private static double insert(int pages) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, pages * rowsPerPage, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < INSERTS; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, COLUMNS));
+            if (i % 100 == 99) {
+                // commit in batches, as a loader would
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        long elapsed = System.nanoTime() - start;
+        return INSERTS * 1e9 / elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // warm up
+        insert(TABLE_PAGES[0]);
+        for (int pages : TABLE_PAGES) {
+            BenchmarkUtil.report("insert into table of " + pages + " full pages",
+                    insert(pages), "tuples/sec");
+        }
+        Database.reset();
+    }
+}
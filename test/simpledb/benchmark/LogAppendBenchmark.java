@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many UPDATE records per second threads that each log before
+ * and after images of pages get from a {@link LogFile}, without forcing the
+ * log, so that only serializing and appending records is timed.
+ */
+public class LogAppendBenchmark {
+
+    private static final int RECORDS_PER_THREAD = 20_000;
+    private static final int PAGES = 16;
+    private static final int COLUMNS = 2;
+
+    private static double run(Page[] pages, int threads) throws Exception {
+        File f = File.createTempFile("logappend", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            int first = t;
+            workers.add(new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    log.logXactionBegin(tid);
+                    for (int i = 0; i < RECORDS_PER_THREAD; ++i) {
+                        Page page = pages[(first + i) % PAGES];
+                        log.logWrite(tid, page, page);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        f.delete();
+        return (double) threads * RECORDS_PER_THREAD / elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * rowsPerPage, null, null);
+        Page[] pages = new Page[PAGES];
+        for (int i = 0; i < PAGES; ++i) {
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i));
+        }
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + RECORDS_PER_THREAD + " records per thread");
+        // warm up the JIT
+        run(pages, 1);
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            BenchmarkUtil.report(threads + " thread(s), update records", run(pages, threads),
+                    "records/sec");
+        }
+        Database.reset();
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Measures how long {@link LogFile#logTruncate} holds the log against how
+ * much of the log it keeps: a transaction that is still running began at the
+ * start of the log, so every record after it is retained, and transactions
+ * that committed since fill the rest.
+ */
+public class LogTruncateBenchmark {
+
+    private static final int PAGES = 16;
+    private static final int COLUMNS = 2;
+
+    private static double run(Page[] pages, int records) throws Exception {
+        File f = File.createTempFile("logtruncate", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        TransactionId running = new TransactionId();
+        log.logXactionBegin(running);
+        for (int i = 0; i < records; ++i) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            Page page = pages[i % PAGES];
+            log.logWrite(tid, page.getBeforeImage(), page);
+            log.logCommit(tid);
+        }
+        log.logCheckpoint();
+        long start = System.nanoTime();
+        log.logTruncate();
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        List<File> segments = log.getSegmentFiles();
+        log.shutdown();
+        for (File segment : segments) {
+            segment.delete();
+        }
+        f.delete();
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * rowsPerPage, null, null);
+        Page[] pages = new Page[PAGES];
+        for (int i = 0; i < PAGES; ++i) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            page.setBeforeImage();
+            // so that each record logs one slot
+            page.deleteTuple(page.iterator().next());
+            pages[i] = page;
+        }
+        // warm up the JIT
+        run(pages, 1000);
+        for (int records : new int[] { 10_000, 40_000, 160_000 }) {
+            BenchmarkUtil.report(records + " retained transactions, truncate", run(pages, records),
+                    "ms");
+        }
+        Database.reset();
+    }
+}
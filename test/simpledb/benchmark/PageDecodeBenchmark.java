@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * Measures what it costs to turn the bytes of a full HeapPage into tuples:
+ * bytes allocated and pages per second when a scan only counts the rows, when
+ * it reads a single column (a selective Filter or a narrow Project) and when
+ * it reads every column.
+ */
+public class PageDecodeBenchmark {
+
+    private static final int COLUMNS = 8;
+    private static final int PAGES = 2000;
+
+    private interface Consumer {
+        long accept(Tuple t);
+    }
+
+    private static long decode(byte[][] pages, int tableId, Consumer consumer) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < pages.length; ++i) {
+            HeapPage page = new HeapPage(new HeapPageId(tableId, i), pages[i]);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                sink += consumer.accept(it.next());
+            }
+        }
+        return sink;
+    }
+
+    private static void run(String name, byte[][] pages, int tableId, Consumer consumer)
+            throws Exception {
+        BenchmarkUtil.measure(name, "pages", 5, () -> {
+            decode(pages, tableId, consumer);
+            return pages.length;
+        });
+        long before = BenchmarkUtil.allocatedBytes();
+        decode(pages, tableId, consumer);
+        long after = BenchmarkUtil.allocatedBytes();
+        if (before >= 0) {
+            BenchmarkUtil.report(name, (after - before) / (double) pages.length, "bytes/page");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, PAGES * rowsPerPage, 1000,
+                null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        byte[][] pages = new byte[PAGES][];
+        for (int i = 0; i < PAGES; ++i) {
+            pages[i] = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).getPageData();
+        }
+        System.out.println(PAGES + " full pages of " + rowsPerPage + " rows x " + COLUMNS
+                + " int columns");
+
+        run("count rows", pages, hf.getId(), t -> 1);
+        run("read one column", pages, hf.getId(),
+                t -> ((IntField) t.getField(3)).getValue());
+        run("read all columns", pages, hf.getId(), t -> {
+            long sum = 0;
+            for (int j = 0; j < COLUMNS; ++j) {
+                sum += ((IntField) t.getField(j)).getValue();
+            }
+            return sum;
+        });
+        Database.reset();
+    }
+}
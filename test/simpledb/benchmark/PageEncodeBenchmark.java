@@ -0,0 +1,125 @@
+package simpledb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what it costs to serialize a full page, as every flush, log record
+ * and before image does, for {@link Page#getPageData()}, which returns a fresh
+ * array, and for {@link Page#writePageData}, which writes into a buffer the
+ * caller reuses. Run with <code>ant runbench -Dbench=PageEncodeBenchmark</code>;
+ * the GC profiler reports the bytes allocated per page as gc.alloc.rate.norm.
+ * <p>
+ * Heap pages are measured both as read from disk, where unchanged slots are
+ * copied from the bytes the page was read from, and after every tuple has been
+ * inserted, where each field is encoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageEncodeBenchmark {
+
+    private static final int COLUMNS = 8;
+    private static final int COPIES = 64;
+
+    @Param({ "heap-read", "heap-inserted", "btree-leaf", "btree-internal" })
+    public String page;
+
+    private Page[] pages;
+    private final ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+
+    private static HeapPage fullHeapPage(int pageNo) throws Exception {
+        HeapPage p = new HeapPage(new HeapPageId(-1, pageNo), HeapPage.createEmptyPageData());
+        while (p.getNumUnusedSlots() > 0) {
+            p.insertTuple(Utility.getHeapTuple(p.getNumUnusedSlots(), COLUMNS));
+        }
+        return p;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(COLUMNS)), "t");
+        pages = new Page[COPIES];
+        // a heap page as read from disk, and the same rows inserted one by one
+        byte[] data = page.equals("heap-read") ? fullHeapPage(0).getPageData() : null;
+        for (int i = 0; i < COPIES; ++i) {
+            switch (page) {
+            case "heap-read":
+                pages[i] = new HeapPage(new HeapPageId(-1, i), data.clone());
+                break;
+            case "heap-inserted":
+                pages[i] = fullHeapPage(i);
+                break;
+            case "btree-leaf":
+                pages[i] = BTreeUtility.createRandomLeafPage(new BTreePageId(-1, i, BTreePageId.LEAF),
+                        COLUMNS, 0, 0, BTreeUtility.MAX_RAND_VALUE);
+                break;
+            default:
+                pages[i] = BTreeUtility.createRandomInternalPage(
+                        new BTreePageId(-1, i, BTreePageId.INTERNAL), 0, BTreePageId.LEAF, 0,
+                        BTreeUtility.MAX_RAND_VALUE, 1);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Database.reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COPIES)
+    public void getPageData(Blackhole bh) {
+        for (Page p : pages) {
+            bh.consume(p.getPageData());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COPIES)
+    public void writePageData(Blackhole bh) {
+        for (Page p : pages) {
+            buf.clear();
+            p.writePageData(buf);
+        }
+        bh.consume(buf);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PageEncodeBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
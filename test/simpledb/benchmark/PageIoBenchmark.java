@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageChannel;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Compares the old per-page RandomAccessFile reads (open, seek, readByte loop)
+ * with positional whole-page reads through {@link PageChannel}, and reports the
+ * resulting HeapFile.readPage rate.
+ */
+public class PageIoBenchmark {
+
+    private static final int PAGES = 2048;
+
+    private static byte[] legacyRead(File f, long offset) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        file.seek(offset);
+        for (int i = 0, n = BufferPool.getPageSize(); i < n; ++i) {
+            data[i] = file.readByte();
+        }
+        file.close();
+        return data;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (8 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, PAGES * rowsPerPage, 1000, null,
+                null);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        PageChannel io = new PageChannel(f);
+        int pageSize = BufferPool.getPageSize();
+        long[] randomOffsets = new long[PAGES];
+        Random r = new Random(0);
+        for (int i = 0; i < PAGES; ++i) {
+            randomOffsets[i] = (long) r.nextInt(PAGES) * pageSize;
+        }
+
+        System.out.println("page size " + pageSize + " bytes, " + PAGES + " pages, warm OS cache");
+        BenchmarkUtil.measure("sequential RandomAccessFile.readByte", "pages", 3, () -> {
+            for (int i = 0; i < PAGES; ++i) {
+                legacyRead(f, (long) i * pageSize);
+            }
+            return PAGES;
+        });
+        BenchmarkUtil.measure("sequential PageChannel.read", "pages", 3, () -> {
+            for (int i = 0; i < PAGES; ++i) {
+                io.read((long) i * pageSize, pageSize);
+            }
+            return PAGES;
+        });
+        BenchmarkUtil.measure("random RandomAccessFile.readByte", "pages", 3, () -> {
+            for (long off : randomOffsets) {
+                legacyRead(f, off);
+            }
+            return PAGES;
+        });
+        BenchmarkUtil.measure("random PageChannel.read", "pages", 3, () -> {
+            for (long off : randomOffsets) {
+                io.read(off, pageSize);
+            }
+            return PAGES;
+        });
+        BenchmarkUtil.measure("HeapFile.readPage", "pages", 3, () -> {
+            for (int i = 0; i < PAGES; ++i) {
+                hf.readPage(new HeapPageId(hf.getId(), i));
+            }
+            return PAGES;
+        });
+        io.close();
+        Database.reset();
+    }
+}
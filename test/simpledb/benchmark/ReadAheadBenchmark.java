@@ -0,0 +1,134 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReadAhead;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures a full scan of a table much larger than the buffer pool, summing
+ * every field, with each page fetched by a plain getPage and with the pages
+ * fetched through a {@link ReadAhead}, which reads the following pages on a
+ * background thread while the current one is processed.
+ * <p>
+ * The table file usually sits in the OS page cache, where a read costs a few
+ * microseconds and there is little to overlap, so the scans are also run with
+ * every page read delayed by {@link #DEVICE_LATENCY_NANOS}, standing in for a
+ * cold cache on a real disk.
+ */
+public class ReadAheadBenchmark {
+
+    private static final int PAGES = 4096;
+    private static final int COLUMNS = 4;
+    private static final int POOL_PAGES = 256;
+    private static final long DEVICE_LATENCY_NANOS = 100_000;
+
+    private static long sum;
+
+    /**
+     * A HeapFile whose page reads take at least a fixed time.
+     */
+    private static class SlowHeapFile extends HeapFile {
+        private final long latency;
+
+        SlowHeapFile(File f, HeapFile like, long latency) {
+            super(f, like.getTupleDesc());
+            this.latency = latency;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            long deadline = System.nanoTime() + latency;
+            Page page = super.readPage(pid);
+            for (long left; (left = deadline - System.nanoTime()) > 0;) {
+                LockSupport.parkNanos(left);
+            }
+            return page;
+        }
+    }
+
+    private static long process(Page page) {
+        long s = 0;
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int i = 0; i < COLUMNS; ++i) {
+                s += ((IntField) t.getField(i)).getValue();
+            }
+        }
+        return s;
+    }
+
+    static long scan(HeapFile hf, boolean readAhead) throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        ReadAhead ra = new ReadAhead(page -> {
+            int next = page.getId().getPageNumber() + 1;
+            return next < PAGES ? new HeapPageId(hf.getId(), next) : null;
+        }, ReadAhead.DEFAULT_MAX_WINDOW);
+        for (int i = 0; i < PAGES; ++i) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page page = readAhead ? ra.getPage(tid, pid, Permissions.READ_ONLY)
+                    : Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            sum += process(page);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return PAGES;
+    }
+
+    /**
+     * Times the two ways of scanning in alternating rounds, so that neither
+     * gets the JIT or the heap in a better state than the other, and reports
+     * the best round of each.
+     */
+    private static void compare(String name, HeapFile hf, int rounds) throws Exception {
+        double[] best = new double[2];
+        for (int i = 0; i < rounds + 2; ++i) {
+            for (int mode = 0; mode < 2; ++mode) {
+                long start = System.nanoTime();
+                long pages = scan(hf, mode == 1);
+                double rate = pages * 1e9 / (System.nanoTime() - start);
+                if (i >= 2) {
+                    best[mode] = Math.max(best[mode], rate);
+                }
+            }
+        }
+        BenchmarkUtil.report(name + ", getPage", best[0], "pages/sec");
+        BenchmarkUtil.report(name + ", read-ahead", best[1], "pages/sec");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, PAGES * rowsPerPage, 1000,
+                null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        System.out.println(PAGES + " pages of " + rowsPerPage + " rows, buffer pool of "
+                + POOL_PAGES + " pages, " + Runtime.getRuntime().availableProcessors() + " cpus");
+        compare("page cache", hf, 5);
+
+        // the same table again, behind a slow device
+        File copy = new File(f.getPath() + ".slow");
+        copy.deleteOnExit();
+        Files.copy(f.toPath(), copy.toPath());
+        HeapFile slow = new SlowHeapFile(copy, hf, DEVICE_LATENCY_NANOS);
+        Database.getCatalog().addTable(slow, "slow");
+        compare((DEVICE_LATENCY_NANOS / 1000) + "us reads", slow, 3);
+        System.out.println("(checksum " + sum + ")");
+        Database.reset();
+    }
+}
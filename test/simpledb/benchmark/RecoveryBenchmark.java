@@ -0,0 +1,74 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+
+/**
+ * Measures how long {@link LogFile#recover} takes to restart after a crash
+ * against the size of the log it recovers from. Each run commits
+ * transactions of a few inserts each with the background writer closed, so
+ * that no committed page is on disk and every change is redone, and leaves
+ * one transaction running to be undone.
+ */
+public class RecoveryBenchmark {
+
+    private static final int INSERTS_PER_TRANSACTION = 20;
+    private static final int COLUMNS = 2;
+
+    private static void run(int transactions, int threads) throws Exception {
+        Database.reset();
+        File f = File.createTempFile("recovery", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), COLUMNS);
+        Database.resetBufferPool(transactions * INSERTS_PER_TRANSACTION / 100 + 50);
+        hf = Utility.openHeapFile(COLUMNS, f);
+        Database.getBufferPool().close();
+        int v = 0;
+        for (int i = 0; i < transactions; ++i) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < INSERTS_PER_TRANSACTION; ++j) {
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                        Utility.getHeapTuple(v++, COLUMNS));
+            }
+            t.commit();
+        }
+        Transaction loser = new Transaction();
+        loser.start();
+        for (int j = 0; j < INSERTS_PER_TRANSACTION; ++j) {
+            Database.getBufferPool().insertTuple(loser.getId(), hf.getId(),
+                    Utility.getHeapTuple(v++, COLUMNS));
+        }
+        Database.getBufferPool().flushPages(loser.getId());
+
+        // crash
+        Database.reset();
+        Utility.openHeapFile(COLUMNS, f);
+        LogFile log = Database.getLogFile();
+        log.setRecoveryThreads(threads);
+        long start = System.nanoTime();
+        log.recover();
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        long size = log.getEnd();
+        BenchmarkUtil.report(String.format("%d transactions, %d KB of log, %d thread(s), restart",
+                transactions, size / 1024, threads), elapsed, "ms");
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + INSERTS_PER_TRANSACTION + " inserts per transaction");
+        // warm up the JIT
+        run(500, 1);
+        for (int transactions : new int[] { 1000, 4000, 16000 }) {
+            run(transactions, 1);
+            run(transactions, 4);
+        }
+        Database.reset();
+    }
+}
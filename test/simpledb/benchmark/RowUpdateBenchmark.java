@@ -0,0 +1,98 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many update transactions per second clients get from a hot
+ * table of two pages, where each client updates a row of its own: it deletes
+ * the row, waits a millisecond as a client on the other end of a connection
+ * would, inserts the new version and commits. Under page locks the clients
+ * queue on the pages, and a transaction that deadlocks is retried.
+ */
+public class RowUpdateBenchmark {
+
+    private static final long RUN_MS = 3000;
+    private static final int ROWS = 600;
+
+    private static long run(HeapFile hf, List<Tuple> rows, int clients) throws Exception {
+        AtomicLong commits = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        long end = System.currentTimeMillis() + RUN_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; ++c) {
+            int client = c;
+            threads.add(new Thread(() -> {
+                Tuple mine = rows.get(client * (ROWS / clients));
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Tuple next = Utility.getHeapTuple(client, 2);
+                        try {
+                            Database.getBufferPool().deleteTuple(t.getId(), mine);
+                            Thread.sleep(1);
+                            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), next);
+                            t.commit();
+                            mine = next;
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            t.abort();
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        BenchmarkUtil.report(clients + " client(s)", commits.get() * 1000.0 / RUN_MS, "txns/sec");
+        BenchmarkUtil.report(clients + " client(s), aborted", aborts.get() * 1000.0 / RUN_MS,
+                "txns/sec");
+        return commits.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int clients : new int[] { 1, 4, 16 }) {
+            File f = File.createTempFile("rowupdate", ".dat");
+            f.deleteOnExit();
+            HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+            Transaction load = new Transaction();
+            load.start();
+            for (int i = 0; i < ROWS; ++i) {
+                Database.getBufferPool().insertTuple(load.getId(), hf.getId(),
+                        Utility.getHeapTuple(i, 2));
+            }
+            load.commit();
+            List<Tuple> rows = new ArrayList<>();
+            Transaction scan = new Transaction();
+            scan.start();
+            DbFileIterator it = hf.iterator(scan.getId());
+            it.open();
+            while (it.hasNext()) {
+                rows.add(it.next());
+            }
+            it.close();
+            scan.commit();
+            System.out.println(hf.numPages() + " pages, " + rows.size() + " rows");
+            run(hf, rows, clients);
+            Database.reset();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Measures full SeqScan throughput over a table much larger than the buffer
+ * pool, so every page is a buffer pool miss, with the file read through
+ * positional reads and through a memory map.
+ */
+public class ScanBenchmark {
+
+    private static final int PAGES = 4096;
+    private static final int COLUMNS = 4;
+
+    static long scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        long rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++rows;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, PAGES * rowsPerPage, 1000,
+                null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        System.out.println(PAGES + " pages of " + rowsPerPage + " rows, buffer pool of "
+                + BufferPool.DEFAULT_PAGES + " pages");
+
+        hf.setMemoryMapped(false);
+        BenchmarkUtil.measure("SeqScan, positional reads", "pages", 5, () -> {
+            scan(hf);
+            return PAGES;
+        });
+        hf.setMemoryMapped(true);
+        BenchmarkUtil.measure("SeqScan, memory mapped", "pages", 5, () -> {
+            scan(hf);
+            return PAGES;
+        });
+        Database.reset();
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Measures what locking costs a full SeqScan of a table that is cached in the
+ * buffer pool, so that no page is read from disk: the scan rate, and the
+ * bytes a scan allocates, most of which are the lock entries of its pages
+ * when every page is locked.
+ */
+public class ScanLockBenchmark {
+
+    private static final int PAGES = 2048;
+    private static final int COLUMNS = 1;
+
+    private static long scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        long rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++rows;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, PAGES * rowsPerPage, 1000,
+                null, null);
+        Database.resetBufferPool(PAGES + 64);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        System.out.println(PAGES + " pages, all cached");
+
+        BenchmarkUtil.measure("cached SeqScan", "pages", 5, () -> {
+            scan(hf);
+            return PAGES;
+        });
+        long before = BenchmarkUtil.allocatedBytes();
+        scan(hf);
+        BenchmarkUtil.report("bytes allocated per page scanned",
+                (double) (BenchmarkUtil.allocatedBytes() - before) / PAGES, "bytes");
+        Database.reset();
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures the hit ratio of point lookups to a hot table that fits in the
+ * buffer pool while a reporting scan reads a table four times larger than the
+ * buffer pool, with the scan reading through the shared LRU and through a
+ * {@link BufferRing}. Each scanned page is interleaved with a lookup, as
+ * if the two ran concurrently.
+ */
+public class ScanRingBenchmark {
+
+    private static final int POOL_PAGES = 1000;
+    private static final int HOT_PAGES = 500;
+    private static final int SCAN_PAGES = 4 * POOL_PAGES;
+    private static final int LOOKUPS_PER_PAGE = 1;
+    private static final int COLUMNS = 2;
+
+    private static HeapFile createTable(int pages) throws Exception {
+        int rowsPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, pages * rowsPerPage, 1000,
+                null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        Database.getCatalog().addTable(hf, f.getName());
+        return hf;
+    }
+
+    private static void run(String name, HeapFile hot, HeapFile big, boolean ring)
+            throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        TransactionId lookups = new TransactionId();
+        TransactionId scan = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; ++i) {
+            pool.getPage(lookups, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        BufferRing r = ring ? pool.bulkReadRing(SCAN_PAGES) : null;
+        Random rand = new Random(6830);
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < SCAN_PAGES; ++i) {
+            pool.getPage(scan, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, r);
+            for (int j = 0; j < LOOKUPS_PER_PAGE; ++j) {
+                PageId pid = new HeapPageId(hot.getId(), rand.nextInt(HOT_PAGES));
+                if (pool.isBuffered(pid)) {
+                    ++hits;
+                }
+                pool.getPage(lookups, pid, Permissions.READ_ONLY);
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.transactionComplete(scan);
+        pool.transactionComplete(lookups);
+        BenchmarkUtil.report(name + ", lookup hit ratio",
+                100.0 * hits / (SCAN_PAGES * LOOKUPS_PER_PAGE), "%");
+        BenchmarkUtil.report(name + ", scan", SCAN_PAGES / elapsed, "pages/sec");
+    }
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hot = createTable(HOT_PAGES);
+        HeapFile big = createTable(SCAN_PAGES);
+        System.out.println(POOL_PAGES + " page buffer pool, " + HOT_PAGES + " hot pages, "
+                + SCAN_PAGES + " page scan, " + LOOKUPS_PER_PAGE + " lookup(s) per scanned page");
+        run("shared LRU", hot, big, false);
+        run("buffer ring", hot, big, true);
+        Database.reset();
+    }
+}
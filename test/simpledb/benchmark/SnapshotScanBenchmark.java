@@ -0,0 +1,125 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures a reporting query running against update transactions: one client
+ * scans the whole table over and over while the others each update a row of
+ * their own, as in {@link RowUpdateBenchmark}. The scans run either as
+ * ordinary transactions, which lock the table and so wait for the updates and
+ * hold them up, or as read-only transactions that read a snapshot without
+ * locks. A transaction that deadlocks is retried.
+ */
+public class SnapshotScanBenchmark {
+
+    private static final long RUN_MS = 3000;
+    private static final int ROWS = 20000;
+    private static final int WRITERS = 4;
+
+    private static void run(boolean snapshot) throws Exception {
+        File f = File.createTempFile("snapshotscan", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(hf, "report");
+        Transaction load = new Transaction();
+        load.start();
+        for (int i = 0; i < ROWS; ++i) {
+            Database.getBufferPool().insertTuple(load.getId(), hf.getId(),
+                    Utility.getHeapTuple(i, 2));
+        }
+        load.commit();
+        List<Tuple> rows = new ArrayList<>();
+        Transaction read = new Transaction();
+        read.start();
+        SeqScan all = new SeqScan(read.getId(), hf.getId());
+        all.open();
+        while (all.hasNext()) {
+            rows.add(all.next());
+        }
+        all.close();
+        read.commit();
+
+        AtomicLong updates = new AtomicLong();
+        AtomicLong scans = new AtomicLong();
+        long end = System.currentTimeMillis() + RUN_MS;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < WRITERS; ++c) {
+            int client = c;
+            threads.add(new Thread(() -> {
+                Tuple mine = rows.get(client * (ROWS / WRITERS));
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Tuple next = Utility.getHeapTuple(client, 2);
+                        try {
+                            Database.getBufferPool().deleteTuple(t.getId(), mine);
+                            Thread.sleep(1);
+                            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), next);
+                            t.commit();
+                            mine = next;
+                            updates.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            t.abort();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                while (System.currentTimeMillis() < end) {
+                    Transaction t = new Transaction(snapshot);
+                    t.start();
+                    try {
+                        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+                        scan.open();
+                        long n = 0;
+                        while (scan.hasNext()) {
+                            scan.next();
+                            ++n;
+                        }
+                        scan.close();
+                        t.commit();
+                        if (n != ROWS) {
+                            throw new IllegalStateException("scan saw " + n + " rows");
+                        }
+                        scans.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        t.abort();
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        String mode = snapshot ? "snapshot scans" : "locking scans";
+        BenchmarkUtil.report(mode + ", updates", updates.get() * 1000.0 / RUN_MS, "txns/sec");
+        BenchmarkUtil.report(mode + ", scans", scans.get() * 1000.0 / RUN_MS, "scans/sec");
+        Database.reset();
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(false);
+        run(true);
+    }
+}
@@ -60,8 +60,8 @@ public class AbortEvictionTest extends SimpleDbTestBase {
         return found;
     }
 
-    /** Aborts a transaction and ensures that its effects were actually undone.
-     * This requires dirty pages to <em>not</em> get flushed to disk.
+    /** Aborts a transaction and ensures that its effects were actually undone,
+     * including on dirty pages that eviction wrote to disk.
      */
     @Test public void testDoNotEvictDirtyPages()
             throws IOException, DbException, TransactionAbortedException {
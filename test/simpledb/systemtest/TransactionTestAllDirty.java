@@ -13,7 +13,7 @@ import simpledb.transaction.TransactionAbortedException;
 import static org.junit.Assert.*;
 
 public class TransactionTestAllDirty extends SimpleDbTestBase {
-    @Test public void testAllDirtyFails()
+    @Test public void testAllDirtyStolen()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
@@ -26,12 +26,16 @@ public class TransactionTestAllDirty extends SimpleDbTestBase {
         // Insert a new row
         AbortEvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            AbortEvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException ignored) {}
-        t.commit();
+        // Scanning the table writes the dirty page out to make room for the others
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        assertTrue(Database.getBufferPool().getSteals() > 0);
+
+        // and aborting undoes the write from the log
+        t.abort();
+        Transaction t2 = new Transaction();
+        t2.start();
+        assertFalse(AbortEvictionTest.findMagicTuple(f, t2));
+        t2.commit();
     }
 
     /** Make test compatible with older version of ant. */